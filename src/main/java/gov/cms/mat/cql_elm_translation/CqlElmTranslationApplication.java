@@ -1,6 +1,8 @@
 package gov.cms.mat.cql_elm_translation;
 
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsageInterceptor;
+import gov.cms.mat.cql_elm_translation.config.admission.TranslationAdmissionInterceptor;
 import gov.cms.mat.cql_elm_translation.config.logging.LogInterceptor;
 import gov.cms.mat.cql_elm_translation.config.security.SecurityFilter;
 import lombok.extern.slf4j.Slf4j;
@@ -60,20 +62,30 @@ public class CqlElmTranslationApplication {
   }
 
   @Bean
-  public WebMvcConfigurer corsConfigurer(@Autowired LogInterceptor logInterceptor) {
+  public WebMvcConfigurer corsConfigurer(
+      @Autowired LogInterceptor logInterceptor,
+      @Autowired ResourceUsageInterceptor resourceUsageInterceptor,
+      @Autowired TranslationAdmissionInterceptor translationAdmissionInterceptor) {
     return new WebMvcConfigurer() {
 
       @Override
       public void addInterceptors(InterceptorRegistry registry) {
         WebMvcConfigurer.super.addInterceptors(registry);
         registry.addInterceptor(logInterceptor);
+        // after the log interceptor, so its usage is complete when the audit line is written
+        registry.addInterceptor(resourceUsageInterceptor);
+        registry
+            .addInterceptor(translationAdmissionInterceptor)
+            .addPathPatterns("/cql/**", "/cql-builder-lookups", "/effective-data-requirements")
+            // batches are limited by their own pool instead of holding admission units throughout
+            .excludePathPatterns("/cql/translator/cql/batch");
       }
 
       @Override
       public void addCorsMappings(CorsRegistry registry) {
         registry
             .addMapping("/**")
-            .allowedMethods("PUT", "POST", "GET")
+            .allowedMethods("PUT", "POST", "GET", "DELETE")
             .allowedOrigins(
                 "http://localhost:9000",
                 "https://dev-madie.hcqis.org",
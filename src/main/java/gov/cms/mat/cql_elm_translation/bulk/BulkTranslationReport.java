@@ -0,0 +1,46 @@
+package gov.cms.mat.cql_elm_translation.bulk;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/** Outcome of an offline bulk run, written next to the translated ELM. */
+public record BulkTranslationReport(
+    int threads,
+    long durationMillis,
+    int translated,
+    int withErrors,
+    int failed,
+    List<Entry> entries) {
+
+  public enum Status {
+    OK,
+    ERRORS,
+    FAILED
+  }
+
+  /** One input file. ERRORS means ELM was written but the translator reported errors. */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public record Entry(
+      String file,
+      String library,
+      String version,
+      Status status,
+      int errorCount,
+      String firstError,
+      long durationMillis) {}
+
+  public static BulkTranslationReport of(int threads, long durationMillis, List<Entry> entries) {
+    return new BulkTranslationReport(
+        threads,
+        durationMillis,
+        count(entries, Status.OK),
+        count(entries, Status.ERRORS),
+        count(entries, Status.FAILED),
+        entries);
+  }
+
+  private static int count(List<Entry> entries, Status status) {
+    return (int) entries.stream().filter(entry -> entry.status() == status).count();
+  }
+}
@@ -0,0 +1,204 @@
+package gov.cms.mat.cql_elm_translation.bulk;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.cql_elm_translation.controllers.CqlConversionController.TranslatorOptionsRemover;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.service.support.CompiledIncludes;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline translation of a whole library archive, for re-translating everything after a translator
+ * upgrade without loading the HTTP service. Runs with the bulk profile: every .cql file under the
+ * input directory is translated, includes are resolved from the same directory, and the ELM JSON
+ * and XML are written under the output directory at the same relative path together with a
+ * report.json of timings and errors.
+ *
+ * <pre>
+ * java -jar cql-elm-translation.jar --spring.profiles.active=bulk \
+ *   --madie.bulk.input-dir=/data/cql --madie.bulk.output-dir=/data/elm
+ * </pre>
+ */
+@Slf4j
+@Component
+@Profile("bulk")
+@RequiredArgsConstructor
+public class BulkTranslationRunner implements ApplicationRunner {
+
+  static final String REPORT_FILE = "report.json";
+
+  private static final RequestData OPTIONS =
+      RequestData.builder()
+          .showWarnings(false)
+          .signatures(LibraryBuilder.SignatureLevel.All)
+          .annotations(true)
+          .locators(true)
+          .disableListDemotion(true)
+          .disableListPromotion(true)
+          .disableMethodInvocation(false)
+          .validateUnits(true)
+          .resultTypes(true)
+          .build();
+
+  @Value("${madie.bulk.input-dir}")
+  private String inputDir;
+
+  @Value("${madie.bulk.output-dir}")
+  private String outputDir;
+
+  @Value("${madie.bulk.parallelism}")
+  private int parallelism;
+
+  private final CqlConversionService cqlConversionService;
+  private final ObjectMapper reportMapper =
+      new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  @Override
+  public void run(ApplicationArguments args) throws IOException {
+    int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    Path output = Path.of(outputDir);
+    BulkTranslationReport report = translate(Path.of(inputDir), output, threads);
+    reportMapper.writeValue(output.resolve(REPORT_FILE).toFile(), report);
+    log.info(
+        "Bulk translation of [{}] files finished in {} ms on [{}] threads: [{}] ok, [{}] with"
+            + " errors, [{}] failed",
+        report.entries().size(),
+        report.durationMillis(),
+        threads,
+        report.translated(),
+        report.withErrors(),
+        report.failed());
+  }
+
+  BulkTranslationReport translate(Path input, Path output, int threads) throws IOException {
+    long start = System.currentTimeMillis();
+    DirectoryCqlLibraryService libraries = new DirectoryCqlLibraryService(input);
+    Files.createDirectories(output);
+    // libraries compiled as includes of one file are reused by every later file
+    Map<VersionedIdentifier, CompiledLibrary> sharedIncludes = new ConcurrentHashMap<>();
+    AtomicInteger count = new AtomicInteger();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            threads,
+            runnable -> {
+              Thread thread = new Thread(runnable, "bulk-translation-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      List<Future<BulkTranslationReport.Entry>> futures = new ArrayList<>();
+      libraries.getFiles().entrySet().stream()
+          .sorted(Map.Entry.comparingByKey())
+          .forEach(
+              file ->
+                  futures.add(
+                      executor.submit(
+                          () ->
+                              translateFile(
+                                  file.getKey(),
+                                  file.getValue(),
+                                  output,
+                                  libraries,
+                                  sharedIncludes))));
+      List<BulkTranslationReport.Entry> entries = new ArrayList<>();
+      for (Future<BulkTranslationReport.Entry> future : futures) {
+        entries.add(future.get());
+      }
+      return BulkTranslationReport.of(threads, System.currentTimeMillis() - start, entries);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Bulk translation interrupted", e);
+    } catch (ExecutionException e) {
+      // translateFile reports its own failures, so this is not expected
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private BulkTranslationReport.Entry translateFile(
+      Path file,
+      String cql,
+      Path output,
+      DirectoryCqlLibraryService libraries,
+      Map<VersionedIdentifier, CompiledLibrary> sharedIncludes) {
+    long start = System.currentTimeMillis();
+    CqlHeader cqlHeader = CqlHeader.parse(cql);
+    LibraryProperties library = cqlHeader.library();
+    String name = library == null ? null : library.getName();
+    String version = library == null ? null : library.getVersion();
+    try {
+      RequestData requestData = OPTIONS.toBuilder().cqlData(cql).build();
+      CqlTranslator cqlTranslator =
+          cqlConversionService.processCqlData(
+              requestData,
+              TranslationContext.of(cqlHeader, libraries, ""),
+              Map.copyOf(sharedIncludes));
+      CqlConversionPayload payload =
+          cqlConversionService.toPayload(requestData, cqlHeader, cqlTranslator);
+      sharedIncludes.putAll(CompiledIncludes.of(cqlTranslator));
+
+      String baseName = file.toString().substring(0, file.toString().length() - ".cql".length());
+      Path json = output.resolve(baseName + ".json");
+      Files.createDirectories(json.getParent());
+      // the same ELM JSON the /cql endpoint answers with
+      Files.writeString(
+          json, new TranslatorOptionsRemover(payload.getJson()).clean(), StandardCharsets.UTF_8);
+      Files.writeString(
+          output.resolve(baseName + ".xml"), payload.getXml(), StandardCharsets.UTF_8);
+
+      List<CqlCompilerException> errors =
+          cqlTranslator.getExceptions().stream()
+              .filter(e -> e.getSeverity() == CqlCompilerException.ErrorSeverity.Error)
+              .toList();
+      return new BulkTranslationReport.Entry(
+          file.toString(),
+          name,
+          version,
+          errors.isEmpty() ? BulkTranslationReport.Status.OK : BulkTranslationReport.Status.ERRORS,
+          errors.size(),
+          errors.isEmpty() ? null : errors.get(0).getMessage(),
+          System.currentTimeMillis() - start);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Bulk translation of [{}] failed", file, e);
+      return new BulkTranslationReport.Entry(
+          file.toString(),
+          name,
+          version,
+          BulkTranslationReport.Status.FAILED,
+          0,
+          e.getMessage() == null ? e.getClass().getName() : e.getMessage(),
+          System.currentTimeMillis() - start);
+    }
+  }
+}
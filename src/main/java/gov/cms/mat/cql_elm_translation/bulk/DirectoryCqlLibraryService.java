@@ -0,0 +1,91 @@
+package gov.cms.mat.cql_elm_translation.bulk;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Library service for offline runs. Every .cql file under a directory is read once and indexed by
+ * the name and version in its library declaration, and includes are answered from that index
+ * instead of the library service, so no network or token is needed.
+ */
+@Slf4j
+public class DirectoryCqlLibraryService extends CqlLibraryService {
+
+  private final Map<String, String> libraries;
+  private final Map<Path, String> files;
+
+  public DirectoryCqlLibraryService(Path directory) {
+    super(null);
+    this.files = readCqlFiles(directory);
+    this.libraries = new HashMap<>();
+    files.forEach(
+        (path, cql) -> {
+          LibraryProperties library = CqlHeader.parse(cql).library();
+          if (library == null || library.getName() == null) {
+            log.warn("No library declaration in [{}], it cannot be included", path);
+            return;
+          }
+          String previous =
+              libraries.putIfAbsent(key(library.getName(), library.getVersion()), cql);
+          if (previous != null) {
+            log.warn(
+                "Library [{}] version [{}] found more than once, ignoring [{}]",
+                library.getName(),
+                library.getVersion(),
+                path);
+          }
+        });
+    log.info(
+        "Indexed [{}] libraries from [{}] files in [{}]",
+        libraries.size(),
+        files.size(),
+        directory);
+  }
+
+  /** The CQL of every file found, by path relative to the directory. */
+  public Map<Path, String> getFiles() {
+    return files;
+  }
+
+  @Override
+  public String getLibraryCql(String name, String version, String accessToken) {
+    String cql = libraries.get(key(name, version));
+    if (cql == null) {
+      log.warn("Library [{}] version [{}] is not in the input directory", name, version);
+    }
+    return cql;
+  }
+
+  private static String key(String name, String version) {
+    return name + "-" + version;
+  }
+
+  private static Map<Path, String> readCqlFiles(Path directory) {
+    Map<Path, String> files = new HashMap<>();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      List<Path> cqlPaths =
+          paths
+              .filter(Files::isRegularFile)
+              .filter(path -> path.toString().endsWith(".cql"))
+              .toList();
+      for (Path path : cqlPaths) {
+        files.put(directory.relativize(path), Files.readString(path, StandardCharsets.UTF_8));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read CQL files from " + directory, e);
+    }
+    return files;
+  }
+}
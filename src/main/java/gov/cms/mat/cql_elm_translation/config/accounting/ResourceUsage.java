@@ -0,0 +1,84 @@
+package gov.cms.mat.cql_elm_translation.config.accounting;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bytes allocated and CPU time used on behalf of one request, summed over every thread that worked
+ * for it. The request thread binds the usage with {@link #bind}, and work handed to other threads
+ * carries it along with {@link #measure}, the same way the MDC is carried.
+ */
+public final class ResourceUsage {
+
+  private static final ThreadLocal<ResourceUsage> CURRENT = new ThreadLocal<>();
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final com.sun.management.ThreadMXBean SUN_THREADS =
+      THREADS instanceof com.sun.management.ThreadMXBean sunThreads ? sunThreads : null;
+
+  /** Counters of the current thread at some point, to take the difference from later. */
+  public record Snapshot(long allocatedBytes, long cpuNanos) {}
+
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong cpuNanos = new AtomicLong();
+
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  public long getCpuNanos() {
+    return cpuNanos.get();
+  }
+
+  /** The usage bound to the current thread, null outside of a request. */
+  public static ResourceUsage current() {
+    return CURRENT.get();
+  }
+
+  /** Binds this usage to the current thread and returns where the thread's counters stand. */
+  public Snapshot bind() {
+    CURRENT.set(this);
+    return snapshot();
+  }
+
+  /** Adds what the current thread used since the snapshot and unbinds it. */
+  public void unbind(Snapshot start) {
+    add(start);
+    CURRENT.remove();
+  }
+
+  /** Adds what the current thread used since the snapshot. */
+  public void add(Snapshot start) {
+    Snapshot now = snapshot();
+    if (start.allocatedBytes() >= 0 && now.allocatedBytes() >= 0) {
+      allocatedBytes.addAndGet(now.allocatedBytes() - start.allocatedBytes());
+    }
+    if (start.cpuNanos() >= 0 && now.cpuNanos() >= 0) {
+      cpuNanos.addAndGet(now.cpuNanos() - start.cpuNanos());
+    }
+  }
+
+  /** Runs work on the current thread and charges what it used to the usage, when there is one. */
+  public static <T> T measure(ResourceUsage usage, Supplier<T> work) {
+    if (usage == null) {
+      return work.get();
+    }
+    Snapshot start = usage.bind();
+    try {
+      return work.get();
+    } finally {
+      usage.unbind(start);
+    }
+  }
+
+  /** Where the current thread's counters stand, -1 for counters the JVM does not provide. */
+  public static Snapshot snapshot() {
+    long allocated =
+        SUN_THREADS != null && SUN_THREADS.isThreadAllocatedMemoryEnabled()
+            ? SUN_THREADS.getCurrentThreadAllocatedBytes()
+            : -1;
+    long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    return new Snapshot(allocated, cpu);
+  }
+}
@@ -0,0 +1,61 @@
+package gov.cms.mat.cql_elm_translation.config.accounting;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports a request's resource usage in a response header when enabled. The header has to go out
+ * before the body, so it holds everything up to writing the response, not the writing itself.
+ */
+@ControllerAdvice
+public class ResourceUsageHeaderAdvice implements ResponseBodyAdvice<Object> {
+  public static final String RESOURCE_USAGE_HEADER = "X-Resource-Usage";
+
+  @Value("${madie.translation.accounting.response-header}")
+  private boolean responseHeader;
+
+  @Override
+  public boolean supports(
+      MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+    return responseHeader;
+  }
+
+  @Override
+  public Object beforeBodyWrite(
+      Object body,
+      MethodParameter returnType,
+      MediaType selectedContentType,
+      Class<? extends HttpMessageConverter<?>> selectedConverterType,
+      ServerHttpRequest request,
+      ServerHttpResponse response) {
+    if (request instanceof ServletServerHttpRequest servletRequest) {
+      HttpServletRequest httpRequest = servletRequest.getServletRequest();
+      ResourceUsage usage =
+          (ResourceUsage) httpRequest.getAttribute(ResourceUsageInterceptor.USAGE);
+      Object snapshot = httpRequest.getAttribute(ResourceUsageInterceptor.SNAPSHOT);
+      if (usage != null && snapshot instanceof ResourceUsage.Snapshot start) {
+        // charge the request thread so far and carry on from here
+        usage.add(start);
+        httpRequest.setAttribute(ResourceUsageInterceptor.SNAPSHOT, ResourceUsage.snapshot());
+        response
+            .getHeaders()
+            .set(
+                RESOURCE_USAGE_HEADER,
+                String.format(
+                    "allocated-bytes=%d, cpu-millis=%d",
+                    usage.getAllocatedBytes(), TimeUnit.NANOSECONDS.toMillis(usage.getCpuNanos())));
+      }
+    }
+    return body;
+  }
+}
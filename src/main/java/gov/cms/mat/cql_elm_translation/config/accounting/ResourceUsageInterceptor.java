@@ -0,0 +1,95 @@
+package gov.cms.mat.cql_elm_translation.config.accounting;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts the bytes allocated and the CPU time used by each request, including the work it hands
+ * to the translation executor, and publishes them per endpoint. {@link
+ * gov.cms.mat.cql_elm_translation.config.logging.LogInterceptor} adds them to the audit line, so
+ * this interceptor has to be registered after it.
+ */
+@Component
+public class ResourceUsageInterceptor implements AsyncHandlerInterceptor {
+  public static final String USAGE = ResourceUsageInterceptor.class.getName() + ".USAGE";
+  static final String SNAPSHOT = ResourceUsageInterceptor.class.getName() + ".SNAPSHOT";
+
+  @Value("${madie.translation.accounting.enabled}")
+  private boolean enabled;
+
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+
+  public ResourceUsageInterceptor(ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @Override
+  public boolean preHandle(
+      HttpServletRequest request, HttpServletResponse response, Object handler) {
+    if (!enabled) {
+      return true;
+    }
+    ResourceUsage usage = (ResourceUsage) request.getAttribute(USAGE);
+    if (usage == null || request.getDispatcherType() != DispatcherType.ASYNC) {
+      usage = new ResourceUsage();
+      request.setAttribute(USAGE, usage);
+    }
+    // an async dispatch continues the usage of the request on another thread
+    request.setAttribute(SNAPSHOT, usage.bind());
+    return true;
+  }
+
+  @Override
+  public void afterConcurrentHandlingStarted(
+      HttpServletRequest request, HttpServletResponse response, Object handler) {
+    unbind(request);
+  }
+
+  @Override
+  public void afterCompletion(
+      HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+    ResourceUsage usage = unbind(request);
+    if (usage == null) {
+      return;
+    }
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    String endpoint = pattern == null ? "unknown" : pattern.toString();
+    meterRegistryProvider.ifAvailable(
+        registry -> {
+          DistributionSummary.builder("translation.request.allocated")
+              .description("Bytes allocated on behalf of a request")
+              .baseUnit("bytes")
+              .tag("endpoint", endpoint)
+              .publishPercentiles(0.5, 0.99)
+              .register(registry)
+              .record(usage.getAllocatedBytes());
+          Timer.builder("translation.request.cpu")
+              .description("CPU time used on behalf of a request")
+              .tag("endpoint", endpoint)
+              .publishPercentiles(0.5, 0.99)
+              .register(registry)
+              .record(usage.getCpuNanos(), TimeUnit.NANOSECONDS);
+        });
+  }
+
+  private static ResourceUsage unbind(HttpServletRequest request) {
+    ResourceUsage usage = (ResourceUsage) request.getAttribute(USAGE);
+    Object snapshot = request.getAttribute(SNAPSHOT);
+    if (usage != null && snapshot instanceof ResourceUsage.Snapshot start) {
+      usage.unbind(start);
+      request.removeAttribute(SNAPSHOT);
+    }
+    return usage;
+  }
+}
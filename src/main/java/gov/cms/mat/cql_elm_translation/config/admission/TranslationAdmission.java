@@ -0,0 +1,108 @@
+package gov.cms.mat.cql_elm_translation.config.admission;
+
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Bounds the total estimated cost of translations running at once. Requests that do not fit wait in
+ * a bounded queue for a limited time; anything beyond that is rejected so the caller can retry
+ * against another pod instead of pushing this one into GC thrash.
+ */
+@Slf4j
+public class TranslationAdmission {
+
+  @Getter private final int capacity;
+  private final int maxQueueDepth;
+  private final long maxQueueWaitMillis;
+  private final long retryAfterSeconds;
+  private final double heapShedRatio;
+  private final DoubleSupplier heapOccupancy;
+
+  private final Semaphore permits;
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger unitsInUse = new AtomicInteger();
+
+  public TranslationAdmission(
+      int capacity,
+      int maxQueueDepth,
+      long maxQueueWaitMillis,
+      long retryAfterSeconds,
+      double heapShedRatio,
+      DoubleSupplier heapOccupancy) {
+    this.capacity = capacity;
+    this.maxQueueDepth = maxQueueDepth;
+    this.maxQueueWaitMillis = maxQueueWaitMillis;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.heapShedRatio = heapShedRatio;
+    this.heapOccupancy = heapOccupancy;
+    this.permits = new Semaphore(capacity, true);
+  }
+
+  /**
+   * Blocks until the requested cost fits, or throws when the service is saturated.
+   *
+   * @param cost estimated cost of the request, capped at the total capacity
+   * @return the number of units acquired, to be handed back to {@link #release(int)}
+   * @throws TranslationOverloadedException when the request cannot be admitted
+   */
+  public int admit(int cost) {
+    int units = Math.max(1, Math.min(cost, capacity));
+    if (heapShedRatio > 0 && heapOccupancy.getAsDouble() >= heapShedRatio) {
+      throw overloaded("Heap occupancy is above the load shedding threshold");
+    }
+    if (permits.tryAcquire(units)) {
+      unitsInUse.addAndGet(units);
+      return units;
+    }
+    if (queueDepth.incrementAndGet() > maxQueueDepth) {
+      queueDepth.decrementAndGet();
+      throw overloaded("Translation queue is full");
+    }
+    try {
+      if (!permits.tryAcquire(units, maxQueueWaitMillis, TimeUnit.MILLISECONDS)) {
+        throw overloaded("Timed out waiting for translation capacity");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw overloaded("Interrupted while waiting for translation capacity");
+    } finally {
+      queueDepth.decrementAndGet();
+    }
+    unitsInUse.addAndGet(units);
+    return units;
+  }
+
+  public void release(int units) {
+    unitsInUse.addAndGet(-units);
+    permits.release(units);
+  }
+
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  public int getUnitsInUse() {
+    return unitsInUse.get();
+  }
+
+  /** Fraction of the capacity currently in use, 1.0 meaning fully saturated. */
+  public double getSaturation() {
+    return (double) unitsInUse.get() / capacity;
+  }
+
+  private TranslationOverloadedException overloaded(String reason) {
+    log.warn(
+        "{}: units in use [{}/{}], queue depth [{}]",
+        reason,
+        unitsInUse.get(),
+        capacity,
+        queueDepth.get());
+    return new TranslationOverloadedException(reason, retryAfterSeconds);
+  }
+}
@@ -0,0 +1,213 @@
+package gov.cms.mat.cql_elm_translation.config.admission;
+
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationLane;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationLaneClassifier;
+import gov.cms.mat.cql_elm_translation.config.logging.BufferedStreamFilter;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.WebUtils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Admission control in front of the translation endpoints. Each request is charged an estimated
+ * cost before the handler runs and the cost is handed back once the request completes. A request
+ * answered asynchronously holds its cost until the response of its async dispatch is written. Each
+ * {@link TranslationLane} is admitted against a budget of its own, so batch work queueing for
+ * capacity never holds up editor requests.
+ */
+@Slf4j
+@Component
+public class TranslationAdmissionInterceptor implements HandlerInterceptor {
+  static final String ADMITTED_UNITS =
+      TranslationAdmissionInterceptor.class.getName() + ".ADMITTED_UNITS";
+  static final String ADMITTED_LANE =
+      TranslationAdmissionInterceptor.class.getName() + ".ADMITTED_LANE";
+
+  private static final long BYTES_PER_CAPACITY_UNIT = 64L * 1024 * 1024;
+  private static final int MIN_CAPACITY = 4;
+
+  @Value("${madie.translation.admission.enabled}")
+  private boolean enabled;
+
+  @Value("${madie.translation.admission.capacity}")
+  private int capacity;
+
+  @Value("${madie.translation.admission.batch-share}")
+  private double batchShare;
+
+  @Value("${madie.translation.admission.bytes-per-unit}")
+  private int bytesPerUnit;
+
+  @Value("${madie.translation.admission.max-queue-depth}")
+  private int maxQueueDepth;
+
+  @Value("${madie.translation.admission.max-queue-wait-millis}")
+  private long maxQueueWaitMillis;
+
+  @Value("${madie.translation.admission.retry-after-seconds}")
+  private long retryAfterSeconds;
+
+  @Value("${madie.translation.admission.heap-shed-ratio}")
+  private double heapShedRatio;
+
+  private final TranslationLaneClassifier laneClassifier;
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private final Map<TranslationLane, TranslationAdmission> admissions =
+      new EnumMap<>(TranslationLane.class);
+  private final Map<TranslationLane, Counter> rejectedCounters =
+      new EnumMap<>(TranslationLane.class);
+
+  public TranslationAdmissionInterceptor(
+      TranslationLaneClassifier laneClassifier,
+      ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.laneClassifier = laneClassifier;
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    // when not configured, size the capacity from the heap so bigger pods admit more work
+    int effectiveCapacity =
+        capacity > 0
+            ? capacity
+            : Math.max(
+                MIN_CAPACITY, (int) (Runtime.getRuntime().maxMemory() / BYTES_PER_CAPACITY_UNIT));
+    int batchCapacity = Math.max(1, (int) Math.round(effectiveCapacity * batchShare));
+    int interactiveCapacity = Math.max(1, effectiveCapacity - batchCapacity);
+    admissions.put(TranslationLane.INTERACTIVE, admission(interactiveCapacity));
+    admissions.put(TranslationLane.BATCH, admission(batchCapacity));
+    log.info(
+        "Translation admission enabled [{}], capacity [{}] interactive and [{}] batch units,"
+            + " max queue depth [{}]",
+        enabled,
+        interactiveCapacity,
+        batchCapacity,
+        maxQueueDepth);
+    meterRegistryProvider.ifAvailable(this::registerMetrics);
+  }
+
+  private TranslationAdmission admission(int laneCapacity) {
+    return new TranslationAdmission(
+        laneCapacity,
+        maxQueueDepth,
+        maxQueueWaitMillis,
+        retryAfterSeconds,
+        heapShedRatio,
+        TranslationAdmissionInterceptor::oldGenOccupancyAfterGc);
+  }
+
+  private void registerMetrics(MeterRegistry registry) {
+    admissions.forEach(
+        (lane, admission) -> {
+          Gauge.builder("translation.admission.queue.depth", admission::getQueueDepth)
+              .description("Translation requests waiting for admission")
+              .tag("lane", lane.getTag())
+              .register(registry);
+          Gauge.builder("translation.admission.units.in.use", admission::getUnitsInUse)
+              .description("Admission units held by running translations")
+              .tag("lane", lane.getTag())
+              .register(registry);
+          Gauge.builder("translation.admission.saturation", admission::getSaturation)
+              .description("Fraction of the admission capacity in use")
+              .tag("lane", lane.getTag())
+              .register(registry);
+          rejectedCounters.put(
+              lane,
+              Counter.builder("translation.admission.rejected")
+                  .description("Translation requests rejected because the service was saturated")
+                  .tag("lane", lane.getTag())
+                  .register(registry));
+        });
+  }
+
+  @Override
+  public boolean preHandle(
+      HttpServletRequest request, HttpServletResponse response, Object handler) {
+    // an async dispatch was admitted by its request dispatch
+    if (!enabled || request.getDispatcherType() == DispatcherType.ASYNC) {
+      return true;
+    }
+    int cost =
+        TranslationCostEstimator.estimate(
+            readBody(request), request.getContentLengthLong(), bytesPerUnit);
+    TranslationLane lane = laneClassifier.classify(request);
+    try {
+      request.setAttribute(ADMITTED_UNITS, admissions.get(lane).admit(cost));
+      request.setAttribute(ADMITTED_LANE, lane);
+    } catch (TranslationOverloadedException e) {
+      Counter rejectedCounter = rejectedCounters.get(lane);
+      if (rejectedCounter != null) {
+        rejectedCounter.increment();
+      }
+      throw e;
+    }
+    return true;
+  }
+
+  @Override
+  public void afterCompletion(
+      HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+    if (request.getAttribute(ADMITTED_UNITS) instanceof Integer units
+        && request.getAttribute(ADMITTED_LANE) instanceof TranslationLane lane) {
+      request.removeAttribute(ADMITTED_UNITS);
+      request.removeAttribute(ADMITTED_LANE);
+      admissions.get(lane).release(units);
+    }
+  }
+
+  TranslationAdmission getAdmission(TranslationLane lane) {
+    return admissions.get(lane);
+  }
+
+  /** Only reads the body when it has been buffered, otherwise the handler would lose it. */
+  private String readBody(HttpServletRequest request) {
+    var buffered =
+        WebUtils.getNativeRequest(request, BufferedStreamFilter.NonBufferingRequestWrapper.class);
+    if (buffered == null) {
+      return null;
+    }
+    try {
+      return IOUtils.toString(buffered.getInputStream(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      log.debug("Unable to read request body for cost estimation", e);
+      return null;
+    }
+  }
+
+  /** Old generation occupancy as measured after the last collection, 0 when unknown. */
+  static double oldGenOccupancyAfterGc() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage != null && usage.getMax() > 0 && isOldGen(pool.getName())) {
+          return (double) usage.getUsed() / usage.getMax();
+        }
+      }
+    }
+    return 0;
+  }
+
+  private static boolean isOldGen(String poolName) {
+    return poolName.contains("Old Gen") || poolName.contains("Tenured");
+  }
+}
@@ -0,0 +1,45 @@
+package gov.cms.mat.cql_elm_translation.config.admission;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Estimates how expensive a translation request will be, in admission units. Translation memory
+ * grows with the size of the CQL and with every included library that has to be fetched and
+ * compiled, so both contribute to the estimate.
+ */
+public final class TranslationCostEstimator {
+
+  // matches include statements in raw CQL as well as in CQL embedded in a JSON string
+  private static final Pattern INCLUDE_PATTERN =
+      Pattern.compile("(?m)(?:^|\\\\n)[ \\t]*include\\s");
+
+  private TranslationCostEstimator() {}
+
+  /**
+   * @param body request body, either raw CQL or JSON containing CQL
+   * @param contentLength fallback size when the body is not available
+   * @param bytesPerUnit number of CQL bytes that make up a single admission unit
+   * @return estimated cost in admission units, never less than 1
+   */
+  public static int estimate(String body, long contentLength, int bytesPerUnit) {
+    long size = StringUtils.isEmpty(body) ? Math.max(contentLength, 0) : body.length();
+    long sizeUnits = (size + bytesPerUnit - 1) / bytesPerUnit;
+    long cost = sizeUnits + countIncludes(body);
+    return (int) Math.max(1, Math.min(cost, Integer.MAX_VALUE));
+  }
+
+  static int countIncludes(String body) {
+    if (StringUtils.isEmpty(body)) {
+      return 0;
+    }
+    int count = 0;
+    Matcher matcher = INCLUDE_PATTERN.matcher(body);
+    while (matcher.find()) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,27 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The document and revision an editor request was sent for, taken from the X-Document-Id and
+ * X-Document-Revision headers. Work for a revision is cancelled once a newer revision of the same
+ * document arrives from the same caller; document ids are chosen by clients, so the same id sent by
+ * two callers names two documents.
+ */
+public record DocumentRevision(String caller, String documentId, long revision) {
+
+  public static final String DOCUMENT_ID_HEADER = "X-Document-Id";
+  public static final String REVISION_HEADER = "X-Document-Revision";
+
+  /**
+   * @param caller who sent the request, see {@link
+   *     gov.cms.mat.cql_elm_translation.config.security.CallerIdentity}
+   * @return the revision, or null when the request is not tagged with both headers
+   */
+  public static DocumentRevision of(String caller, String documentId, Long revision) {
+    if (StringUtils.isBlank(documentId) || revision == null) {
+      return null;
+    }
+    return new DocumentRevision(caller, documentId, revision);
+  }
+}
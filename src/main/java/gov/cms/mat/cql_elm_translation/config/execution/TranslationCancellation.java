@@ -0,0 +1,23 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation for translation work. The compiler itself cannot be interrupted, so the
+ * services call {@link #checkpoint()} between stages and give up as soon as the executor has
+ * cancelled the task.
+ */
+public final class TranslationCancellation {
+
+  private TranslationCancellation() {}
+
+  /**
+   * @throws CancellationException when the current thread has been interrupted. The interrupt flag
+   *     is left set so later checkpoints fail fast as well.
+   */
+  public static void checkpoint() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new CancellationException("Translation cancelled");
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+@Configuration
+@Data
+public class TranslationDeadlineConfig {
+
+  @Value("${madie.translation.deadline-millis.cql-to-elm}")
+  private long cqlToElmMillis;
+
+  @Value("${madie.translation.deadline-millis.relevant-elements}")
+  private long relevantElementsMillis;
+
+  @Value("${madie.translation.deadline-millis.callstacks}")
+  private long callstacksMillis;
+
+  @Value("${madie.translation.deadline-millis.builder-lookups}")
+  private long builderLookupsMillis;
+
+  @Value("${madie.translation.deadline-millis.effective-data-requirements}")
+  private long effectiveDataRequirementsMillis;
+
+  public long getDeadlineMillis(TranslationEndpoint endpoint) {
+    return switch (endpoint) {
+      case CQL_TO_ELM -> cqlToElmMillis;
+      case RELEVANT_ELEMENTS -> relevantElementsMillis;
+      case CALLSTACKS -> callstacksMillis;
+      case BUILDER_LOOKUPS -> builderLookupsMillis;
+      case EFFECTIVE_DATA_REQUIREMENTS -> effectiveDataRequirementsMillis;
+    };
+  }
+}
@@ -0,0 +1,17 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** The endpoints whose work runs on the translation executor, each with its own deadline. */
+@Getter
+@RequiredArgsConstructor
+public enum TranslationEndpoint {
+  CQL_TO_ELM("cql-to-elm"),
+  RELEVANT_ELEMENTS("relevant-elements"),
+  CALLSTACKS("callstacks"),
+  BUILDER_LOOKUPS("builder-lookups"),
+  EFFECTIVE_DATA_REQUIREMENTS("effective-data-requirements");
+
+  private final String tag;
+}
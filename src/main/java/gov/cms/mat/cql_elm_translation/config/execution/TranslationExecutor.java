@@ -0,0 +1,559 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsage;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationSupersededException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationTimeoutException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs translation work on a bounded pool so the request thread can give up once the endpoint
+ * deadline passes. On timeout the worker is interrupted and stops at its next {@link
+ * TranslationCancellation#checkpoint()} instead of finishing work nobody is waiting for.
+ *
+ * <p>Work tagged with a {@link DocumentRevision} is superseded by newer revisions of the same
+ * document: queued and running work for older revisions is cancelled, and requests for a revision
+ * older than one already seen are refused. The latest revision of a document is remembered for a
+ * while after its work drains, so a late request for an older revision is still refused.
+ *
+ * <p>Work runs in the {@link TranslationLane} picked by the {@link TranslationLaneClassifier}. The
+ * lanes have separate workers and queues, so heavy work cannot delay editor requests beyond what
+ * the shared CPUs cost them.
+ *
+ * <p>Controllers use {@link #defer} so the servlet thread is handed back while the work waits for a
+ * worker and runs; the response is written once the work completes or its deadline passes.
+ */
+@Slf4j
+@Component
+public class TranslationExecutor {
+
+  // the executor enforces the deadline, the container's timeout only backs it up
+  private static final long DEFERRED_TIMEOUT_GRACE_MILLIS = 1000;
+
+  private static final ThreadLocal<LaneHelpers> CURRENT_LANE = new ThreadLocal<>();
+
+  @Value("${madie.translation.executor.pool-size}")
+  private int poolSize;
+
+  @Value("${madie.translation.executor.queue-capacity}")
+  private int queueCapacity;
+
+  @Value("${madie.translation.executor.batch.pool-size}")
+  private int batchPoolSize;
+
+  @Value("${madie.translation.executor.batch.queue-capacity}")
+  private int batchQueueCapacity;
+
+  @Value("${madie.translation.admission.retry-after-seconds}")
+  private long retryAfterSeconds;
+
+  @Value("${madie.translation.executor.revision-retention-seconds}")
+  private long revisionRetentionSeconds;
+
+  private final TranslationDeadlineConfig deadlineConfig;
+  private final TranslationLaneClassifier laneClassifier;
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private final Map<TranslationLane, ThreadPoolExecutor> lanes =
+      new EnumMap<>(TranslationLane.class);
+  private final Map<TranslationLane, LaneHelpers> laneHelpers =
+      new EnumMap<>(TranslationLane.class);
+  private final ConcurrentHashMap<DocumentKey, DocumentWork> documents = new ConcurrentHashMap<>();
+  private ScheduledThreadPoolExecutor deadlines;
+
+  private record DocumentKey(String caller, String documentId) {
+
+    private static DocumentKey of(DocumentRevision revision) {
+      return new DocumentKey(revision.caller(), revision.documentId());
+    }
+  }
+
+  /** Latest revision seen for a document and the work still running for it. */
+  private static final class DocumentWork {
+    private long latestRevision;
+    private long idleSinceMillis;
+    private final Map<Future<?>, TaggedWork> running = new HashMap<>();
+
+    private DocumentWork(long latestRevision) {
+      this.latestRevision = latestRevision;
+    }
+  }
+
+  private record TaggedWork(TranslationEndpoint endpoint, long revision) {}
+
+  private record Superseded(Future<?> future, TaggedWork work) {}
+
+  /**
+   * The workers of a lane as permits, held by the requests running on the lane and by the parts
+   * they hand out. A part takes a permit only when one is free and runs on a thread of its own, so
+   * it never waits in the lane's queue ahead of requests, and a request starting while parts hold
+   * every permit waits for one of them to finish.
+   */
+  private static final class LaneHelpers implements Executor {
+    private final Semaphore permits;
+    private final ThreadPoolExecutor threads;
+
+    private LaneHelpers(TranslationLane lane, int workers) {
+      this.permits = new Semaphore(workers);
+      this.threads =
+          new ThreadPoolExecutor(
+              0,
+              workers,
+              60L,
+              TimeUnit.SECONDS,
+              new SynchronousQueue<>(),
+              workerThreadFactory(lane.getTag() + "-helper"));
+    }
+
+    @Override
+    public void execute(Runnable part) {
+      if (!permits.tryAcquire()) {
+        throw new RejectedExecutionException("No idle translation worker");
+      }
+      try {
+        threads.execute(
+            () -> {
+              try {
+                part.run();
+              } finally {
+                permits.release();
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        // the thread of a part that just finished is not idle yet
+        permits.release();
+        throw e;
+      }
+    }
+
+    private int busy(int workers) {
+      return workers - permits.availablePermits();
+    }
+  }
+
+  public TranslationExecutor(
+      TranslationDeadlineConfig deadlineConfig,
+      TranslationLaneClassifier laneClassifier,
+      ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.deadlineConfig = deadlineConfig;
+    this.laneClassifier = laneClassifier;
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    startLane(TranslationLane.INTERACTIVE, poolSize, queueCapacity);
+    startLane(TranslationLane.BATCH, batchPoolSize, batchQueueCapacity);
+    deadlines =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "translation-deadlines");
+              thread.setDaemon(true);
+              return thread;
+            });
+    deadlines.setRemoveOnCancelPolicy(true);
+    deadlines.scheduleWithFixedDelay(
+        this::forgetIdleDocuments,
+        revisionRetentionSeconds,
+        revisionRetentionSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  private void startLane(TranslationLane lane, int workers, int capacity) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            workers,
+            workers,
+            60L,
+            TimeUnit.SECONDS,
+            // a capacity of 0 hands work straight to an idle worker or rejects it
+            capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new SynchronousQueue<>(),
+            workerThreadFactory(lane.getTag()));
+    executor.allowCoreThreadTimeOut(true);
+    LaneHelpers helpers = new LaneHelpers(lane, workers);
+    lanes.put(lane, executor);
+    laneHelpers.put(lane, helpers);
+    meterRegistryProvider.ifAvailable(
+        registry -> {
+          Gauge.builder("translation.lane.queued", executor, e -> e.getQueue().size())
+              .description("Translation work waiting for a worker")
+              .tag("lane", lane.getTag())
+              .register(registry);
+          Gauge.builder("translation.lane.active", helpers, h -> h.busy(workers))
+              .description("Translation workers busy, with the parts handed to idle ones")
+              .tag("lane", lane.getTag())
+              .register(registry);
+        });
+    log.info("Translation lane [{}] started with [{}] workers", lane.getTag(), workers);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    lanes.values().forEach(ThreadPoolExecutor::shutdownNow);
+    laneHelpers.values().forEach(helpers -> helpers.threads.shutdownNow());
+    deadlines.shutdownNow();
+  }
+
+  /**
+   * Runs the work without holding the calling thread. The future completes with the result of the
+   * work, with a {@link TranslationTimeoutException} once the endpoint deadline passes, or with a
+   * {@link TranslationSupersededException} when a newer revision of the document arrives.
+   * Cancelling the future cancels the work.
+   *
+   * @throws TranslationOverloadedException when the pool cannot take more work
+   * @throws TranslationSupersededException when a newer revision has already arrived
+   */
+  public <T> CompletableFuture<T> executeAsync(
+      TranslationEndpoint endpoint, DocumentRevision revision, Supplier<T> work) {
+    long deadlineMillis = deadlineConfig.getDeadlineMillis(endpoint);
+    TranslationLane lane = laneClassifier.classify(endpoint);
+    long submittedAt = System.nanoTime();
+    CompletableFuture<T> result = new CompletableFuture<>();
+    FutureTask<T> future =
+        new FutureTask<>(task(lane, submittedAt, work)) {
+          @Override
+          protected void done() {
+            recordLatency(lane, System.nanoTime() - submittedAt);
+            if (isCancelled()) {
+              // whoever cancelled released the work, it may still hold the document's lock
+              result.completeExceptionally(
+                  revision == null
+                      ? new CancellationException("Translation work cancelled")
+                      : new TranslationSupersededException(
+                          endpoint.getTag(), revision.documentId(), revision.revision()));
+              return;
+            }
+            if (revision != null) {
+              release(revision, this);
+            }
+            try {
+              result.complete(get());
+            } catch (ExecutionException e) {
+              result.completeExceptionally(e.getCause());
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              result.completeExceptionally(e);
+            }
+          }
+        };
+    submit(endpoint, lane, revision, future);
+
+    ScheduledFuture<?> deadline =
+        deadlines.schedule(
+            () -> {
+              if (result.completeExceptionally(
+                  new TranslationTimeoutException(endpoint.getTag(), deadlineMillis))) {
+                meterRegistryProvider.ifAvailable(
+                    registry -> timeoutCounter(registry, endpoint).increment());
+                log.warn(
+                    "Cancelled [{}] translation after {} ms", endpoint.getTag(), deadlineMillis);
+                cancel(revision, future);
+              }
+            },
+            deadlineMillis,
+            TimeUnit.MILLISECONDS);
+    result.whenComplete(
+        (value, error) -> {
+          deadline.cancel(false);
+          if (result.isCancelled()) {
+            cancel(revision, future);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Runs the work like {@link #executeAsync} and answers the request with its outcome, so the
+   * request thread is free as soon as the work is submitted. Failures are resolved by the exception
+   * handlers as if the controller had thrown them, and work for a client that went away is
+   * cancelled.
+   */
+  public <T> DeferredResult<T> defer(
+      TranslationEndpoint endpoint, DocumentRevision revision, Supplier<T> work) {
+    long deadlineMillis = deadlineConfig.getDeadlineMillis(endpoint);
+    CompletableFuture<T> future = executeAsync(endpoint, revision, work);
+    DeferredResult<T> deferredResult =
+        new DeferredResult<>(deadlineMillis + DEFERRED_TIMEOUT_GRACE_MILLIS);
+    deferredResult.onTimeout(
+        () -> {
+          deferredResult.setErrorResult(
+              new TranslationTimeoutException(endpoint.getTag(), deadlineMillis));
+          future.cancel(true);
+        });
+    deferredResult.onError(error -> future.cancel(true));
+    future.whenComplete(
+        (value, error) -> {
+          if (error == null) {
+            deferredResult.setResult(value);
+          } else {
+            deferredResult.setErrorResult(error);
+          }
+        });
+    return deferredResult;
+  }
+
+  /**
+   * Hands parts of the work running on the current thread to idle workers of its lane, so work that
+   * fans out is charged to the lane's workers instead of threads of its own. A part is rejected
+   * when the lane has no idle worker, or when the current thread is not running translation work,
+   * and the caller runs it itself.
+   */
+  public static Executor laneHelpers() {
+    LaneHelpers helpers = CURRENT_LANE.get();
+    if (helpers == null) {
+      return runnable -> {
+        throw new RejectedExecutionException("Not running translation work");
+      };
+    }
+    return helpers;
+  }
+
+  /** Wraps the work so it runs with the MDC and resource usage of the submitting request. */
+  private <T> Callable<T> task(TranslationLane lane, long submittedAt, Supplier<T> work) {
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    ResourceUsage usage = ResourceUsage.current();
+    LaneHelpers helpers = laneHelpers.get(lane);
+    return () -> {
+      helpers.permits.acquire();
+      try {
+        recordQueueWait(lane, System.nanoTime() - submittedAt);
+        CURRENT_LANE.set(helpers);
+        return ResourceUsage.measure(usage, () -> runWithMdc(mdc, work));
+      } finally {
+        CURRENT_LANE.remove();
+        helpers.permits.release();
+      }
+    };
+  }
+
+  private <T> Future<T> submit(
+      TranslationEndpoint endpoint,
+      TranslationLane lane,
+      DocumentRevision revision,
+      RunnableFuture<T> future) {
+    if (revision == null) {
+      submit(lane, future);
+    } else {
+      submitRevision(endpoint, lane, revision, future);
+    }
+    return future;
+  }
+
+  private void cancel(DocumentRevision revision, Future<?> future) {
+    future.cancel(true);
+    if (revision != null) {
+      release(revision, future);
+    }
+  }
+
+  private void submit(TranslationLane lane, RunnableFuture<?> future) {
+    try {
+      lanes.get(lane).execute(future);
+    } catch (RejectedExecutionException e) {
+      throw new TranslationOverloadedException(
+          String.format("Translation workers of the [%s] lane are saturated", lane.getTag()),
+          retryAfterSeconds);
+    }
+  }
+
+  /**
+   * Records the work against its document and cancels work for older revisions. Only the
+   * bookkeeping happens while the document's entry is locked; cancelling and submitting follow.
+   */
+  private void submitRevision(
+      TranslationEndpoint endpoint,
+      TranslationLane lane,
+      DocumentRevision revision,
+      RunnableFuture<?> future) {
+    List<Superseded> superseded = new ArrayList<>();
+    boolean[] refused = new boolean[1];
+    documents.compute(
+        DocumentKey.of(revision),
+        (key, documentWork) -> {
+          DocumentWork current =
+              documentWork == null ? new DocumentWork(revision.revision()) : documentWork;
+          if (revision.revision() < current.latestRevision) {
+            refused[0] = true;
+            return current;
+          }
+          if (revision.revision() > current.latestRevision) {
+            current.latestRevision = revision.revision();
+            removeOlderThan(current, revision.revision(), superseded);
+          }
+          current.running.put(future, new TaggedWork(endpoint, revision.revision()));
+          return current;
+        });
+    if (refused[0]) {
+      superseded(endpoint);
+      throw new TranslationSupersededException(
+          endpoint.getTag(), revision.documentId(), revision.revision());
+    }
+
+    cancel(superseded);
+    if (future.isCancelled()) {
+      // superseded in the meantime, its outcome is settled already
+      return;
+    }
+    try {
+      submit(lane, future);
+    } catch (TranslationOverloadedException e) {
+      release(revision, future);
+      throw e;
+    }
+  }
+
+  private static void removeOlderThan(
+      DocumentWork documentWork, long revision, List<Superseded> superseded) {
+    for (Iterator<Map.Entry<Future<?>, TaggedWork>> it = documentWork.running.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<Future<?>, TaggedWork> entry = it.next();
+      if (entry.getValue().revision() < revision) {
+        // released here, the cancelled work cannot update the map it is being cancelled from
+        it.remove();
+        superseded.add(new Superseded(entry.getKey(), entry.getValue()));
+      }
+    }
+  }
+
+  private void cancel(List<Superseded> superseded) {
+    if (superseded.isEmpty()) {
+      return;
+    }
+    for (Superseded work : superseded) {
+      if (work.future().cancel(true)) {
+        log.debug(
+            "Cancelled [{}] work for superseded revision {}",
+            work.work().endpoint().getTag(),
+            work.work().revision());
+        superseded(work.work().endpoint());
+      }
+    }
+    lanes.values().forEach(ThreadPoolExecutor::purge);
+  }
+
+  private void release(DocumentRevision revision, Future<?> future) {
+    documents.computeIfPresent(
+        DocumentKey.of(revision),
+        (key, documentWork) -> {
+          documentWork.running.remove(future);
+          if (documentWork.running.isEmpty()) {
+            // kept for a while so late requests for older revisions are still refused
+            documentWork.idleSinceMillis = System.currentTimeMillis();
+          }
+          return documentWork;
+        });
+  }
+
+  /** Forgets documents that have had no work for longer than the retention. */
+  void forgetIdleDocuments() {
+    long cutoff = System.currentTimeMillis() - revisionRetentionSeconds * 1000;
+    for (DocumentKey key : documents.keySet()) {
+      documents.computeIfPresent(
+          key,
+          (k, documentWork) ->
+              documentWork.running.isEmpty() && documentWork.idleSinceMillis < cutoff
+                  ? null
+                  : documentWork);
+    }
+  }
+
+  int documentCount() {
+    return documents.size();
+  }
+
+  private void superseded(TranslationEndpoint endpoint) {
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            Counter.builder("translation.superseded")
+                .description("Translation work cancelled or refused for an obsolete revision")
+                .tag("endpoint", endpoint.getTag())
+                .register(registry)
+                .increment());
+  }
+
+  private void recordQueueWait(TranslationLane lane, long nanos) {
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            Timer.builder("translation.lane.queue.wait")
+                .description("Time translation work waited for a worker")
+                .tag("lane", lane.getTag())
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS));
+  }
+
+  private void recordLatency(TranslationLane lane, long nanos) {
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            Timer.builder("translation.lane.latency")
+                .description("Time from submitting translation work to its completion")
+                .tag("lane", lane.getTag())
+                .publishPercentiles(0.5, 0.99)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS));
+  }
+
+  private static <T> T runWithMdc(Map<String, String> mdc, Supplier<T> work) {
+    if (mdc != null) {
+      MDC.setContextMap(mdc);
+    }
+    try {
+      return work.get();
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private static Counter timeoutCounter(MeterRegistry registry, TranslationEndpoint endpoint) {
+    return Counter.builder("translation.timeouts")
+        .description("Translation requests cancelled because they passed their deadline")
+        .tag("endpoint", endpoint.getTag())
+        .register(registry);
+  }
+
+  private static ThreadFactory workerThreadFactory(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, "translation-" + name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
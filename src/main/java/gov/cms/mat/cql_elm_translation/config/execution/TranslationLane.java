@@ -0,0 +1,33 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Execution lanes of the translation executor. Each lane has its own workers and queue, so a burst
+ * of heavy work only queues behind other heavy work and never in front of editor requests.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum TranslationLane {
+  INTERACTIVE("interactive"),
+  BATCH("batch");
+
+  /**
+   * Lets a client move its work to the batch lane, for example an export job marking its calls as
+   * batch. Work that is batch by nature or size is never raised to interactive by it.
+   */
+  public static final String PRIORITY_HEADER = "X-Translation-Priority";
+
+  private final String tag;
+
+  /** The lane named by a priority header value, null when the value names no lane. */
+  public static TranslationLane fromHeader(String value) {
+    for (TranslationLane lane : values()) {
+      if (lane.tag.equalsIgnoreCase(value)) {
+        return lane;
+      }
+    }
+    return null;
+  }
+}
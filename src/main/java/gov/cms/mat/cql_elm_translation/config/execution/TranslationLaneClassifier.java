@@ -0,0 +1,72 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Set;
+
+/**
+ * Picks the lane for a piece of work from the request it is done for: endpoints that are heavy by
+ * nature and large request bodies run in the batch lane, and a {@link
+ * TranslationLane#PRIORITY_HEADER} can move other work there too. The header cannot move work out
+ * of the batch lane, so an untrusted caller cannot take the interactive workers with heavy work.
+ *
+ * <p>Admission classifies the request before its handler runs and the lane is kept on the request,
+ * so the work is executed in the lane it was admitted to.
+ */
+@Component
+public class TranslationLaneClassifier {
+
+  static final String LANE_ATTRIBUTE = TranslationLaneClassifier.class.getName() + ".LANE";
+
+  // request paths, without the context path, of the endpoints that are heavy by nature
+  private static final Set<String> BATCH_PATHS =
+      Set.of(
+          "/effective-data-requirements",
+          "/cql/translator/measure",
+          "/cql/translator/cql/libraries");
+
+  @Value("${madie.translation.lanes.batch-payload-bytes}")
+  private long batchPayloadBytes;
+
+  /** The lane for work done by the endpoint for the current request. */
+  public TranslationLane classify(TranslationEndpoint endpoint) {
+    HttpServletRequest request = currentRequest();
+    if (request != null && request.getAttribute(LANE_ATTRIBUTE) instanceof TranslationLane lane) {
+      return lane;
+    }
+    return classify(request, endpoint == TranslationEndpoint.EFFECTIVE_DATA_REQUIREMENTS);
+  }
+
+  /** The lane for a request about to be handled, remembered for the work it submits. */
+  public TranslationLane classify(HttpServletRequest request) {
+    String path = StringUtils.removeStart(request.getRequestURI(), request.getContextPath());
+    TranslationLane lane = classify(request, BATCH_PATHS.contains(path));
+    request.setAttribute(LANE_ATTRIBUTE, lane);
+    return lane;
+  }
+
+  private TranslationLane classify(HttpServletRequest request, boolean heavy) {
+    if (heavy || request != null && request.getContentLengthLong() > batchPayloadBytes) {
+      return TranslationLane.BATCH;
+    }
+    if (request != null
+        && TranslationLane.fromHeader(request.getHeader(TranslationLane.PRIORITY_HEADER))
+            == TranslationLane.BATCH) {
+      return TranslationLane.BATCH;
+    }
+    return TranslationLane.INTERACTIVE;
+  }
+
+  private static HttpServletRequest currentRequest() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    return attributes instanceof ServletRequestAttributes servletRequestAttributes
+        ? servletRequestAttributes.getRequest()
+        : null;
+  }
+}
@@ -0,0 +1,46 @@
+package gov.cms.mat.cql_elm_translation.config.logging;
+
+import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * What the current request works on, so {@link LogInterceptor} can tell in the audit line which
+ * library or measure an expensive request was for. Controllers record it while they still hold the
+ * request thread.
+ */
+public final class AuditSubject {
+  static final String LIBRARY = AuditSubject.class.getName() + ".LIBRARY";
+  static final String MEASURE = AuditSubject.class.getName() + ".MEASURE";
+
+  private AuditSubject() {}
+
+  /** Records the library declared by the CQL, when it declares one. */
+  public static void library(CqlHeader cqlHeader) {
+    LibraryProperties library = cqlHeader.library();
+    if (library != null) {
+      library(library.getName(), library.getVersion());
+    }
+  }
+
+  public static void library(String name, String version) {
+    if (StringUtils.isNotBlank(name)) {
+      set(LIBRARY, StringUtils.isBlank(version) ? name : name + " " + version);
+    }
+  }
+
+  public static void measure(String measureId) {
+    if (StringUtils.isNotBlank(measureId)) {
+      set(MEASURE, measureId);
+    }
+  }
+
+  private static void set(String name, String value) {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (attributes != null) {
+      attributes.setAttribute(name, value, RequestAttributes.SCOPE_REQUEST);
+    }
+  }
+}
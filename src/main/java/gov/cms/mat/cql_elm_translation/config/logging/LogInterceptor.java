@@ -1,11 +1,14 @@
 package gov.cms.mat.cql_elm_translation.config.logging;
 
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsage;
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsageInterceptor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j(topic = "action_audit")
 @Component
@@ -16,11 +19,39 @@ public class LogInterceptor implements HandlerInterceptor {
       HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
     final String username =
         request.getUserPrincipal() == null ? "" : request.getUserPrincipal().getName();
+    final String subject = subject(request);
+    if (request.getAttribute(ResourceUsageInterceptor.USAGE) instanceof ResourceUsage usage) {
+      log.info(
+          "User [{}] called [{}] on path [{}]{} and got response code [{}], allocated [{}] bytes,"
+              + " used [{}] ms CPU",
+          username,
+          request.getMethod(),
+          request.getRequestURI(),
+          subject,
+          response.getStatus(),
+          usage.getAllocatedBytes(),
+          TimeUnit.NANOSECONDS.toMillis(usage.getCpuNanos()));
+      return;
+    }
     log.info(
-        "User [{}] called [{}] on path [{}] and got response code [{}]",
+        "User [{}] called [{}] on path [{}]{} and got response code [{}]",
         username,
         request.getMethod(),
         request.getRequestURI(),
+        subject,
         response.getStatus());
   }
+
+  /** The library and measure recorded by {@link AuditSubject}, empty when there are none. */
+  private static String subject(HttpServletRequest request) {
+    StringBuilder subject = new StringBuilder();
+    if (request.getAttribute(AuditSubject.LIBRARY) instanceof String library) {
+      subject.append(" for library [").append(library).append(']');
+    }
+    if (request.getAttribute(AuditSubject.MEASURE) instanceof String measure) {
+      subject.append(subject.isEmpty() ? " for" : " of").append(" measure [").append(measure);
+      subject.append(']');
+    }
+    return subject.toString();
+  }
 }
@@ -8,8 +8,9 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.MDC;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.Nullable;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -24,7 +25,7 @@ import static gov.cms.mat.config.logging.MdcHeaderString.MDC_START_KEY;
 
 /** Class that get the header data from the request and set in the MDC context */
 @Slf4j()
-public class RequestHeaderInterceptor implements HandlerInterceptor {
+public class RequestHeaderInterceptor implements AsyncHandlerInterceptor {
   private static final String HEADER_TEMPLATE = "%s:\"%s\"";
 
   @Override
@@ -32,14 +33,22 @@ public class RequestHeaderInterceptor implements HandlerInterceptor {
       HttpServletRequest request,
       HttpServletResponse response, /* not used */
       Object object /* not used */) {
-    request.setAttribute(MDC_START_KEY, System.currentTimeMillis());
     String params = request.getHeader(MDC_PARAMS_ID);
-
     MdcPairParser.parseAndSetInMdc(params);
-    logRequest(request);
+    // an async dispatch only restores the MDC, the request was timed and logged already
+    if (request.getDispatcherType() != DispatcherType.ASYNC) {
+      request.setAttribute(MDC_START_KEY, System.currentTimeMillis());
+      logRequest(request);
+    }
     return true;
   }
 
+  @Override
+  public void afterConcurrentHandlingStarted(
+      HttpServletRequest request, HttpServletResponse response, Object handler) {
+    MDC.clear();
+  }
+
   @Override
   public void afterCompletion(
       HttpServletRequest request,
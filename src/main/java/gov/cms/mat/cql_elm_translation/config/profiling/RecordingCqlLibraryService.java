@@ -0,0 +1,37 @@
+package gov.cms.mat.cql_elm_translation.config.profiling;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+
+/**
+ * Records every include fetched through the library service as a {@link
+ * TranslationStage#LIBRARY_FETCH} stage. Fetches happen inside the compiler, so the service handed
+ * to the library source provider is wrapped instead.
+ */
+public class RecordingCqlLibraryService extends CqlLibraryService {
+
+  private final CqlLibraryService delegate;
+
+  public RecordingCqlLibraryService(CqlLibraryService delegate) {
+    super(null);
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getLibraryCql(String name, String version, String accessToken) {
+    TranslationStageEvent event = new TranslationStageEvent();
+    event.begin();
+    String cql = null;
+    try {
+      cql = delegate.getLibraryCql(name, version, accessToken);
+      return cql;
+    } finally {
+      TranslationStageEvents.commit(
+          event,
+          TranslationStage.LIBRARY_FETCH,
+          name,
+          version,
+          cql == null ? 0 : cql.length(),
+          cql == null ? TranslationStageEvents.ERROR : TranslationStageEvents.OK);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package gov.cms.mat.cql_elm_translation.config.profiling;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Keeps a continuous flight recording of the last stretch of translations, using the bundled
+ * settings that enable the {@link TranslationStageEvent}s next to the low overhead JDK events, and
+ * dumps it on a GET to {@code /actuator/translationrecording}. The dump can be opened in JDK
+ * Mission Control to see where a slow translation spent its time. The endpoint is disabled unless
+ * {@code management.endpoint.translationrecording.enabled} is set, as dumps hold request data, and
+ * the recording follows it unless {@code madie.translation.jfr.enabled} says otherwise.
+ */
+@Slf4j
+@Component
+@WebEndpoint(id = "translationrecording")
+public class TranslationRecordingEndpoint {
+
+  static final String RECORDING_NAME = "madie-translation";
+
+  @Value("${madie.translation.jfr.enabled}")
+  private boolean enabled;
+
+  @Value("${madie.translation.jfr.settings}")
+  private String settings;
+
+  @Value("${madie.translation.jfr.max-age-minutes}")
+  private long maxAgeMinutes;
+
+  @Value("${madie.translation.jfr.max-size-bytes}")
+  private long maxSizeBytes;
+
+  private final ResourceLoader resourceLoader;
+  private Recording recording;
+  private Path lastDump;
+
+  public TranslationRecordingEndpoint(ResourceLoader resourceLoader) {
+    this.resourceLoader = resourceLoader;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      log.info("Translation flight recording is disabled");
+      return;
+    }
+    try (Reader reader =
+        new InputStreamReader(
+            resourceLoader.getResource(settings).getInputStream(), StandardCharsets.UTF_8)) {
+      recording = new Recording(Configuration.create(reader));
+    } catch (IOException | ParseException e) {
+      // profiling is a diagnostic aid, never a reason to keep the service from starting
+      log.warn("Could not load flight recorder settings [{}]", settings, e);
+      return;
+    }
+    recording.setName(RECORDING_NAME);
+    recording.setToDisk(true);
+    recording.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+    recording.setMaxSize(maxSizeBytes);
+    recording.start();
+    log.info(
+        "Translation flight recording started, keeping [{}] minutes up to [{}] bytes",
+        maxAgeMinutes,
+        maxSizeBytes);
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    if (recording != null) {
+      recording.close();
+      recording = null;
+    }
+    deleteLastDump();
+  }
+
+  /** Dumps what the recording holds so far. Only the latest dump is kept on disk. */
+  @ReadOperation(produces = "application/octet-stream")
+  public synchronized WebEndpointResponse<Resource> dump() throws IOException {
+    if (recording == null) {
+      return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+    }
+    deleteLastDump();
+    lastDump = Files.createTempFile("translation-", ".jfr");
+    recording.dump(lastDump);
+    log.info("Dumped translation flight recording to [{}]", lastDump);
+    return new WebEndpointResponse<>(new FileSystemResource(lastDump));
+  }
+
+  boolean isRecording() {
+    return recording != null;
+  }
+
+  private void deleteLastDump() {
+    if (lastDump == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(lastDump);
+    } catch (IOException e) {
+      log.warn("Could not delete flight recording dump [{}]", lastDump, e);
+    }
+    lastDump = null;
+  }
+}
@@ -0,0 +1,20 @@
+package gov.cms.mat.cql_elm_translation.config.profiling;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** The stages of a translation that are recorded as {@link TranslationStageEvent}s. */
+@Getter
+@RequiredArgsConstructor
+public enum TranslationStage {
+  LIBRARY_FETCH("library-fetch"),
+  COMPILE("compile"),
+  CQL_TOOLS_GENERATE("cql-tools-generate"),
+  ERROR_FILTER("error-filter"),
+  ANNOTATION_FILTER("annotation-filter"),
+  ELM_SERIALIZATION("elm-serialization"),
+  DATA_REQUIREMENTS("data-requirements"),
+  FHIR_SERIALIZATION("fhir-serialization");
+
+  private final String tag;
+}
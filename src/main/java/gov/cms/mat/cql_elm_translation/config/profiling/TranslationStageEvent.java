@@ -0,0 +1,38 @@
+package gov.cms.mat.cql_elm_translation.config.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One stage of a translation in a flight recording, so time in the compiler, the filters or
+ * serialization can be told apart and tied to the library that caused it.
+ */
+@Name(TranslationStageEvent.NAME)
+@Label("Translation Stage")
+@Category({"MADiE", "Translation"})
+@Description("A stage of CQL translation for one library")
+@StackTrace(false)
+public class TranslationStageEvent extends Event {
+  public static final String NAME = "gov.cms.madie.TranslationStage";
+
+  @Label("Stage")
+  String stage;
+
+  @Label("Library")
+  String library;
+
+  @Label("Version")
+  String version;
+
+  @Label("CQL Size")
+  @DataAmount
+  long cqlSize;
+
+  @Label("Outcome")
+  String outcome;
+}
@@ -0,0 +1,62 @@
+package gov.cms.mat.cql_elm_translation.config.profiling;
+
+import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+
+import java.util.function.Supplier;
+
+/**
+ * Wraps translation stages in {@link TranslationStageEvent}s. When no recording is running the
+ * events are not committed and cost next to nothing.
+ */
+public final class TranslationStageEvents {
+
+  static final String OK = "ok";
+  static final String ERROR = "error";
+
+  private TranslationStageEvents() {}
+
+  /** Records the stage for the library declared in the header of the CQL. */
+  public static <T> T record(
+      TranslationStage stage, CqlHeader cqlHeader, String cql, Supplier<T> work) {
+    LibraryProperties library = cqlHeader == null ? null : cqlHeader.library();
+    return record(
+        stage,
+        library == null ? null : library.getName(),
+        library == null ? null : library.getVersion(),
+        cql == null ? 0 : cql.length(),
+        work);
+  }
+
+  public static <T> T record(
+      TranslationStage stage, String library, String version, long cqlSize, Supplier<T> work) {
+    TranslationStageEvent event = new TranslationStageEvent();
+    event.begin();
+    String outcome = ERROR;
+    try {
+      T result = work.get();
+      outcome = OK;
+      return result;
+    } finally {
+      commit(event, stage, library, version, cqlSize, outcome);
+    }
+  }
+
+  static void commit(
+      TranslationStageEvent event,
+      TranslationStage stage,
+      String library,
+      String version,
+      long cqlSize,
+      String outcome) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = stage.getTag();
+      event.library = library;
+      event.version = version;
+      event.cqlSize = cqlSize;
+      event.outcome = outcome;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package gov.cms.mat.cql_elm_translation.config.security;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.HexFormat;
+
+/**
+ * Who a request was made by. State kept between requests under client supplied ids, like documents,
+ * workspaces and jobs, is scoped to it so one caller cannot reach another's.
+ */
+public final class CallerIdentity {
+
+  private CallerIdentity() {}
+
+  /**
+   * @return the name of the authenticated user, or a digest of the access token when the request
+   *     was not authenticated
+   */
+  public static String of(Principal principal, String accessToken) {
+    if (principal != null && StringUtils.isNotBlank(principal.getName())) {
+      return principal.getName();
+    }
+    if (StringUtils.isBlank(accessToken)) {
+      return "";
+    }
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes(StandardCharsets.UTF_8));
+      return "token:" + HexFormat.of().formatHex(digest);
+    } catch (NoSuchAlgorithmException e) {
+      // every JVM provides SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** When the caller's access token expires, null when the request carries no JWT. */
+  public static Instant expiresAt(Principal principal) {
+    return principal instanceof JwtAuthenticationToken jwt ? jwt.getToken().getExpiresAt() : null;
+  }
+}
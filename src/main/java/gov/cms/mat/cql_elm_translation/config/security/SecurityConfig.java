@@ -1,5 +1,6 @@
 package gov.cms.mat.cql_elm_translation.config.security;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -7,6 +8,8 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 
+// not needed when running as an offline bulk job without a web server
+@ConditionalOnWebApplication
 @Configuration
 public class SecurityConfig {
 
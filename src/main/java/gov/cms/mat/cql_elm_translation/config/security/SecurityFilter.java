@@ -56,8 +56,10 @@ public class SecurityFilter implements Filter {
   }
 
   private boolean isWhiteListUrl(HttpServletRequest req) {
-    String uri = req.getRequestURI();
+    // the request URI starts with the context path the service runs under
+    String uri = StringUtils.removeStart(req.getRequestURI(), req.getContextPath());
     String method = req.getMethod();
-    return uri.equals("/actuator/health") && method.equals("GET");
+    return (uri.equals("/actuator/health") || uri.startsWith("/actuator/health/"))
+        && method.equals("GET");
   }
 }
@@ -0,0 +1,126 @@
+package gov.cms.mat.cql_elm_translation.config.warmup;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.service.CqlParsingService;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Warms the translator up before the pod takes traffic. The first translations after a deploy pay
+ * for model info loading, ANTLR DFA construction, JIT compilation and the first FHIRHelpers
+ * compile, so a bundled corpus of include-free libraries is run through the translation and parsing
+ * paths a few times on a background thread. {@link WarmUpHealthIndicator} keeps the readiness probe
+ * down until this finishes.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TranslationWarmUp {
+
+  public enum State {
+    PENDING,
+    RUNNING,
+    COMPLETE,
+    FAILED,
+    DISABLED
+  }
+
+  @Value("${madie.translation.warm-up.enabled}")
+  private boolean enabled;
+
+  @Value("${madie.translation.warm-up.corpus}")
+  private String corpusLocation;
+
+  @Value("${madie.translation.warm-up.iterations}")
+  private int iterations;
+
+  private final CqlConversionService cqlConversionService;
+  private final CqlParsingService cqlParsingService;
+  private final CqlLibraryService cqlLibraryService;
+
+  @Getter private volatile State state = State.PENDING;
+  @Getter private volatile long durationMillis;
+  @Getter private volatile int translations;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!enabled) {
+      state = State.DISABLED;
+      log.info("Translation warm-up is disabled");
+      return;
+    }
+    state = State.RUNNING;
+    Thread thread = new Thread(this::run, "translation-warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void run() {
+    long start = System.currentTimeMillis();
+    try {
+      List<String> corpus = loadCorpus();
+      log.info(
+          "Warming up translator with {} libraries x {} iterations", corpus.size(), iterations);
+      for (int i = 0; i < iterations; i++) {
+        for (String cql : corpus) {
+          translate(cql);
+        }
+      }
+      state = State.COMPLETE;
+    } catch (Exception e) {
+      // a failed warm-up only costs latency, it must not keep the pod out of rotation
+      log.error("Translation warm-up failed, continuing cold", e);
+      state = State.FAILED;
+    } finally {
+      durationMillis = System.currentTimeMillis() - start;
+      log.info("Translation warm-up finished [{}] in {} ms", state, durationMillis);
+    }
+  }
+
+  private void translate(String cql) {
+    // corpus libraries have no includes, so the library service is never called with this token
+    TranslationContext context = TranslationContext.of(CqlHeader.parse(cql), cqlLibraryService, "");
+    cqlConversionService.processCqlDataWithErrors(
+        RequestData.builder()
+            .cqlData(cql)
+            .showWarnings(false)
+            .signatures(LibraryBuilder.SignatureLevel.All)
+            .annotations(true)
+            .locators(true)
+            .disableListDemotion(true)
+            .disableListPromotion(true)
+            .disableMethodInvocation(false)
+            .validateUnits(true)
+            .resultTypes(true)
+            .build(),
+        context);
+    cqlParsingService.getCqlBuilderLookups(cql, "");
+    translations++;
+  }
+
+  private List<String> loadCorpus() throws IOException {
+    List<String> corpus = new ArrayList<>();
+    for (Resource resource :
+        new PathMatchingResourcePatternResolver().getResources(corpusLocation)) {
+      corpus.add(resource.getContentAsString(StandardCharsets.UTF_8));
+    }
+    return corpus;
+  }
+}
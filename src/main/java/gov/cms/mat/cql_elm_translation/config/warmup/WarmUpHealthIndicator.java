@@ -0,0 +1,29 @@
+package gov.cms.mat.cql_elm_translation.config.warmup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/** Reports OUT_OF_SERVICE until the translation warm-up has run; part of the readiness group. */
+@Component
+@RequiredArgsConstructor
+public class WarmUpHealthIndicator implements HealthIndicator {
+
+  private final TranslationWarmUp translationWarmUp;
+
+  @Override
+  public Health health() {
+    TranslationWarmUp.State state = translationWarmUp.getState();
+    Health.Builder builder =
+        switch (state) {
+          case PENDING, RUNNING -> Health.outOfService();
+          case COMPLETE, FAILED, DISABLED -> Health.up();
+        };
+    return builder
+        .withDetail("state", state)
+        .withDetail("translations", translationWarmUp.getTranslations())
+        .withDetail("durationMillis", translationWarmUp.getDurationMillis())
+        .build();
+  }
+}
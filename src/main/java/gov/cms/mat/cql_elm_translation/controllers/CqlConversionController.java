@@ -4,24 +4,53 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.madie.models.dto.TranslatedLibrary;
+import gov.cms.madie.models.measure.Measure;
 import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.config.execution.DocumentRevision;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationEndpoint;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.logging.AuditSubject;
+import gov.cms.mat.cql_elm_translation.config.security.CallerIdentity;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationItem;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationResult;
+import gov.cms.mat.cql_elm_translation.service.BatchTranslationService;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
 import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.service.CqlSyntaxCheckService;
+import gov.cms.mat.cql_elm_translation.service.DataCriteriaService;
+import gov.cms.mat.cql_elm_translation.service.IncrementalTranslationService;
+import gov.cms.mat.cql_elm_translation.service.TranslatedLibraryService;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.security.Principal;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 @RestController
 @RequestMapping(path = "/cql/translator")
@@ -32,9 +61,16 @@ public class CqlConversionController {
 
   private final CqlConversionService cqlConversionService;
   private final CqlLibraryService cqlLibraryService;
+  private final TranslationExecutor translationExecutor;
+  private final CqlSyntaxCheckService cqlSyntaxCheckService;
+  private final IncrementalTranslationService incrementalTranslationService;
+  private final BatchTranslationService batchTranslationService;
+  private final DataCriteriaService dataCriteriaService;
+  private final TranslatedLibraryService translatedLibraryService;
+  private final ObjectMapper ndjsonMapper = new ObjectMapper();
 
   @PutMapping(path = "/cql", consumes = "text/plain", produces = "application/elm+json")
-  public CqlConversionPayload cqlToElmJson(
+  public DeferredResult<CqlConversionPayload> cqlToElmJson(
       @RequestBody String cqlData,
       @RequestParam(required = false) LibraryBuilder.SignatureLevel signatures,
       @RequestParam(defaultValue = "false") Boolean showWarnings,
@@ -48,31 +84,277 @@ public class CqlConversionController {
           Boolean disableMethodInvocation,
       @RequestParam(value = "validate-units", defaultValue = "true") Boolean validateUnits,
       @RequestParam(value = "result-types", defaultValue = "true") Boolean resultTypes,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+
+    RequestData requestData =
+        buildRequestData(
+            cqlData,
+            signatures,
+            showWarnings,
+            annotations,
+            locators,
+            disableListDemotion,
+            disableListPromotion,
+            disableMethodInvocation,
+            validateUnits,
+            resultTypes);
+    CqlHeader cqlHeader = CqlHeader.parse(cqlData);
+    AuditSubject.library(cqlHeader);
+    String caller = CallerIdentity.of(principal, accessToken);
+    return translationExecutor.defer(
+        TranslationEndpoint.CQL_TO_ELM,
+        DocumentRevision.of(caller, documentId, documentRevision),
+        () -> {
+          TranslationContext context =
+              TranslationContext.of(cqlHeader, cqlLibraryService, accessToken);
+          CqlConversionPayload cqlConversionPayload =
+              StringUtils.isNotBlank(documentId)
+                  ? incrementalTranslationService.translate(
+                      caller, documentId, requestData, context)
+                  : cqlConversionService.processCqlDataWithErrors(requestData, context);
+          // Todo Do we need to remove empty annotations from library object, Also why are we
+          // removing translatorOptions from annotations, Could be MAT specific.
+          TranslatorOptionsRemover remover =
+              new TranslatorOptionsRemover(cqlConversionPayload.getJson());
+          String cleanedJson = remover.clean();
+          cqlConversionPayload.setJson(cleanedJson);
+          return cqlConversionPayload;
+        });
+  }
+
+  /**
+   * Translates the CQL of a measure. Unless prune-unused is false, the ELM holds only the
+   * definitions and functions reachable from the measure's populations, observations,
+   * stratifications, supplemental data and risk adjustments, which is all an evaluation engine
+   * needs to calculate it. A measure that names no definitions yet is translated in full.
+   */
+  @PutMapping(
+      path = "/measure",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = "application/elm+json")
+  public DeferredResult<CqlConversionPayload> measureToElmJson(
+      @RequestBody Measure measure,
+      @RequestParam(value = "prune-unused", defaultValue = "true") Boolean pruneUnused,
+      @RequestParam(required = false) LibraryBuilder.SignatureLevel signatures,
+      @RequestParam(defaultValue = "false") Boolean showWarnings,
+      @RequestParam(defaultValue = "true") Boolean annotations,
+      @RequestParam(defaultValue = "true") Boolean locators,
+      @RequestParam(value = "disable-list-demotion", defaultValue = "true")
+          Boolean disableListDemotion,
+      @RequestParam(value = "disable-list-promotion", defaultValue = "true")
+          Boolean disableListPromotion,
+      @RequestParam(value = "disable-method-invocation", defaultValue = "false")
+          Boolean disableMethodInvocation,
+      @RequestParam(value = "validate-units", defaultValue = "true") Boolean validateUnits,
+      @RequestParam(value = "result-types", defaultValue = "true") Boolean resultTypes,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+
+    if (measure == null || StringUtils.isBlank(measure.getCql())) {
+      log.error("Invalid cql provided for measure");
+      throw new CqlFormatException("Invalid cql provided for measure");
+    }
+    RequestData requestData =
+        buildRequestData(
+            measure.getCql(),
+            signatures,
+            showWarnings,
+            annotations,
+            locators,
+            disableListDemotion,
+            disableListPromotion,
+            disableMethodInvocation,
+            validateUnits,
+            resultTypes);
+    CqlHeader cqlHeader = CqlHeader.parse(measure.getCql());
+    AuditSubject.library(cqlHeader);
+    AuditSubject.measure(measure.getId());
+    return translationExecutor.defer(
+        TranslationEndpoint.CQL_TO_ELM,
+        DocumentRevision.of(
+            CallerIdentity.of(principal, accessToken), documentId, documentRevision),
+        () -> {
+          TranslationContext context =
+              TranslationContext.of(cqlHeader, cqlLibraryService, accessToken);
+          Set<String> usedDefinitions =
+              pruneUnused ? dataCriteriaService.getUsedDefinitionsFromMeasure(measure) : Set.of();
+          // pruning to no definitions at all would leave an empty library
+          CqlConversionPayload cqlConversionPayload =
+              usedDefinitions.isEmpty()
+                  ? cqlConversionService.processCqlDataWithErrors(requestData, context)
+                  : cqlConversionService.processCqlDataWithErrors(
+                      requestData, context, usedDefinitions);
+          cqlConversionPayload.setJson(
+              new TranslatorOptionsRemover(cqlConversionPayload.getJson()).clean());
+          return cqlConversionPayload;
+        });
+  }
+
+  /**
+   * Translates the CQL and returns the CQL, ELM JSON and ELM XML of the library and of every
+   * library it includes, directly or not, the library itself first.
+   */
+  @PutMapping(
+      path = "/cql/libraries",
+      consumes = MediaType.TEXT_PLAIN_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public DeferredResult<List<TranslatedLibrary>> cqlToTranslatedLibraries(
+      @RequestBody String cqlData,
+      @RequestParam(required = false) LibraryBuilder.SignatureLevel signatures,
+      @RequestParam(defaultValue = "true") Boolean annotations,
+      @RequestParam(defaultValue = "true") Boolean locators,
+      @RequestParam(value = "disable-list-demotion", defaultValue = "true")
+          Boolean disableListDemotion,
+      @RequestParam(value = "disable-list-promotion", defaultValue = "true")
+          Boolean disableListPromotion,
+      @RequestParam(value = "disable-method-invocation", defaultValue = "false")
+          Boolean disableMethodInvocation,
+      @RequestParam(value = "validate-units", defaultValue = "true") Boolean validateUnits,
+      @RequestParam(value = "result-types", defaultValue = "true") Boolean resultTypes,
       @RequestHeader("Authorization") String accessToken) {
 
     RequestData requestData =
-        RequestData.builder()
-            .cqlData(cqlData)
-            .showWarnings(showWarnings)
-            .signatures(signatures)
-            .annotations(annotations)
-            .locators(locators)
-            .disableListDemotion(disableListDemotion)
-            .disableListPromotion(disableListPromotion)
-            .disableMethodInvocation(disableMethodInvocation)
-            .validateUnits(validateUnits)
-            .resultTypes(resultTypes)
-            .build();
-    cqlLibraryService.setUpLibrarySourceProvider(cqlData, accessToken);
-
-    CqlConversionPayload cqlConversionPayload =
-        cqlConversionService.processCqlDataWithErrors(requestData);
-    // Todo Do we need to remove empty annotations from library object, Also why are we removing
-    // translatorOptions from annotations, Could be MAT specific.
-    TranslatorOptionsRemover remover = new TranslatorOptionsRemover(cqlConversionPayload.getJson());
-    String cleanedJson = remover.clean();
-    cqlConversionPayload.setJson(cleanedJson);
-    return cqlConversionPayload;
+        buildRequestData(
+            cqlData,
+            signatures,
+            false,
+            annotations,
+            locators,
+            disableListDemotion,
+            disableListPromotion,
+            disableMethodInvocation,
+            validateUnits,
+            resultTypes);
+    CqlHeader cqlHeader = CqlHeader.parse(cqlData);
+    AuditSubject.library(cqlHeader);
+    return translationExecutor.defer(
+        TranslationEndpoint.CQL_TO_ELM,
+        null,
+        () ->
+            translatedLibraryService.translateLibraries(
+                requestData, TranslationContext.of(cqlHeader, cqlLibraryService, accessToken)));
+  }
+
+  /**
+   * Translates many libraries in one request. Every item is translated with the same options and
+   * its result is written as one line of NDJSON as soon as it is ready, so results arrive in
+   * completion order; match them up by id. The response has a timeout of its own, after which the
+   * rest of the batch is cancelled.
+   */
+  @PostMapping(
+      path = "/cql/batch",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<ResponseBodyEmitter> cqlToElmBatch(
+      @RequestBody List<BatchTranslationItem> items,
+      @RequestParam(required = false) LibraryBuilder.SignatureLevel signatures,
+      @RequestParam(defaultValue = "false") Boolean showWarnings,
+      @RequestParam(defaultValue = "true") Boolean annotations,
+      @RequestParam(defaultValue = "true") Boolean locators,
+      @RequestParam(value = "disable-list-demotion", defaultValue = "true")
+          Boolean disableListDemotion,
+      @RequestParam(value = "disable-list-promotion", defaultValue = "true")
+          Boolean disableListPromotion,
+      @RequestParam(value = "disable-method-invocation", defaultValue = "false")
+          Boolean disableMethodInvocation,
+      @RequestParam(value = "validate-units", defaultValue = "true") Boolean validateUnits,
+      @RequestParam(value = "result-types", defaultValue = "true") Boolean resultTypes,
+      @RequestParam(value = "include-xml", defaultValue = "false") Boolean includeXml,
+      @RequestHeader("Authorization") String accessToken) {
+
+    RequestData options =
+        buildRequestData(
+            null,
+            signatures,
+            showWarnings,
+            annotations,
+            locators,
+            disableListDemotion,
+            disableListPromotion,
+            disableMethodInvocation,
+            validateUnits,
+            resultTypes);
+    ResponseBodyEmitter emitter =
+        new ResponseBodyEmitter(batchTranslationService.getTimeoutMillis());
+    Future<?> batch =
+        batchTranslationService.start(
+            items,
+            options,
+            accessToken,
+            result -> writeResult(emitter, result, includeXml),
+            failure -> {
+              if (failure == null) {
+                emitter.complete();
+              } else {
+                emitter.completeWithError(failure);
+              }
+            });
+    // the batch holds its permit until it ends, so stop it once nobody can read the results
+    emitter.onTimeout(() -> batch.cancel(true));
+    emitter.onError(error -> batch.cancel(true));
+    emitter.onCompletion(() -> batch.cancel(true));
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+  }
+
+  private void writeResult(
+      ResponseBodyEmitter emitter, BatchTranslationResult result, boolean includeXml) {
+    if (result.getJson() != null) {
+      result.setJson(new TranslatorOptionsRemover(result.getJson()).clean());
+    }
+    if (!includeXml) {
+      result.setXml(null);
+    }
+    try {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      line.write(ndjsonMapper.writeValueAsBytes(result));
+      line.write('\n');
+      emitter.send(line.toByteArray(), MediaType.APPLICATION_NDJSON);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static RequestData buildRequestData(
+      String cqlData,
+      LibraryBuilder.SignatureLevel signatures,
+      Boolean showWarnings,
+      Boolean annotations,
+      Boolean locators,
+      Boolean disableListDemotion,
+      Boolean disableListPromotion,
+      Boolean disableMethodInvocation,
+      Boolean validateUnits,
+      Boolean resultTypes) {
+    return RequestData.builder()
+        .cqlData(cqlData)
+        .showWarnings(showWarnings)
+        .signatures(signatures)
+        .annotations(annotations)
+        .locators(locators)
+        .disableListDemotion(disableListDemotion)
+        .disableListPromotion(disableListPromotion)
+        .disableMethodInvocation(disableMethodInvocation)
+        .validateUnits(validateUnits)
+        .resultTypes(resultTypes)
+        .build();
+  }
+
+  /**
+   * Syntax-only check for interactive editing. Only the CQL parser runs, so the response holds
+   * errorExceptions for syntax errors and no ELM.
+   */
+  @PutMapping(path = "/cql/syntax", consumes = "text/plain", produces = "application/elm+json")
+  public CqlConversionPayload cqlSyntaxCheck(@RequestBody String cqlData) {
+    return cqlSyntaxCheckService.checkSyntax(cqlData);
   }
 
   /**
@@ -81,14 +363,14 @@ public class CqlConversionController {
    * "DisableMethodInvocation,EnableLocators,DisableListPromotion,EnableDetailedErrors,
    * EnableAnnotations,DisableListDemotion", "type": "CqlToElmInfo" },
    */
-  static class TranslatorOptionsRemover {
+  public static class TranslatorOptionsRemover {
     final String json;
 
-    TranslatorOptionsRemover(String json) {
+    public TranslatorOptionsRemover(String json) {
       this.json = json;
     }
 
-    String clean() {
+    public String clean() {
 
       try {
         ObjectMapper objectMapper = new ObjectMapper();
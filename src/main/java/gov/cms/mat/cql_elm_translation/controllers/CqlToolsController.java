@@ -3,6 +3,11 @@ package gov.cms.mat.cql_elm_translation.controllers;
 import gov.cms.madie.models.measure.Measure;
 import gov.cms.madie.cql_elm_translator.dto.CqlBuilderLookup;
 import gov.cms.madie.cql_elm_translator.dto.SourceDataCriteria;
+import gov.cms.mat.cql_elm_translation.config.execution.DocumentRevision;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationEndpoint;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.security.CallerIdentity;
+import gov.cms.mat.cql_elm_translation.dto.CallstackGraph;
 import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
 import gov.cms.mat.cql_elm_translation.service.CqlParsingService;
 import gov.cms.mat.cql_elm_translation.service.DataCriteriaService;
@@ -12,7 +17,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.security.Principal;
 import java.util.*;
 
 @Slf4j
@@ -23,29 +30,86 @@ public class CqlToolsController {
   private final DataCriteriaService dataCriteriaService;
   private final CqlConversionService cqlConversionService;
   private final CqlParsingService cqlParsingService;
+  private final TranslationExecutor translationExecutor;
 
   // QDM specific now but we would need one for QICore as well in future while building QICore
   // testcase builder
   @PutMapping("/cql/relevant-elements")
-  public ResponseEntity<Set<SourceDataCriteria>> getRelevantElements(
-      @RequestBody Measure measure, @RequestHeader("Authorization") String accessToken) {
-    return ResponseEntity.ok()
-        .contentType(MediaType.APPLICATION_JSON)
-        .body(dataCriteriaService.getRelevantElements(measure, accessToken));
+  public DeferredResult<ResponseEntity<Set<SourceDataCriteria>>> getRelevantElements(
+      @RequestBody Measure measure,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+    return translationExecutor.defer(
+        TranslationEndpoint.RELEVANT_ELEMENTS,
+        DocumentRevision.of(
+            CallerIdentity.of(principal, accessToken), documentId, documentRevision),
+        () ->
+            ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(dataCriteriaService.getRelevantElements(measure, accessToken)));
   }
 
   @PutMapping("/cql/callstacks")
-  public ResponseEntity<Map<String, Set<CQLDefinition>>> getDefinitionCallstack(
-      @RequestBody String cql, @RequestHeader("Authorization") String accessToken) {
-    return ResponseEntity.ok(cqlParsingService.getDefinitionCallstacks(cql, accessToken));
+  public DeferredResult<ResponseEntity<Map<String, Set<CQLDefinition>>>> getDefinitionCallstack(
+      @RequestBody String cql,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+    return translationExecutor.defer(
+        TranslationEndpoint.CALLSTACKS,
+        DocumentRevision.of(
+            CallerIdentity.of(principal, accessToken), documentId, documentRevision),
+        () -> ResponseEntity.ok(cqlParsingService.getDefinitionCallstacks(cql, accessToken)));
+  }
+
+  /**
+   * The callstacks as a {@link CallstackGraph}, for clients that accept its media type. Each
+   * definition is sent once however many definitions call it.
+   */
+  @PutMapping(value = "/cql/callstacks", produces = CallstackGraph.MEDIA_TYPE)
+  public DeferredResult<ResponseEntity<CallstackGraph>> getDefinitionCallstackGraph(
+      @RequestBody String cql,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestParam(defaultValue = "false") boolean reachability,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+    return translationExecutor.defer(
+        TranslationEndpoint.CALLSTACKS,
+        DocumentRevision.of(
+            CallerIdentity.of(principal, accessToken), documentId, documentRevision),
+        () ->
+            ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(CallstackGraph.MEDIA_TYPE))
+                .body(
+                    cqlParsingService.getDefinitionCallstackGraph(cql, accessToken, reachability)));
   }
 
   @PutMapping(
       value = "/cql-builder-lookups",
       produces = MediaType.APPLICATION_JSON_VALUE,
       consumes = MediaType.TEXT_PLAIN_VALUE)
-  public ResponseEntity<CqlBuilderLookup> getCqlBuilderLookups(
-      @RequestBody String cql, @RequestHeader("Authorization") String accessToken) {
-    return ResponseEntity.ok(cqlParsingService.getCqlBuilderLookups(cql, accessToken));
+  public DeferredResult<ResponseEntity<CqlBuilderLookup>> getCqlBuilderLookups(
+      @RequestBody String cql,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+    return translationExecutor.defer(
+        TranslationEndpoint.BUILDER_LOOKUPS,
+        DocumentRevision.of(
+            CallerIdentity.of(principal, accessToken), documentId, documentRevision),
+        () -> ResponseEntity.ok(cqlParsingService.getCqlBuilderLookups(cql, accessToken)));
   }
 }
@@ -2,6 +2,11 @@ package gov.cms.mat.cql_elm_translation.controllers;
 
 import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
 import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.mat.cql_elm_translation.config.execution.DocumentRevision;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationEndpoint;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.logging.AuditSubject;
+import gov.cms.mat.cql_elm_translation.config.security.CallerIdentity;
 import gov.cms.mat.cql_elm_translation.service.EffectiveDataRequirementService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -14,21 +19,30 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.security.Principal;
 
 @Slf4j
 @RestController
 @RequiredArgsConstructor
 public class EffectiveDataRequirementController {
   private final EffectiveDataRequirementService effectiveDataRequirementService;
+  private final TranslationExecutor translationExecutor;
 
   @PutMapping(
       value = "/effective-data-requirements",
       produces = {MediaType.APPLICATION_JSON_VALUE},
       consumes = {MediaType.APPLICATION_JSON_VALUE})
-  public ResponseEntity<String> getEffectiveDataRequirements(
+  public DeferredResult<ResponseEntity<String>> getEffectiveDataRequirements(
       @RequestBody CqlLibraryDetails libraryDetails,
       @RequestParam(value = "recursive", defaultValue = "true") boolean recursive,
-      @RequestHeader("Authorization") String accessToken) {
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.DOCUMENT_ID_HEADER, required = false)
+          String documentId,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
 
     if (libraryDetails == null || StringUtils.isBlank(libraryDetails.getCql())) {
       log.error("Invalid cql provided for library");
@@ -37,14 +51,19 @@ public class EffectiveDataRequirementController {
     log.info(
         "building the effective data requirements for library: {}",
         libraryDetails.getLibraryName());
+    AuditSubject.library(libraryDetails.getLibraryName(), null);
 
-    org.hl7.fhir.r5.model.Library r5Library =
-        effectiveDataRequirementService.getEffectiveDataRequirements(
-            libraryDetails, recursive, accessToken);
-
-    String r5LibraryStr =
-        effectiveDataRequirementService.getEffectiveDataRequirementsStr(r5Library);
-
-    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(r5LibraryStr);
+    return translationExecutor.defer(
+        TranslationEndpoint.EFFECTIVE_DATA_REQUIREMENTS,
+        DocumentRevision.of(
+            CallerIdentity.of(principal, accessToken), documentId, documentRevision),
+        () -> {
+          org.hl7.fhir.r5.model.Library r5Library =
+              effectiveDataRequirementService.getEffectiveDataRequirements(
+                  libraryDetails, recursive, accessToken);
+          String r5LibraryStr =
+              effectiveDataRequirementService.getEffectiveDataRequirementsStr(r5Library);
+          return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(r5LibraryStr);
+        });
   }
 }
@@ -0,0 +1,80 @@
+package gov.cms.mat.cql_elm_translation.controllers;
+
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationJobNotFoundException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationSupersededException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationTimeoutException;
+import gov.cms.mat.cql_elm_translation.exceptions.WorkspaceNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Slf4j
+@ControllerAdvice
+public class TranslationErrorControllerAdvice {
+
+  @ExceptionHandler(TranslationOverloadedException.class)
+  ResponseEntity<Map<String, Object>> onTranslationOverloaded(
+      TranslationOverloadedException ex, WebRequest request) {
+    log.warn("Rejecting request: {}", ex.getMessage());
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+        .body(buildBody(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(), request));
+  }
+
+  @ExceptionHandler(TranslationTimeoutException.class)
+  ResponseEntity<Map<String, Object>> onTranslationTimeout(
+      TranslationTimeoutException ex, WebRequest request) {
+    Map<String, Object> body = buildBody(HttpStatus.GATEWAY_TIMEOUT, ex.getMessage(), request);
+    body.put("endpoint", ex.getEndpoint());
+    body.put("deadlineMillis", ex.getDeadlineMillis());
+    return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(body);
+  }
+
+  @ExceptionHandler(TranslationSupersededException.class)
+  ResponseEntity<Map<String, Object>> onTranslationSuperseded(
+      TranslationSupersededException ex, WebRequest request) {
+    log.debug("Superseded request: {}", ex.getMessage());
+    Map<String, Object> body = buildBody(HttpStatus.CONFLICT, ex.getMessage(), request);
+    body.put("documentId", ex.getDocumentId());
+    body.put("revision", ex.getRevision());
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(body);
+  }
+
+  @ExceptionHandler(WorkspaceNotFoundException.class)
+  ResponseEntity<Map<String, Object>> onWorkspaceNotFound(
+      WorkspaceNotFoundException ex, WebRequest request) {
+    Map<String, Object> body = buildBody(HttpStatus.NOT_FOUND, ex.getMessage(), request);
+    body.put("workspaceId", ex.getWorkspaceId());
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+  }
+
+  @ExceptionHandler(TranslationJobNotFoundException.class)
+  ResponseEntity<Map<String, Object>> onTranslationJobNotFound(
+      TranslationJobNotFoundException ex, WebRequest request) {
+    Map<String, Object> body = buildBody(HttpStatus.NOT_FOUND, ex.getMessage(), request);
+    body.put("jobId", ex.getJobId());
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+  }
+
+  private Map<String, Object> buildBody(HttpStatus status, String message, WebRequest request) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("timestamp", Instant.now().toString());
+    body.put("status", status.value());
+    body.put("error", status.getReasonPhrase());
+    body.put("message", message);
+    if (request instanceof ServletWebRequest servletWebRequest) {
+      body.put("path", servletWebRequest.getRequest().getRequestURI());
+    }
+    return body;
+  }
+}
@@ -0,0 +1,150 @@
+package gov.cms.mat.cql_elm_translation.controllers;
+
+import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
+import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.mat.cql_elm_translation.config.security.CallerIdentity;
+import gov.cms.mat.cql_elm_translation.dto.TranslationJob;
+import gov.cms.mat.cql_elm_translation.service.EffectiveDataRequirementService;
+import gov.cms.mat.cql_elm_translation.service.TranslationJobService;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.Principal;
+import java.time.Instant;
+
+@RestController
+@RequestMapping(path = "/jobs")
+@Tag(
+    name = "Translation-Job-Controller",
+    description = "API for long running translation work that is polled for its result.")
+@Slf4j
+@RequiredArgsConstructor
+public class TranslationJobController {
+
+  static final String EFFECTIVE_DATA_REQUIREMENTS = "effective-data-requirements";
+
+  @Value("${madie.translation.jobs.max-wait-seconds}")
+  private long maxWaitSeconds;
+
+  private final TranslationJobService translationJobService;
+  private final EffectiveDataRequirementService effectiveDataRequirementService;
+
+  /**
+   * Same as PUT /effective-data-requirements, but answers with a job to poll right away. The job
+   * fetches included libraries with the access token of this request when it starts, so a job still
+   * queued when the token expires fails with 401 and has to be submitted again.
+   */
+  @PostMapping(
+      path = "/" + EFFECTIVE_DATA_REQUIREMENTS,
+      consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<TranslationJob> submitEffectiveDataRequirements(
+      @RequestBody CqlLibraryDetails libraryDetails,
+      @RequestParam(value = "recursive", defaultValue = "true") boolean recursive,
+      @RequestHeader("Authorization") String accessToken,
+      Principal principal) {
+    if (libraryDetails == null || StringUtils.isBlank(libraryDetails.getCql())) {
+      log.error("Invalid cql provided for library");
+      throw new CqlFormatException("Invalid cql provided for library");
+    }
+    Instant tokenExpiresAt = CallerIdentity.expiresAt(principal);
+    TranslationJobService.Job job =
+        translationJobService.submit(
+            CallerIdentity.of(principal, accessToken),
+            EFFECTIVE_DATA_REQUIREMENTS,
+            () -> {
+              if (tokenExpiresAt != null && Instant.now().isAfter(tokenExpiresAt)) {
+                throw new ResponseStatusException(
+                    HttpStatus.UNAUTHORIZED,
+                    "The access token expired before the job started, submit it again");
+              }
+              return effectiveDataRequirementService.getEffectiveDataRequirementsStr(
+                  effectiveDataRequirementService.getEffectiveDataRequirements(
+                      libraryDetails, recursive, accessToken));
+            });
+    log.info(
+        "Submitted effective data requirements job [{}] for library: {}",
+        job.getId(),
+        libraryDetails.getLibraryName());
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toDto());
+  }
+
+  @GetMapping("/{jobId}")
+  public TranslationJob getJob(
+      @PathVariable String jobId,
+      @RequestHeader("Authorization") String accessToken,
+      Principal principal) {
+    return translationJobService.get(CallerIdentity.of(principal, accessToken), jobId).toDto();
+  }
+
+  /**
+   * The result of a job: 200 with the result once it has succeeded, 202 with the job while it is
+   * still queued or running, 500 with the job when it was cancelled. A failed job answers as the
+   * synchronous endpoint would have failed, e.g. 400 for invalid CQL. With wait the request is
+   * held, without a request thread, until the job finishes or wait seconds pass.
+   */
+  @GetMapping("/{jobId}/result")
+  public DeferredResult<ResponseEntity<?>> getJobResult(
+      @PathVariable String jobId,
+      @RequestParam(defaultValue = "0") long wait,
+      @RequestHeader("Authorization") String accessToken,
+      Principal principal) {
+    TranslationJobService.Job job =
+        translationJobService.get(CallerIdentity.of(principal, accessToken), jobId);
+    long waitMillis = Math.min(Math.max(wait, 0), maxWaitSeconds) * 1000;
+    DeferredResult<ResponseEntity<?>> deferredResult =
+        new DeferredResult<>(waitMillis > 0 ? waitMillis : null, () -> toResponse(job));
+    if (job.isFinished() || waitMillis == 0) {
+      complete(deferredResult, job);
+    } else {
+      job.completion().thenAccept(finished -> complete(deferredResult, finished));
+    }
+    return deferredResult;
+  }
+
+  @DeleteMapping("/{jobId}")
+  public ResponseEntity<Void> cancelJob(
+      @PathVariable String jobId,
+      @RequestHeader("Authorization") String accessToken,
+      Principal principal) {
+    translationJobService.cancel(CallerIdentity.of(principal, accessToken), jobId);
+    return ResponseEntity.noContent().build();
+  }
+
+  /** Hands the failure of a failed job to the exception handlers, the job otherwise. */
+  private static void complete(
+      DeferredResult<ResponseEntity<?>> deferredResult, TranslationJobService.Job job) {
+    if (job.getStatus() == TranslationJob.Status.FAILED && job.getFailure() != null) {
+      deferredResult.setErrorResult(job.getFailure());
+    } else {
+      deferredResult.setResult(toResponse(job));
+    }
+  }
+
+  private static ResponseEntity<?> toResponse(TranslationJobService.Job job) {
+    return switch (job.getStatus()) {
+      case SUCCEEDED -> ResponseEntity.ok()
+          .contentType(MediaType.APPLICATION_JSON)
+          .body(job.getResult());
+      case FAILED, CANCELLED -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body(job.toDto());
+      default -> ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toDto());
+    };
+  }
+}
@@ -0,0 +1,134 @@
+package gov.cms.mat.cql_elm_translation.controllers;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.config.execution.DocumentRevision;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationEndpoint;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.logging.AuditSubject;
+import gov.cms.mat.cql_elm_translation.config.security.CallerIdentity;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.dto.TranslationWorkspace;
+import gov.cms.mat.cql_elm_translation.service.TranslationWorkspaceService;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.security.Principal;
+
+@RestController
+@RequestMapping(path = "/cql/translator/workspaces")
+@Tag(
+    name = "Translation-Workspace-Controller",
+    description = "API for editor sessions that keep translation state on the server.")
+@Slf4j
+@RequiredArgsConstructor
+public class TranslationWorkspaceController {
+
+  private final TranslationWorkspaceService translationWorkspaceService;
+  private final CqlLibraryService cqlLibraryService;
+  private final TranslationExecutor translationExecutor;
+
+  /** Opens a workspace; the translator options given here apply to every revision sent to it. */
+  @PostMapping
+  public ResponseEntity<TranslationWorkspace> openWorkspace(
+      @RequestParam(required = false) String measureId,
+      @RequestParam(required = false) LibraryBuilder.SignatureLevel signatures,
+      @RequestParam(defaultValue = "false") Boolean showWarnings,
+      @RequestParam(defaultValue = "true") Boolean annotations,
+      @RequestParam(defaultValue = "true") Boolean locators,
+      @RequestParam(value = "disable-list-demotion", defaultValue = "true")
+          Boolean disableListDemotion,
+      @RequestParam(value = "disable-list-promotion", defaultValue = "true")
+          Boolean disableListPromotion,
+      @RequestParam(value = "disable-method-invocation", defaultValue = "false")
+          Boolean disableMethodInvocation,
+      @RequestParam(value = "validate-units", defaultValue = "true") Boolean validateUnits,
+      @RequestParam(value = "result-types", defaultValue = "true") Boolean resultTypes,
+      @RequestHeader("Authorization") String accessToken,
+      Principal principal) {
+
+    RequestData options =
+        RequestData.builder()
+            .showWarnings(showWarnings)
+            .signatures(signatures)
+            .annotations(annotations)
+            .locators(locators)
+            .disableListDemotion(disableListDemotion)
+            .disableListPromotion(disableListPromotion)
+            .disableMethodInvocation(disableMethodInvocation)
+            .validateUnits(validateUnits)
+            .resultTypes(resultTypes)
+            .build();
+    AuditSubject.measure(measureId);
+    TranslationWorkspaceService.Workspace workspace =
+        translationWorkspaceService.open(
+            CallerIdentity.of(principal, accessToken), measureId, options);
+    return ResponseEntity.status(HttpStatus.CREATED)
+        .body(
+            TranslationWorkspace.builder()
+                .workspaceId(workspace.getId())
+                .measureId(workspace.getMeasureId())
+                .idleTimeoutSeconds(translationWorkspaceService.getIdleTimeoutSeconds())
+                .build());
+  }
+
+  @PutMapping(
+      path = "/{workspaceId}/cql",
+      consumes = "text/plain",
+      produces = "application/elm+json")
+  public DeferredResult<CqlConversionPayload> translateRevision(
+      @PathVariable String workspaceId,
+      @RequestBody String cqlData,
+      @RequestHeader("Authorization") String accessToken,
+      @RequestHeader(value = DocumentRevision.REVISION_HEADER, required = false)
+          Long documentRevision,
+      Principal principal) {
+    String owner = CallerIdentity.of(principal, accessToken);
+    // fail fast on unknown workspaces before taking a translation worker
+    TranslationWorkspaceService.Workspace workspace =
+        translationWorkspaceService.get(owner, workspaceId);
+    CqlHeader cqlHeader = CqlHeader.parse(cqlData);
+    AuditSubject.library(cqlHeader);
+    AuditSubject.measure(workspace.getMeasureId());
+    return translationExecutor.defer(
+        TranslationEndpoint.CQL_TO_ELM,
+        DocumentRevision.of(owner, workspaceId, documentRevision),
+        () -> {
+          CqlConversionPayload cqlConversionPayload =
+              translationWorkspaceService.translate(
+                  owner,
+                  workspaceId,
+                  cqlData,
+                  TranslationContext.of(cqlHeader, cqlLibraryService, accessToken));
+          cqlConversionPayload.setJson(
+              new CqlConversionController.TranslatorOptionsRemover(cqlConversionPayload.getJson())
+                  .clean());
+          return cqlConversionPayload;
+        });
+  }
+
+  @DeleteMapping("/{workspaceId}")
+  public ResponseEntity<Void> closeWorkspace(
+      @PathVariable String workspaceId,
+      @RequestHeader("Authorization") String accessToken,
+      Principal principal) {
+    translationWorkspaceService.close(CallerIdentity.of(principal, accessToken), workspaceId);
+    return ResponseEntity.noContent().build();
+  }
+}
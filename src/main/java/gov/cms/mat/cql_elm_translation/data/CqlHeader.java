@@ -0,0 +1,113 @@
+package gov.cms.mat.cql_elm_translation.data;
+
+import gov.cms.mat.cql.CqlTextParser;
+import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.cql.elements.UsingProperties;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.cqframework.cql.gen.cqlLexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The library, using and include declarations of a CQL document, parsed once per request and handed
+ * to every stage that needs them instead of each stage scanning the full text again.
+ */
+public record CqlHeader(
+    LibraryProperties library,
+    UsingProperties using,
+    List<Include> includes,
+    boolean modelVersionDeclared) {
+
+  private static final Pattern MODEL_VERSION =
+      Pattern.compile("using .*version '[0-9]\\.[0-9](\\.[0-9])?'");
+
+  // includes are declared ahead of the first statement, nothing after it is read
+  private static final Set<String> STATEMENTS = Set.of("context", "define");
+
+  /** An include declaration, the version is null when the include names none. */
+  public record Include(String name, String version, String alias) {}
+
+  public CqlHeader {
+    includes = List.copyOf(includes);
+  }
+
+  public static CqlHeader parse(String cql) {
+    CqlTextParser cqlTextParser = new CqlTextParser(cql);
+    return new CqlHeader(
+        cqlTextParser.getLibrary(),
+        cqlTextParser.getUsing(),
+        parseIncludes(cql),
+        cql != null && MODEL_VERSION.matcher(cql).find());
+  }
+
+  /** FHIR based models (FHIR, QICore) are translated with the FHIR translation resource. */
+  public boolean isFhir() {
+    return using != null
+        && ("FHIR".equals(using.getLibraryType()) || "QICore".equals(using.getLibraryType()));
+  }
+
+  /**
+   * The include declarations of a CQL document, without parsing the rest. The document is only run
+   * through the CQL lexer up to its first statement, so includes in comments and strings are not
+   * taken for declarations.
+   */
+  public static List<Include> parseIncludes(String cql) {
+    List<Include> includes = new ArrayList<>();
+    if (cql == null) {
+      return includes;
+    }
+    List<String> tokens = headerTokens(cql);
+    for (int i = 0; i < tokens.size(); i++) {
+      if (!"include".equals(tokens.get(i)) || i + 1 == tokens.size()) {
+        continue;
+      }
+      // include qualified.name (version 'x')? (called alias)?
+      StringBuilder name = new StringBuilder(unquote(tokens.get(++i)));
+      while (i + 2 < tokens.size() && ".".equals(tokens.get(i + 1))) {
+        name.append('.').append(unquote(tokens.get(i + 2)));
+        i += 2;
+      }
+      String version = null;
+      if (i + 2 < tokens.size() && "version".equals(tokens.get(i + 1))) {
+        version = unquote(tokens.get(i + 2));
+        i += 2;
+      }
+      String alias = name.toString();
+      if (i + 2 < tokens.size() && "called".equals(tokens.get(i + 1))) {
+        alias = unquote(tokens.get(i + 2));
+        i += 2;
+      }
+      includes.add(new Include(name.toString(), version, alias));
+    }
+    return includes;
+  }
+
+  /** The text of the tokens ahead of the first statement, without comments and whitespace. */
+  private static List<String> headerTokens(String cql) {
+    cqlLexer lexer = new cqlLexer(CharStreams.fromString(cql));
+    lexer.removeErrorListeners();
+    List<String> tokens = new ArrayList<>();
+    for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+      if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+        continue;
+      }
+      if (STATEMENTS.contains(token.getText())) {
+        break;
+      }
+      tokens.add(token.getText());
+    }
+    return tokens;
+  }
+
+  /** Strips the quotes of a quoted identifier or a string. */
+  private static String unquote(String text) {
+    return text.length() >= 2
+            && (text.startsWith("\"") || text.startsWith("`") || text.startsWith("'"))
+        ? text.substring(1, text.length() - 1)
+        : text;
+  }
+}
@@ -0,0 +1,16 @@
+package gov.cms.mat.cql_elm_translation.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** One library of a batch translation request. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTranslationItem {
+  private String id;
+  private String cql;
+}
@@ -0,0 +1,27 @@
+package gov.cms.mat.cql_elm_translation.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.Builder;
+import lombok.Data;
+
+/** One line of a batch translation response, written as soon as the item is translated. */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchTranslationResult {
+  public enum Status {
+    OK,
+    ERROR
+  }
+
+  private String id;
+  private Status status;
+
+  /** The ELM JSON, embedded as is rather than as a string. */
+  @JsonRawValue private String json;
+
+  private String xml;
+  private String error;
+  private long durationMillis;
+}
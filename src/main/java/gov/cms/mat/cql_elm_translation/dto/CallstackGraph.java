@@ -0,0 +1,40 @@
+package gov.cms.mat.cql_elm_translation.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The definition callstacks as a graph. Every definition is sent once in the node table, and calls
+ * refer to definitions by their index in it, so definitions called from many places do not repeat
+ * their logic under every caller.
+ */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CallstackGraph {
+  public static final String MEDIA_TYPE = "application/vnd.madie.callstack-graph+json";
+
+  private List<Node> nodes;
+
+  /** For each node, the indices of the nodes it calls. */
+  private List<List<Integer>> calls;
+
+  /** For each node, the indices of every node it reaches through calls. Only sent on request. */
+  private List<List<Integer>> reachable;
+
+  @Data
+  @Builder
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Node {
+    private String id;
+    private String name;
+    private String library;
+    private String libraryVersion;
+    private String libraryAlias;
+    private boolean function;
+    private String logic;
+  }
+}
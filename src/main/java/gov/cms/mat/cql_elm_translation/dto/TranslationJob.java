@@ -0,0 +1,29 @@
+package gov.cms.mat.cql_elm_translation.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TranslationJob {
+
+  public enum Status {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED,
+    CANCELLED
+  }
+
+  private String jobId;
+  private String type;
+  private Status status;
+  private Instant submittedAt;
+  private Instant startedAt;
+  private Instant finishedAt;
+  private String error;
+}
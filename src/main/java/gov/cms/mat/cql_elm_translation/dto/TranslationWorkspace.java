@@ -0,0 +1,12 @@
+package gov.cms.mat.cql_elm_translation.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class TranslationWorkspace {
+  private String workspaceId;
+  private String measureId;
+  private long idleTimeoutSeconds;
+}
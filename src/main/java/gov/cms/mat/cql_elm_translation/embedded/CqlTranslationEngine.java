@@ -0,0 +1,181 @@
+package gov.cms.mat.cql_elm_translation.embedded;
+
+import ca.uhn.fhir.context.FhirContext;
+import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.controllers.CqlConversionController.TranslatorOptionsRemover;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.service.EffectiveDataRequirementService;
+import gov.cms.mat.cql_elm_translation.service.support.CompiledIncludes;
+import gov.cms.mat.cql_elm_translation.service.support.ElmCanonicalizer;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-process translation for services that would otherwise call this one over HTTP only to
+ * translate. Needs no Spring context: build one engine with a {@link LibrarySource} for includes
+ * and share it, it is safe to use from many threads. Results are the same as the HTTP endpoints
+ * give for the same options.
+ *
+ * <pre>
+ * CqlTranslationEngine engine =
+ *     CqlTranslationEngine.builder().librarySource(libraryRepository::findCql).build();
+ * CqlConversionPayload payload = engine.translate(cql);
+ * </pre>
+ *
+ * <p>Included libraries compiled for one translation are kept and reused by later ones unless
+ * disabled with {@link Builder#cacheCompiledIncludes(boolean)}, up to {@link
+ * Builder#maxCompiledIncludes(int)} of them with the least recently used dropped first. Call {@link
+ * #clearCompiledIncludes()} when included libraries may have changed without a version change.
+ */
+public class CqlTranslationEngine {
+
+  /** The options the MADiE front end translates with. */
+  public static final RequestData DEFAULT_OPTIONS =
+      RequestData.builder()
+          .showWarnings(false)
+          .signatures(LibraryBuilder.SignatureLevel.All)
+          .annotations(true)
+          .locators(true)
+          .disableListDemotion(true)
+          .disableListPromotion(true)
+          .disableMethodInvocation(false)
+          .validateUnits(true)
+          .resultTypes(true)
+          .build();
+
+  private final CqlConversionService cqlConversionService;
+  private final EffectiveDataRequirementService effectiveDataRequirementService;
+  private final LibrarySourceCqlLibraryService cqlLibraryService;
+  private final RequestData defaultOptions;
+  private final boolean cacheCompiledIncludes;
+  private final Map<VersionedIdentifier, CompiledLibrary> compiledIncludes;
+
+  private CqlTranslationEngine(Builder builder) {
+    this.cqlLibraryService = new LibrarySourceCqlLibraryService(builder.librarySource);
+    this.cqlConversionService = new CqlConversionService();
+    this.effectiveDataRequirementService =
+        new EffectiveDataRequirementService(builder.fhirContextForR5, cqlLibraryService);
+    this.defaultOptions = builder.defaultOptions;
+    this.cacheCompiledIncludes = builder.cacheCompiledIncludes;
+    int maxCompiledIncludes = builder.maxCompiledIncludes;
+    this.compiledIncludes =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(
+                  Map.Entry<VersionedIdentifier, CompiledLibrary> eldest) {
+                return size() > maxCompiledIncludes;
+              }
+            });
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Translates with the engine's default options. */
+  public CqlConversionPayload translate(String cql) {
+    return translate(cql, defaultOptions);
+  }
+
+  /** Translates with the given options, the CQL data of the options is ignored. */
+  public CqlConversionPayload translate(String cql, RequestData options) {
+    CqlHeader cqlHeader = CqlHeader.parse(cql);
+    RequestData requestData = options.toBuilder().cqlData(cql).build();
+    CqlTranslator cqlTranslator =
+        cqlConversionService.processCqlData(
+            requestData,
+            TranslationContext.of(cqlHeader, cqlLibraryService, ""),
+            cacheCompiledIncludes ? compiledIncludes() : Map.of());
+    CqlConversionPayload payload =
+        cqlConversionService.toPayload(requestData, cqlHeader, cqlTranslator);
+    if (cacheCompiledIncludes) {
+      compiledIncludes.putAll(ElmCanonicalizer.canonicalize(CompiledIncludes.of(cqlTranslator)));
+    }
+    payload.setJson(new TranslatorOptionsRemover(payload.getJson()).clean());
+    return payload;
+  }
+
+  /** The effective data requirements of a FHIR library as R5 Library JSON. */
+  public String getEffectiveDataRequirements(CqlLibraryDetails libraryDetails, boolean recursive) {
+    return effectiveDataRequirementService.getEffectiveDataRequirementsStr(
+        effectiveDataRequirementService.getEffectiveDataRequirements(
+            libraryDetails, recursive, ""));
+  }
+
+  private Map<VersionedIdentifier, CompiledLibrary> compiledIncludes() {
+    synchronized (compiledIncludes) {
+      return Map.copyOf(compiledIncludes);
+    }
+  }
+
+  public void clearCompiledIncludes() {
+    compiledIncludes.clear();
+  }
+
+  int compiledIncludeCount() {
+    return compiledIncludes.size();
+  }
+
+  public static class Builder {
+    private LibrarySource librarySource;
+    private RequestData defaultOptions = DEFAULT_OPTIONS;
+    private boolean cacheCompiledIncludes = true;
+    private int maxCompiledIncludes = 256;
+    private FhirContext fhirContextForR5;
+
+    private Builder() {}
+
+    /** Where included libraries are read from. Required. */
+    public Builder librarySource(LibrarySource librarySource) {
+      this.librarySource = librarySource;
+      return this;
+    }
+
+    /**
+     * Options used by {@link CqlTranslationEngine#translate(String)}, {@link #DEFAULT_OPTIONS} when
+     * not set.
+     */
+    public Builder defaultOptions(RequestData defaultOptions) {
+      this.defaultOptions = defaultOptions;
+      return this;
+    }
+
+    public Builder cacheCompiledIncludes(boolean cacheCompiledIncludes) {
+      this.cacheCompiledIncludes = cacheCompiledIncludes;
+      return this;
+    }
+
+    /** How many compiled included libraries are kept at most, 256 when not set. */
+    public Builder maxCompiledIncludes(int maxCompiledIncludes) {
+      this.maxCompiledIncludes = maxCompiledIncludes;
+      return this;
+    }
+
+    /** An existing R5 context to share, creating one is expensive. One is created when not set. */
+    public Builder fhirContextForR5(FhirContext fhirContextForR5) {
+      this.fhirContextForR5 = fhirContextForR5;
+      return this;
+    }
+
+    public CqlTranslationEngine build() {
+      Objects.requireNonNull(librarySource, "librarySource is required");
+      Objects.requireNonNull(defaultOptions, "defaultOptions is required");
+      if (fhirContextForR5 == null) {
+        fhirContextForR5 = FhirContext.forR5Cached();
+      }
+      return new CqlTranslationEngine(this);
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package gov.cms.mat.cql_elm_translation.embedded;
+
+/**
+ * Supplies the CQL of included libraries to a {@link CqlTranslationEngine}, for example from a
+ * database, a directory or a client of the library service.
+ */
+@FunctionalInterface
+public interface LibrarySource {
+
+  /** The CQL of the library, or null when there is no such library. */
+  String getLibraryCql(String name, String version);
+}
@@ -0,0 +1,22 @@
+package gov.cms.mat.cql_elm_translation.embedded;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+
+/**
+ * Lets the translator's library source provider, which only knows the library service, read
+ * includes from a {@link LibrarySource}. The access token is not used.
+ */
+class LibrarySourceCqlLibraryService extends CqlLibraryService {
+
+  private final LibrarySource librarySource;
+
+  LibrarySourceCqlLibraryService(LibrarySource librarySource) {
+    super(null);
+    this.librarySource = librarySource;
+  }
+
+  @Override
+  public String getLibraryCql(String name, String version, String accessToken) {
+    return librarySource.getLibraryCql(name, version);
+  }
+}
@@ -0,0 +1,14 @@
+package gov.cms.mat.cql_elm_translation.exceptions;
+
+import lombok.Getter;
+
+/** Thrown when a translation job does not exist or its result has expired. */
+@Getter
+public class TranslationJobNotFoundException extends RuntimeException {
+  private final String jobId;
+
+  public TranslationJobNotFoundException(String jobId) {
+    super(String.format("Translation job [%s] does not exist or has expired", jobId));
+    this.jobId = jobId;
+  }
+}
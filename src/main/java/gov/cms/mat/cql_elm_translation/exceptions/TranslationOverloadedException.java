@@ -0,0 +1,14 @@
+package gov.cms.mat.cql_elm_translation.exceptions;
+
+import lombok.Getter;
+
+/** Thrown when the service is too busy to admit another translation request. */
+@Getter
+public class TranslationOverloadedException extends RuntimeException {
+  private final long retryAfterSeconds;
+
+  public TranslationOverloadedException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+}
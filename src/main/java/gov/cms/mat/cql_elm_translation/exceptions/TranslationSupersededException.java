@@ -0,0 +1,19 @@
+package gov.cms.mat.cql_elm_translation.exceptions;
+
+import lombok.Getter;
+
+/** Thrown when a newer revision of the same document made a translation request obsolete. */
+@Getter
+public class TranslationSupersededException extends RuntimeException {
+  private final String documentId;
+  private final long revision;
+
+  public TranslationSupersededException(String endpoint, String documentId, long revision) {
+    super(
+        String.format(
+            "[%s] work for revision %d of document [%s] was superseded by a newer revision",
+            endpoint, revision, documentId));
+    this.documentId = documentId;
+    this.revision = revision;
+  }
+}
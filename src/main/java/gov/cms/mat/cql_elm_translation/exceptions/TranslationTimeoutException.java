@@ -0,0 +1,18 @@
+package gov.cms.mat.cql_elm_translation.exceptions;
+
+import lombok.Getter;
+
+/** Thrown when a translation request does not complete within its deadline. */
+@Getter
+public class TranslationTimeoutException extends RuntimeException {
+  private final String endpoint;
+  private final long deadlineMillis;
+
+  public TranslationTimeoutException(String endpoint, long deadlineMillis) {
+    super(
+        String.format(
+            "Translation for [%s] did not complete within %d ms", endpoint, deadlineMillis));
+    this.endpoint = endpoint;
+    this.deadlineMillis = deadlineMillis;
+  }
+}
@@ -0,0 +1,14 @@
+package gov.cms.mat.cql_elm_translation.exceptions;
+
+import lombok.Getter;
+
+/** Thrown when a translation workspace does not exist, was closed or has been evicted. */
+@Getter
+public class WorkspaceNotFoundException extends RuntimeException {
+  private final String workspaceId;
+
+  public WorkspaceNotFoundException(String workspaceId) {
+    super(String.format("Translation workspace [%s] is not open", workspaceId));
+    this.workspaceId = workspaceId;
+  }
+}
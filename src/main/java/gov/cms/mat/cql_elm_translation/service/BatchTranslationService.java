@@ -0,0 +1,280 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsage;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationItem;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationResult;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import gov.cms.mat.cql_elm_translation.service.support.CompiledIncludes;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Translates many libraries in one request for nightly jobs and translator upgrades. Items run on a
+ * pool of their own so a batch never takes the workers of interactive requests, each batch keeps at
+ * most the pool size in flight, and included libraries compiled for one item are reused by the rest
+ * of the batch. A failing item is reported on its own and does not stop the batch. Each batch holds
+ * one of a limited number of permits from the moment it is started until it ends, whether or not
+ * anybody is reading its results.
+ */
+@Slf4j
+@Service
+public class BatchTranslationService {
+
+  @Value("${madie.translation.batch.parallelism}")
+  private int parallelism;
+
+  @Value("${madie.translation.batch.max-concurrent-batches}")
+  private int maxConcurrentBatches;
+
+  @Getter
+  @Value("${madie.translation.batch.timeout-millis}")
+  private long timeoutMillis;
+
+  @Value("${madie.translation.admission.retry-after-seconds}")
+  private long retryAfterSeconds;
+
+  private final CqlConversionService cqlConversionService;
+  private final CqlLibraryService cqlLibraryService;
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private ExecutorService executor;
+  private ExecutorService coordinators;
+  private Semaphore batches;
+  private int effectiveParallelism;
+
+  public BatchTranslationService(
+      CqlConversionService cqlConversionService,
+      CqlLibraryService cqlLibraryService,
+      ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.cqlConversionService = cqlConversionService;
+    this.cqlLibraryService = cqlLibraryService;
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    // when not configured, leave half the cores to interactive requests
+    effectiveParallelism =
+        parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    AtomicInteger count = new AtomicInteger();
+    executor =
+        Executors.newFixedThreadPool(
+            effectiveParallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "translation-batch-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    AtomicInteger coordinatorCount = new AtomicInteger();
+    coordinators =
+        Executors.newFixedThreadPool(
+            maxConcurrentBatches,
+            runnable -> {
+              Thread thread =
+                  new Thread(
+                      runnable,
+                      "translation-batch-coordinator-" + coordinatorCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    batches = new Semaphore(maxConcurrentBatches);
+    log.info(
+        "Batch translation runs [{}] items in parallel, [{}] batches at once",
+        effectiveParallelism,
+        maxConcurrentBatches);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    coordinators.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Starts translating the items with the given options, handing each result to the sink as soon as
+   * it is ready, and fails fast when the maximum number of batches is already running. The batch
+   * holds its permit until it ends, which is reported to whenDone with null, the failure, or a
+   * {@link CancellationException} when it was cancelled through the returned future.
+   */
+  public Future<?> start(
+      List<BatchTranslationItem> items,
+      RequestData options,
+      String accessToken,
+      Consumer<BatchTranslationResult> sink,
+      Consumer<Throwable> whenDone) {
+    if (!batches.tryAcquire()) {
+      throw new TranslationOverloadedException(
+          "Too many batch translations are running", retryAfterSeconds);
+    }
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    ResourceUsage usage = ResourceUsage.current();
+    FutureTask<Void> batch =
+        new FutureTask<>(
+            () -> {
+              if (mdc != null) {
+                MDC.setContextMap(mdc);
+              }
+              try {
+                return ResourceUsage.measure(
+                    usage,
+                    () -> {
+                      translate(items, options, accessToken, sink, mdc, usage);
+                      return null;
+                    });
+              } finally {
+                MDC.clear();
+              }
+            }) {
+          @Override
+          protected void done() {
+            // runs exactly once, also when the batch is cancelled before it started
+            batches.release();
+            whenDone.accept(outcome(this));
+          }
+        };
+    try {
+      coordinators.execute(batch);
+    } catch (RejectedExecutionException e) {
+      batch.cancel(false);
+      throw e;
+    }
+    return batch;
+  }
+
+  private static Throwable outcome(Future<?> batch) {
+    try {
+      batch.get();
+      return null;
+    } catch (CancellationException e) {
+      return e;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return e;
+    }
+  }
+
+  private void translate(
+      List<BatchTranslationItem> items,
+      RequestData options,
+      String accessToken,
+      Consumer<BatchTranslationResult> sink,
+      Map<String, String> mdc,
+      ResourceUsage usage) {
+    Map<VersionedIdentifier, CompiledLibrary> sharedIncludes = new ConcurrentHashMap<>();
+    CompletionService<BatchTranslationResult> completionService =
+        new ExecutorCompletionService<>(executor);
+    List<Future<BatchTranslationResult>> futures = new ArrayList<>();
+    Iterator<BatchTranslationItem> pending = items.iterator();
+    int inFlight = 0;
+    try {
+      while (pending.hasNext() || inFlight > 0) {
+        while (pending.hasNext() && inFlight < effectiveParallelism) {
+          BatchTranslationItem item = pending.next();
+          futures.add(
+              completionService.submit(
+                  () ->
+                      ResourceUsage.measure(
+                          usage,
+                          () -> translateItem(item, options, accessToken, sharedIncludes, mdc))));
+          inFlight++;
+        }
+        BatchTranslationResult result = completionService.take().get();
+        inFlight--;
+        count(result.getStatus());
+        sink.accept(result);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Batch translation interrupted");
+    } catch (ExecutionException e) {
+      // translateItem reports its own failures, so this is not expected
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      // stops the rest of the batch when the client has gone away
+      futures.forEach(future -> future.cancel(true));
+    }
+  }
+
+  private BatchTranslationResult translateItem(
+      BatchTranslationItem item,
+      RequestData options,
+      String accessToken,
+      Map<VersionedIdentifier, CompiledLibrary> sharedIncludes,
+      Map<String, String> mdc) {
+    if (mdc != null) {
+      MDC.setContextMap(mdc);
+    }
+    long start = System.currentTimeMillis();
+    try {
+      CqlHeader cqlHeader = CqlHeader.parse(item.getCql());
+      RequestData requestData = options.toBuilder().cqlData(item.getCql()).build();
+      CqlTranslator cqlTranslator =
+          cqlConversionService.processCqlData(
+              requestData,
+              TranslationContext.of(cqlHeader, cqlLibraryService, accessToken),
+              Map.copyOf(sharedIncludes));
+      CqlConversionPayload payload =
+          cqlConversionService.toPayload(requestData, cqlHeader, cqlTranslator);
+      sharedIncludes.putAll(CompiledIncludes.of(cqlTranslator));
+      return BatchTranslationResult.builder()
+          .id(item.getId())
+          .status(BatchTranslationResult.Status.OK)
+          .json(payload.getJson())
+          .xml(payload.getXml())
+          .durationMillis(System.currentTimeMillis() - start)
+          .build();
+    } catch (RuntimeException e) {
+      log.warn("Batch item [{}] failed to translate", item.getId(), e);
+      return BatchTranslationResult.builder()
+          .id(item.getId())
+          .status(BatchTranslationResult.Status.ERROR)
+          .error(e.getMessage() == null ? e.getClass().getName() : e.getMessage())
+          .durationMillis(System.currentTimeMillis() - start)
+          .build();
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private void count(BatchTranslationResult.Status status) {
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            registry
+                .counter("translation.batch.items", "status", status.name().toLowerCase())
+                .increment());
+  }
+}
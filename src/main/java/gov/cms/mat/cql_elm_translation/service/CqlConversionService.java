@@ -1,9 +1,12 @@
 package gov.cms.mat.cql_elm_translation.service;
 
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
 import gov.cms.madie.models.dto.TranslatedLibrary;
 import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.fhir.rest.dto.MatCqlConversionException;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationCancellation;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStage;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStageEvents;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
 import gov.cms.madie.cql_elm_translator.utils.MadieCqlValidator;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.SimpleIncludeDef;
@@ -11,11 +14,13 @@ import gov.cms.madie.cql_elm_translator.exceptions.InternalServerException;
 import gov.cms.mat.cql_elm_translation.exceptions.MissingLibraryCqlCompilerException;
 import gov.cms.mat.cql_elm_translation.service.filters.AnnotationErrorFilter;
 import gov.cms.mat.cql_elm_translation.service.filters.CqlTranslatorExceptionFilter;
+import gov.cms.mat.cql_elm_translation.service.support.ContextLibrarySourceProvider;
 import gov.cms.mat.cql_elm_translation.service.support.CqlExceptionErrorProcessor;
+import gov.cms.mat.cql_elm_translation.service.support.ElmTreeShaker;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import net.minidev.json.JSONArray;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
@@ -31,8 +36,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 @Service
 @Slf4j
@@ -41,18 +45,41 @@ public class CqlConversionService extends CqlTooling {
 
   private static final String LOG_MESSAGE_TEMPLATE = "ErrorSeverity: %s, Message: %s";
 
+  /** Translates CQL that includes no other libraries. */
   public CqlConversionPayload processCqlDataWithErrors(RequestData requestData) {
+    return processCqlDataWithErrors(
+        requestData,
+        TranslationContext.withoutLibraries(CqlHeader.parse(requestData.getCqlData())));
+  }
+
+  public CqlConversionPayload processCqlDataWithErrors(
+      RequestData requestData, TranslationContext context) {
+    return toPayload(requestData, context.cqlHeader(), processCqlData(requestData, context));
+  }
+
+  /**
+   * Translates CQL and writes the ELM with only the definitions and functions reachable from the
+   * given ones, see {@link ElmTreeShaker}.
+   */
+  public CqlConversionPayload processCqlDataWithErrors(
+      RequestData requestData, TranslationContext context, Set<String> usedDefinitions) {
+    CqlTranslator cqlTranslator = processCqlData(requestData, context);
+    if (cqlTranslator.getTranslatedLibrary() != null) {
+      ElmTreeShaker.prune(cqlTranslator.getTranslatedLibrary().getLibrary(), usedDefinitions);
+    }
+    return toPayload(requestData, context.cqlHeader(), cqlTranslator);
+  }
+
+  /** Applies the library rules and error filtering to a translation and builds the response. */
+  public CqlConversionPayload toPayload(
+      RequestData requestData, CqlHeader cqlHeader, CqlTranslator cqlTranslator) {
     // verify the presence of ^using .*version '[0-9]\.[0-9]\.[0-9]'$ on the cql
-    Pattern pattern = Pattern.compile("using .*version '[0-9]\\.[0-9](\\.[0-9])?'");
-    Matcher matcher = pattern.matcher(requestData.getCqlData());
     boolean noModelVersion = false;
-    if (!matcher.find()) {
+    if (!cqlHeader.modelVersionDeclared()) {
       log.debug("cqlTranslatorException: Model and version don't exist");
       log.debug("cqlTranslatorException: \n{}", requestData.getCqlData());
       noModelVersion = true;
     }
-    // Gets the translator results
-    CqlTranslator cqlTranslator = processCqlData(requestData);
 
     // QI-Core measures require FHIRHelpers...enforce this validation only for
     // measure CQL
@@ -60,37 +87,56 @@ public class CqlConversionService extends CqlTooling {
 
     List<CqlCompilerException> cqlTranslatorExceptions =
         processErrors(
-            requestData.getCqlData(), requestData.isShowWarnings(), cqlTranslator.getExceptions());
-
+            requestData.getCqlData(),
+            cqlHeader,
+            requestData.isShowWarnings(),
+            cqlTranslator.getExceptions());
+
+    List<MatCqlConversionException> errorExceptions =
+        TranslationStageEvents.record(
+            TranslationStage.ERROR_FILTER,
+            cqlHeader,
+            requestData.getCqlData(),
+            () -> new CqlExceptionErrorProcessor(cqlTranslatorExceptions).buildErrorExceptions());
+    TranslationCancellation.checkpoint();
+
+    String elmJson =
+        TranslationStageEvents.record(
+            TranslationStage.ELM_SERIALIZATION,
+            cqlHeader,
+            requestData.getCqlData(),
+            cqlTranslator::toJson);
     AnnotationErrorFilter annotationErrorFilter =
         new AnnotationErrorFilter(
-            requestData.getCqlData(), requestData.isShowWarnings(), cqlTranslator.toJson());
-
-    String processedJson = annotationErrorFilter.filter();
+            requestData.getCqlData(), cqlHeader.library(), requestData.isShowWarnings(), elmJson);
 
     String jsonWithErrors =
-        new CqlExceptionErrorProcessor(cqlTranslatorExceptions, processedJson).process();
+        TranslationStageEvents.record(
+            TranslationStage.ANNOTATION_FILTER,
+            cqlHeader,
+            requestData.getCqlData(),
+            () -> annotationErrorFilter.filter(errorExceptions));
     if (noModelVersion) {
-      // Does jsonWithErrors contain "Model and version don't exist"
       // Looking for both the original error in cqlTranslatorException
-      // and the 'Model and version' error in jsonWithErrors
-
-      DocumentContext jsonContext = JsonPath.parse(jsonWithErrors);
-      try {
-        JSONArray errorFound =
-            jsonContext.read(
-                "$.errorExceptions[?(@.message==\"Model Type and version are required\")]");
-        if (errorFound.size() == 0) {
-          log.error(
-              "cqlTranslatorException: There was a problem finding Model and version, "
-                  + "but the error wasn't correctly reported by cqlTranslator?");
-          log.warn("Error list {}", cqlTranslatorExceptions);
-        }
-      } catch (Exception e) {
+      // and the 'Model and version' error in the errorExceptions
+      if (errorExceptions.isEmpty()) {
         log.info("Model missing, but likely an empty CQL file");
+      } else if (errorExceptions.stream()
+          .noneMatch(
+              e -> ContextLibrarySourceProvider.MODEL_VERSION_REQUIRED.equals(e.getMessage()))) {
+        log.error(
+            "cqlTranslatorException: There was a problem finding Model and version, "
+                + "but the error wasn't correctly reported by cqlTranslator?");
+        log.warn("Error list {}", cqlTranslatorExceptions);
       }
     }
-    return CqlConversionPayload.builder().json(jsonWithErrors).xml(cqlTranslator.toXml()).build();
+    String elmXml =
+        TranslationStageEvents.record(
+            TranslationStage.ELM_SERIALIZATION,
+            cqlHeader,
+            requestData.getCqlData(),
+            cqlTranslator::toXml);
+    return CqlConversionPayload.builder().json(jsonWithErrors).xml(elmXml).build();
   }
 
   /**
@@ -125,6 +171,11 @@ public class CqlConversionService extends CqlTooling {
     }
   }
 
+  /**
+   * The artifacts of one compiled library. For every library of a translation use {@link
+   * TranslatedLibraryService#buildTranslatedLibraries}, which serializes them in parallel and
+   * reuses the artifacts of included libraries.
+   */
   public TranslatedLibrary buildTranslatedLibrary(
       CompiledLibrary compiledLibrary, Map<String, String> cqlMap) {
     if (compiledLibrary == null) {
@@ -164,10 +215,19 @@ public class CqlConversionService extends CqlTooling {
   }
 
   private List<CqlCompilerException> processErrors(
-      String cqlData, boolean showWarnings, List<CqlCompilerException> cqlTranslatorExceptions) {
+      String cqlData,
+      CqlHeader cqlHeader,
+      boolean showWarnings,
+      List<CqlCompilerException> cqlTranslatorExceptions) {
     logErrors(cqlTranslatorExceptions);
-    return new CqlTranslatorExceptionFilter(cqlData, showWarnings, cqlTranslatorExceptions)
-        .filter();
+    return TranslationStageEvents.record(
+        TranslationStage.ERROR_FILTER,
+        cqlHeader,
+        cqlData,
+        () ->
+            new CqlTranslatorExceptionFilter(
+                    cqlData, cqlHeader.library(), showWarnings, cqlTranslatorExceptions)
+                .filter());
   }
 
   private void logErrors(List<CqlCompilerException> exceptions) {
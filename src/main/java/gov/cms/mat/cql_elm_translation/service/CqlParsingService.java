@@ -6,16 +6,30 @@ import gov.cms.madie.cql_elm_translator.utils.cql.parsing.model.CQLDefinition;
 import gov.cms.madie.cql_elm_translator.utils.cql.parsing.model.CQLParameter;
 import gov.cms.madie.cql_elm_translator.utils.cql.parsing.model.DefinitionContent;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.dto.CallstackGraph;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.Library;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 
 import static java.util.stream.Collectors.toSet;
 
@@ -25,6 +39,30 @@ import static java.util.stream.Collectors.toSet;
 public class CqlParsingService extends CqlTooling {
   private final CqlLibraryService cqlLibraryService;
 
+  @Value("${madie.translation.parsing.include-ttl-seconds}")
+  private long includeTtlSeconds;
+
+  @Value("${madie.translation.parsing.max-included-libraries}")
+  private int maxIncludedLibraries;
+
+  private record CachedInclude(ParsedInclude include, long parsedAtMillis) {}
+
+  /**
+   * Included libraries of earlier parses by library name and version, compiled and with their CQL,
+   * so the builder lookups and callstacks of a measure do not fetch and compile every library it
+   * includes on every call. A draft of an included library can change on the library service
+   * without a version change, so a library is parsed again once older than the include TTL, and the
+   * least recently used are dropped beyond the maximum.
+   */
+  private final Map<String, CachedInclude> parsedIncludeCache =
+      Collections.synchronizedMap(
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedInclude> eldest) {
+              return size() > maxIncludedLibraries;
+            }
+          });
+
   /**
    * Parses the CQL and collect all CQL building blocks irrespective of used or unused(including for
    * the CQL of the included Libraries)
@@ -39,17 +77,85 @@ public class CqlParsingService extends CqlTooling {
     }
     log.info("Preparing CqlBuilder Lookups");
     CQLTools cqlTools = parseCql(cql, accessToken, cqlLibraryService, null);
+    CqlBuilderLookup lookup =
+        buildLookups(cqlTools.getAllParameters(), cqlTools.getDefinitionContents());
+    log.info("Preparing CqlBuilder Lookup completed");
+    return lookup;
+  }
+
+  /**
+   * The cached libraries the CQL includes, each with everything it includes in turn. A library
+   * missing from the cache, or with something below it missing, is left to the parse.
+   */
+  @Override
+  protected Map<String, ParsedInclude> parsedIncludes(CqlHeader cqlHeader) {
+    Map<String, ParsedInclude> parsedIncludes = new HashMap<>();
+    String main =
+        cqlHeader.library() == null
+            ? null
+            : includeKey(cqlHeader.library().getName(), cqlHeader.library().getVersion());
+    for (CqlHeader.Include include : cqlHeader.includes()) {
+      Map<String, ParsedInclude> closure = new HashMap<>();
+      if (collect(includeKey(include.name(), include.version()), main, closure)) {
+        parsedIncludes.putAll(closure);
+      }
+    }
+    return parsedIncludes;
+  }
+
+  private boolean collect(String key, String main, Map<String, ParsedInclude> closure) {
+    if (closure.containsKey(key)) {
+      return true;
+    }
+    CachedInclude cached = key.equals(main) ? null : parsedIncludeCache.get(key);
+    if (cached == null || !fresh(cached)) {
+      return false;
+    }
+    closure.put(key, cached.include());
+    Library library = cached.include().library().getLibrary();
+    if (library.getIncludes() != null) {
+      for (IncludeDef includeDef : library.getIncludes().getDef()) {
+        if (!collect(includeKey(includeDef.getPath(), includeDef.getVersion()), main, closure)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Keeps the libraries parsed now, a cached one seeded into the parse keeps its age. */
+  @Override
+  protected void includesParsed(Map<String, ParsedInclude> includes) {
+    long now = System.currentTimeMillis();
+    includes.forEach(
+        (key, include) ->
+            parsedIncludeCache.compute(
+                key,
+                (ignored, cached) ->
+                    cached != null && cached.include().library() == include.library()
+                        ? cached
+                        : new CachedInclude(include, now)));
+  }
+
+  private boolean fresh(CachedInclude cached) {
+    return System.currentTimeMillis() - cached.parsedAtMillis() < includeTtlSeconds * 1000;
+  }
+
+  private CqlBuilderLookup buildLookups(
+      Collection<CQLParameter> cqlParameters, Collection<DefinitionContent> definitionContents) {
     // all parameters
     Set<CqlBuilderLookup.Lookup> parameters =
-        cqlTools.getAllParameters().stream().map(this::buildParameterLookup).collect(toSet());
+        cqlParameters.stream().map(this::buildParameterLookup).collect(toSet());
 
-    // get all CQLDefinitions including functions
-    Set<CQLDefinition> allCqlDefinitions = buildCqlDefinitions(cqlTools);
     // prepare lookups for definitions, functions and fluent functions from CQLDefinitions
     Set<CqlBuilderLookup.Lookup> definitions = new HashSet<>();
     Set<CqlBuilderLookup.Lookup> functions = new HashSet<>();
     Set<CqlBuilderLookup.Lookup> fluentFunctions = new HashSet<>();
-    for (CQLDefinition cqlDefinition : allCqlDefinitions) {
+    for (DefinitionContent definitionContent : definitionContents) {
+      CQLDefinition cqlDefinition = buildCqlDefinition(definitionContent);
+      if (cqlDefinition == null) {
+        continue;
+      }
       CqlBuilderLookup.Lookup lookup =
           buildCqlBuilderLookup(
               cqlDefinition.getName(),
@@ -66,7 +172,6 @@ public class CqlParsingService extends CqlTooling {
         definitions.add(lookup);
       }
     }
-    log.info("Preparing CqlBuilder Lookup completed");
     return CqlBuilderLookup.builder()
         .parameters(parameters)
         .definitions(definitions)
@@ -116,7 +221,94 @@ public class CqlParsingService extends CqlTooling {
    *     <p>Values: Set of CQL Definition Objects that are referenced in the Key CQL Definition.
    */
   public Map<String, Set<CQLDefinition>> getDefinitionCallstacks(String cql, String accessToken) {
+    return buildCallstacks(parseCql(cql, accessToken, cqlLibraryService, null));
+  }
+
+  /**
+   * The callstacks of {@link #getDefinitionCallstacks} as a graph that holds every definition once.
+   *
+   * @param cql CQL to parse.
+   * @param accessToken Application user's Okta Bearer token.
+   * @param reachability whether to add the definitions each definition reaches through its calls.
+   * @return graph of the CQL Definitions that call or are called by at least 1 other CQL Definition
+   *     and/or Function.
+   */
+  public CallstackGraph getDefinitionCallstackGraph(
+      String cql, String accessToken, boolean reachability) {
     CQLTools cqlTools = parseCql(cql, accessToken, cqlLibraryService, null);
+    Map<String, CQLDefinition> definitions = new HashMap<>();
+    for (DefinitionContent definitionContent : cqlTools.getDefinitionContents()) {
+      CQLDefinition definition = buildCqlDefinition(definitionContent);
+      if (definition != null) {
+        definitions.putIfAbsent(definition.getId(), definition);
+      }
+    }
+    return buildCallstackGraph(buildCallstacks(cqlTools), definitions, reachability);
+  }
+
+  static CallstackGraph buildCallstackGraph(
+      Map<String, Set<CQLDefinition>> callstacks,
+      Map<String, CQLDefinition> definitions,
+      boolean reachability) {
+    // callers first, then the definitions only ever called, each in name order
+    Map<String, Integer> indices = new LinkedHashMap<>();
+    new TreeSet<>(callstacks.keySet()).forEach(id -> indices.putIfAbsent(id, indices.size()));
+    callstacks.values().stream()
+        .flatMap(Set::stream)
+        .map(CQLDefinition::getId)
+        .sorted()
+        .forEach(id -> indices.putIfAbsent(id, indices.size()));
+
+    List<CallstackGraph.Node> nodes = new ArrayList<>(indices.size());
+    List<List<Integer>> calls = new ArrayList<>(indices.size());
+    for (String id : indices.keySet()) {
+      nodes.add(buildNode(id, definitions.get(id)));
+      calls.add(
+          callstacks.getOrDefault(id, Set.of()).stream()
+              .map(called -> indices.get(called.getId()))
+              .sorted()
+              .toList());
+    }
+    return CallstackGraph.builder()
+        .nodes(nodes)
+        .calls(calls)
+        .reachable(reachability ? reachable(calls) : null)
+        .build();
+  }
+
+  private static CallstackGraph.Node buildNode(String id, CQLDefinition definition) {
+    if (definition == null) {
+      return CallstackGraph.Node.builder().id(id).name(id).build();
+    }
+    return CallstackGraph.Node.builder()
+        .id(id)
+        .name(definition.getName())
+        .library(definition.getParentLibrary())
+        .libraryVersion(definition.getLibraryVersion())
+        .libraryAlias(definition.getLibraryDisplayName())
+        .function(definition.isFunction())
+        .logic(definition.getLogic())
+        .build();
+  }
+
+  private static List<List<Integer>> reachable(List<List<Integer>> calls) {
+    List<List<Integer>> reachable = new ArrayList<>(calls.size());
+    for (int node = 0; node < calls.size(); node++) {
+      BitSet seen = new BitSet(calls.size());
+      Deque<Integer> pending = new ArrayDeque<>(calls.get(node));
+      while (!pending.isEmpty()) {
+        int next = pending.pop();
+        if (!seen.get(next)) {
+          seen.set(next);
+          pending.addAll(calls.get(next));
+        }
+      }
+      reachable.add(seen.stream().boxed().toList());
+    }
+    return reachable;
+  }
+
+  private Map<String, Set<CQLDefinition>> buildCallstacks(CQLTools cqlTools) {
     Map<String, Set<String>> nodeGraph = cqlTools.getCallstack();
     Set<String> keys = nodeGraph.keySet();
     Set<CQLDefinition> cqlDefinitions =
@@ -154,10 +346,6 @@ public class CqlParsingService extends CqlTooling {
     return callstack;
   }
 
-  private Set<CQLDefinition> buildCqlDefinitions(CQLTools cqlTools) {
-    return cqlTools.getDefinitionContents().stream().map(this::buildCqlDefinition).collect(toSet());
-  }
-
   private CQLDefinition buildCqlDefinition(DefinitionContent definitionContent) {
     // Graph includes retrieves, functions, and included library references.
     // Filter out any node that does not have CQL Definition text content.
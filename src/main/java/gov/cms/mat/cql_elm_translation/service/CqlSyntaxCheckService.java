@@ -0,0 +1,138 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.service.support.CqlExceptionErrorProcessor;
+import gov.cms.mat.fhir.rest.dto.MatCqlConversionException;
+import lombok.extern.slf4j.Slf4j;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.apache.commons.lang3.StringUtils;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlSyntaxException;
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.cqframework.cql.gen.cqlLexer;
+import org.cqframework.cql.gen.cqlParser;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Syntax-only check of CQL text. Runs the CQL lexer and parser and nothing else, so no models are
+ * resolved and no included libraries are fetched. Errors are reported the way the translator
+ * reports syntax errors, one CqlSyntaxException per error with the position of the offending token.
+ */
+@Slf4j
+@Service
+public class CqlSyntaxCheckService {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  public CqlConversionPayload checkSyntax(String cql) {
+    List<MatCqlConversionException> errorExceptions =
+        new CqlExceptionErrorProcessor(findSyntaxErrors(cql)).buildErrorExceptions();
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("errorExceptions", errorExceptions);
+    try {
+      return CqlConversionPayload.builder().json(mapper.writeValueAsString(body)).build();
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Could not write syntax errors", e);
+    }
+  }
+
+  public List<CqlCompilerException> findSyntaxErrors(String cql) {
+    String text = StringUtils.defaultString(cql);
+    // SLL prediction is much faster and good enough for valid CQL, only on a failure is the text
+    // parsed again in full LL mode to get the same errors the translator reports
+    cqlParser parser = newParser(text);
+    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+    parser.setErrorHandler(new BailErrorStrategy());
+    try {
+      parser.library();
+      return List.of();
+    } catch (ParseCancellationException e) {
+      log.debug("SLL parse failed, retrying with LL");
+    }
+
+    SyntaxErrorListener errorListener = new SyntaxErrorListener();
+    parser = newParser(text);
+    parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+    parser.setErrorHandler(new DefaultErrorStrategy());
+    parser.addErrorListener(errorListener);
+    cqlParser.LibraryContext library = parser.library();
+    return errorListener.toExceptions(libraryIdentifier(library));
+  }
+
+  private cqlParser newParser(String cql) {
+    cqlLexer lexer = new cqlLexer(CharStreams.fromString(cql));
+    lexer.removeErrorListeners();
+    cqlParser parser = new cqlParser(new CommonTokenStream(lexer));
+    parser.removeErrorListeners();
+    return parser;
+  }
+
+  private VersionedIdentifier libraryIdentifier(cqlParser.LibraryContext library) {
+    VersionedIdentifier identifier = new VersionedIdentifier();
+    cqlParser.LibraryDefinitionContext definition =
+        library == null ? null : library.libraryDefinition();
+    if (definition != null) {
+      if (definition.qualifiedIdentifier() != null) {
+        identifier.setId(unquote(definition.qualifiedIdentifier().getText()));
+      }
+      if (definition.versionSpecifier() != null) {
+        identifier.setVersion(unquote(definition.versionSpecifier().getText()));
+      }
+    }
+    return identifier;
+  }
+
+  private static String unquote(String text) {
+    return StringUtils.strip(text, "\"'`");
+  }
+
+  private static class SyntaxErrorListener extends BaseErrorListener {
+    private record SyntaxError(String message, int line, int charPositionInLine) {}
+
+    private final List<SyntaxError> errors = new ArrayList<>();
+
+    @Override
+    public void syntaxError(
+        Recognizer<?, ?> recognizer,
+        Object offendingSymbol,
+        int line,
+        int charPositionInLine,
+        String msg,
+        RecognitionException e) {
+      errors.add(new SyntaxError(msg, line, charPositionInLine));
+    }
+
+    List<CqlCompilerException> toExceptions(VersionedIdentifier libraryIdentifier) {
+      List<CqlCompilerException> exceptions = new ArrayList<>();
+      for (SyntaxError error : errors) {
+        TrackBack trackBack =
+            new TrackBack(
+                libraryIdentifier,
+                error.line(),
+                error.charPositionInLine(),
+                error.line(),
+                error.charPositionInLine());
+        exceptions.add(
+            new CqlSyntaxException(
+                error.message(), CqlCompilerException.ErrorSeverity.Error, trackBack));
+      }
+      return exceptions;
+    }
+  }
+}
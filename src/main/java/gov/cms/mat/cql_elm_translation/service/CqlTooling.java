@@ -1,8 +1,12 @@
 package gov.cms.mat.cql_elm_translation.service;
 
-import gov.cms.mat.cql.CqlTextParser;
-import gov.cms.mat.cql.elements.UsingProperties;
-import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.MadieLibrarySourceProvider;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationCancellation;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStage;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStageEvents;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.CompiledIncludes;
+import gov.cms.mat.cql_elm_translation.service.support.IncludeGraphCompiler;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
 import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.TranslationResource;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
@@ -15,7 +19,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.cqframework.cql.cql2elm.CqlTranslator;
 import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.cqframework.cql.cql2elm.LibrarySourceProvider;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -26,13 +32,41 @@ import java.util.Set;
 @RequiredArgsConstructor
 @Slf4j
 public abstract class CqlTooling {
+
+  /** An included library as a parse needs it: compiled, and its CQL for the CQL tools. */
+  protected record ParsedInclude(CompiledLibrary library, String cql) {}
+
+  /**
+   * Included libraries parsed before that a parse of CQL with the header can start from, by {@link
+   * #includeKey}. The translation is seeded with them instead of fetching and compiling them again,
+   * so each has to come with every library it includes, directly or not. None by default.
+   */
+  protected Map<String, ParsedInclude> parsedIncludes(CqlHeader cqlHeader) {
+    return Map.of();
+  }
+
+  /** The included libraries of a parse, compiled without errors, to keep for later parses. */
+  protected void includesParsed(Map<String, ParsedInclude> includes) {}
+
+  protected static String includeKey(String name, String version) {
+    return name + "-" + version;
+  }
+
   protected CQLTools parseCql(
       String cql,
       String accessToken,
       CqlLibraryService cqlLibraryService,
       Set<String> parentExpressions) {
+    TranslationContext context =
+        TranslationContext.of(CqlHeader.parse(cql), cqlLibraryService, accessToken);
+    Map<String, ParsedInclude> parsedIncludes = parsedIncludes(context.cqlHeader());
+    Map<VersionedIdentifier, CompiledLibrary> compiledIncludes = new HashMap<>();
+    parsedIncludes
+        .values()
+        .forEach(
+            include -> compiledIncludes.put(include.library().getIdentifier(), include.library()));
     // Run Translator to compile libraries
-    CqlTranslator cqlTranslator = runTranslator(cql, accessToken, cqlLibraryService);
+    CqlTranslator cqlTranslator = runTranslator(cql, context, compiledIncludes);
     Map<String, CompiledLibrary> translatedLibraries = new HashMap<>();
     cqlTranslator
         .getTranslatedLibraries()
@@ -45,29 +79,56 @@ public abstract class CqlTooling {
       topLevelExpressions = parentExpressions;
     }
 
+    Map<String, String> includedLibrariesCql =
+        getIncludedLibrariesCql(context.librarySourceProvider(), cqlTranslator, parsedIncludes);
     CQLTools cqlTools =
         new CQLTools(
-            cql,
-            getIncludedLibrariesCql(new MadieLibrarySourceProvider(), cqlTranslator),
-            topLevelExpressions,
-            cqlTranslator,
-            translatedLibraries);
-
-    try {
-      cqlTools.generate();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+            cql, includedLibrariesCql, topLevelExpressions, cqlTranslator, translatedLibraries);
+
+    TranslationCancellation.checkpoint();
+    TranslationStageEvents.record(
+        TranslationStage.CQL_TOOLS_GENERATE,
+        context.cqlHeader(),
+        cql,
+        () -> {
+          try {
+            cqlTools.generate();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          return cqlTools;
+        });
+
+    Map<String, ParsedInclude> parsed = new HashMap<>();
+    CompiledIncludes.of(cqlTranslator)
+        .forEach(
+            (identifier, library) -> {
+              String key = includeKey(identifier.getId(), identifier.getVersion());
+              if (includedLibrariesCql.containsKey(key)) {
+                parsed.put(key, new ParsedInclude(library, includedLibrariesCql.get(key)));
+              }
+            });
+    includesParsed(parsed);
     return cqlTools;
   }
 
+  /** The CQL of every library of the translation, the included libraries parsed before excepted. */
   protected Map<String, String> getIncludedLibrariesCql(
-      MadieLibrarySourceProvider librarySourceProvider, CqlTranslator cqlTranslator) {
+      LibrarySourceProvider librarySourceProvider,
+      CqlTranslator cqlTranslator,
+      Map<String, ParsedInclude> parsedIncludes) {
     Map<String, String> includedLibrariesCql = new HashMap<>();
     for (CompiledLibrary l : cqlTranslator.getTranslatedLibraries().values()) {
+      TranslationCancellation.checkpoint();
+      String key = includeKey(l.getIdentifier().getId(), l.getIdentifier().getVersion());
+      ParsedInclude parsed = parsedIncludes.get(key);
+      if (parsed != null && parsed.library() == l) {
+        includedLibrariesCql.putIfAbsent(key, parsed.cql());
+        continue;
+      }
       try {
         includedLibrariesCql.putIfAbsent(
-            l.getIdentifier().getId() + "-" + l.getIdentifier().getVersion(),
+            key,
             new String(
                 librarySourceProvider
                     .getLibrarySource(l.getLibrary().getIdentifier())
@@ -81,8 +142,9 @@ public abstract class CqlTooling {
   }
 
   protected CqlTranslator runTranslator(
-      String cql, String accessToken, CqlLibraryService cqlLibraryService) {
-    cqlLibraryService.setUpLibrarySourceProvider(cql, accessToken);
+      String cql,
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes) {
     RequestData requestData =
         RequestData.builder()
             .cqlData(cql)
@@ -97,17 +159,52 @@ public abstract class CqlTooling {
             .resultTypes(true)
             .build();
 
-    return processCqlData(requestData);
+    return processCqlData(requestData, context, compiledIncludes);
   }
 
+  /** Translates CQL that includes no other libraries. */
   protected CqlTranslator processCqlData(RequestData requestData) {
-    CqlTextParser cqlTextParser = new CqlTextParser(requestData.getCqlData());
-    UsingProperties usingProperties = cqlTextParser.getUsing();
-    return TranslationResource.getInstance(
-            usingProperties != null
-                && ("FHIR".equals(usingProperties.getLibraryType())
-                    || "QICore".equals(usingProperties.getLibraryType())))
-        .buildTranslator(requestData);
+    return processCqlData(
+        requestData,
+        TranslationContext.withoutLibraries(CqlHeader.parse(requestData.getCqlData())));
+  }
+
+  protected CqlTranslator processCqlData(RequestData requestData, TranslationContext context) {
+    return processCqlData(requestData, context, Map.of());
+  }
+
+  /**
+   * Translates with already compiled included libraries seeded into the library manager, the
+   * manager returns them from its cache instead of fetching and compiling them again. Included
+   * libraries not compiled yet are compiled ahead of the translation by {@link
+   * IncludeGraphCompiler}, independent ones at the same time.
+   */
+  public CqlTranslator processCqlData(
+      RequestData requestData,
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes) {
+    TranslationCancellation.checkpoint();
+    if (!IncludeGraphCompiler.applies(context)) {
+      return compile(requestData, context, compiledIncludes);
+    }
+    TranslationContext fetchingOnce = context.fetchingOnce();
+    Map<VersionedIdentifier, CompiledLibrary> includes =
+        IncludeGraphCompiler.compile(
+            fetchingOnce,
+            compiledIncludes,
+            (cql, includeContext, seeds) ->
+                compile(requestData.toBuilder().cqlData(cql).build(), includeContext, seeds));
+    return compile(requestData, fetchingOnce, includes);
+  }
+
+  private CqlTranslator compile(
+      RequestData requestData,
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes) {
+    return context.compile(
+        TranslationResource.getInstance(context.cqlHeader().isFhir()),
+        requestData,
+        compiledIncludes);
   }
 
   private Set<String> getParentExpressions(String cql) {
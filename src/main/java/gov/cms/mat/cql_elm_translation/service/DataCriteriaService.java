@@ -80,53 +80,44 @@ public class DataCriteriaService extends CqlTooling {
     return relevantSet;
   }
 
-  private Set<String> getUsedDefinitionsFromMeasure(Measure measure) {
-    if (measure == null || org.springframework.util.CollectionUtils.isEmpty(measure.getGroups())) {
-      return Set.of();
-    }
+  /**
+   * The definitions a measure names in its populations, observations, stratifications, supplemental
+   * data and risk adjustments.
+   */
+  public Set<String> getUsedDefinitionsFromMeasure(Measure measure) {
     Set<String> usedDefinitions = new HashSet<>();
-    measure
-        .getGroups()
+    if (measure == null) {
+      return usedDefinitions;
+    }
+    // a measure being drafted may have no groups yet, or populations without a definition
+    CollectionUtils.emptyIfNull(measure.getGroups())
         .forEach(
             group -> {
-              group
-                  .getPopulations()
+              CollectionUtils.emptyIfNull(group.getPopulations())
+                  .forEach(
+                      population -> addDefinition(usedDefinitions, population.getDefinition()));
+              CollectionUtils.emptyIfNull(group.getMeasureObservations())
                   .forEach(
-                      population -> {
-                        if (!population.getDefinition().isEmpty()) {
-                          usedDefinitions.add(population.getDefinition());
-                        }
-                      });
-              if (!CollectionUtils.isEmpty(group.getMeasureObservations())) {
-                group
-                    .getMeasureObservations()
-                    .forEach(
-                        measureObservation -> {
-                          if (!measureObservation.getDefinition().isEmpty()) {
-                            usedDefinitions.add(measureObservation.getDefinition());
-                          }
-                        });
-              }
-              if (!CollectionUtils.isEmpty(group.getStratifications())) {
-                group
-                    .getStratifications()
-                    .forEach(
-                        stratification -> {
-                          if (!stratification.getCqlDefinition().isEmpty()) {
-                            usedDefinitions.add(stratification.getCqlDefinition());
-                          }
-                        });
-              }
+                      measureObservation ->
+                          addDefinition(usedDefinitions, measureObservation.getDefinition()));
+              CollectionUtils.emptyIfNull(group.getStratifications())
+                  .forEach(
+                      stratification ->
+                          addDefinition(usedDefinitions, stratification.getCqlDefinition()));
             });
-    measure
-        .getSupplementalData()
-        .forEach(defDescPair -> usedDefinitions.add(defDescPair.getDefinition()));
-    measure
-        .getRiskAdjustments()
-        .forEach(defDescPair -> usedDefinitions.add(defDescPair.getDefinition()));
+    CollectionUtils.emptyIfNull(measure.getSupplementalData())
+        .forEach(defDescPair -> addDefinition(usedDefinitions, defDescPair.getDefinition()));
+    CollectionUtils.emptyIfNull(measure.getRiskAdjustments())
+        .forEach(defDescPair -> addDefinition(usedDefinitions, defDescPair.getDefinition()));
     return usedDefinitions;
   }
 
+  private static void addDefinition(Set<String> usedDefinitions, String definition) {
+    if (StringUtils.isNotBlank(definition)) {
+      usedDefinitions.add(definition);
+    }
+  }
+
   public List<SourceDataCriteria> getSourceDataCriteria(CQLTools cqlTools) {
     DataCriteria dataCriteria = cqlTools.getDataCriteria();
     Map<CQLValueSet, Set<String>> criteriaWithValueSet =
@@ -3,6 +3,10 @@ package gov.cms.mat.cql_elm_translation.service;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
 import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStage;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStageEvents;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
 import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.TranslationResource;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
 import lombok.RequiredArgsConstructor;
@@ -14,6 +18,8 @@ import org.cqframework.cql.cql2elm.LibraryManager;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
 import org.cqframework.cql.elm.requirements.fhir.DataRequirementsProcessor;
 import org.springframework.stereotype.Service;
+
+import java.util.Map;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
 
 @Slf4j
@@ -40,18 +46,19 @@ public class EffectiveDataRequirementService {
   /**
    * @param libraryDetails - instance of CqlLibraryDetails
    * @param recursive- indicates if the data requirements gathered should be recursive
-   * @param accessToken- used by MadieLibrarySourceProvider to make calls to cql-library-services
+   * @param accessToken- used to fetch included libraries from cql-library-services
    * @return effective data requirement of type R5 library
    */
   public org.hl7.fhir.r5.model.Library getEffectiveDataRequirements(
       CqlLibraryDetails libraryDetails, boolean recursive, String accessToken) {
 
-    // setting up the librarySourceProvider to fetch included libraries
-    cqlLibraryService.setUpLibrarySourceProvider(libraryDetails.getCql(), accessToken);
-
+    CqlHeader cqlHeader = CqlHeader.parse(libraryDetails.getCql());
     var translationResource = TranslationResource.getInstance(true);
-    RequestData requestData = createDefaultRequestData(libraryDetails.getCql());
-    CqlTranslator cqlTranslator = translationResource.buildTranslator(requestData);
+    // the context fetches included libraries from cql-library-services
+    CqlTranslator cqlTranslator =
+        TranslationContext.of(cqlHeader, cqlLibraryService, accessToken)
+            .compile(
+                translationResource, createDefaultRequestData(libraryDetails.getCql()), Map.of());
     CompiledLibrary translatedLibrary = cqlTranslator.getTranslatedLibrary();
     LibraryManager libraryManager = translationResource.getLibraryManager();
 
@@ -65,20 +72,30 @@ public class EffectiveDataRequirementService {
     options.setSignatureLevel(LibraryBuilder.SignatureLevel.Overloads);
 
     org.hl7.fhir.r5.model.Library effectiveDataRequirements =
-        dqReqTrans.gatherDataRequirements(
-            libraryManager,
-            translatedLibrary,
-            options,
-            libraryDetails.getExpressions(),
-            true,
-            recursive);
+        TranslationStageEvents.record(
+            TranslationStage.DATA_REQUIREMENTS,
+            cqlHeader,
+            libraryDetails.getCql(),
+            () ->
+                dqReqTrans.gatherDataRequirements(
+                    libraryManager,
+                    translatedLibrary,
+                    options,
+                    libraryDetails.getExpressions(),
+                    true,
+                    recursive));
 
     effectiveDataRequirements.setId("effective-data-requirements");
     return effectiveDataRequirements;
   }
 
   public String getEffectiveDataRequirementsStr(org.hl7.fhir.r5.model.Library r5Library) {
-    return getR5Parser().setPrettyPrint(true).encodeResourceToString(r5Library);
+    return TranslationStageEvents.record(
+        TranslationStage.FHIR_SERIALIZATION,
+        r5Library.getName(),
+        r5Library.getVersion(),
+        0,
+        () -> getR5Parser().setPrettyPrint(true).encodeResourceToString(r5Library));
   }
 
   protected IParser getR5Parser() {
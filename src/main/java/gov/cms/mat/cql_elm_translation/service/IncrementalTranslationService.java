@@ -0,0 +1,254 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.CompiledIncludes;
+import gov.cms.mat.cql_elm_translation.service.support.ElmCanonicalizer;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Translation for editor sessions that send the same document over and over. The last translation
+ * of each document is kept, and a new revision reuses as much of it as the compiler allows: an
+ * unchanged text returns the previous result, and an unchanged using and include block reuses the
+ * compiled included libraries so only the edited library itself is compiled again. Documents are
+ * kept per caller, and within a memory budget as well as a count.
+ *
+ * <p>The compiler numbers elements and records locators across the whole library, so a library is
+ * always compiled as a unit; reusing single definitions would not give the ELM a full translation
+ * gives.
+ */
+@Slf4j
+@Service
+public class IncrementalTranslationService {
+
+  enum Outcome {
+    UNCHANGED("unchanged"),
+    INCLUDES_REUSED("includes-reused"),
+    FULL("full");
+
+    private final String tag;
+
+    Outcome(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  record DocumentState(
+      String cql,
+      String optionsKey,
+      String includeKey,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes,
+      long includesCompiledAt,
+      String json,
+      String xml) {
+
+    /**
+     * Rough size of what the state holds. Strings are counted at two bytes a character, compiled
+     * libraries at a configured average since their object graph cannot be measured cheaply.
+     */
+    long estimatedBytes(long compiledIncludeBytes) {
+      long chars = length(cql) + length(json) + length(xml) + optionsKey.length();
+      return 2 * chars + compiledIncludes.size() * compiledIncludeBytes;
+    }
+
+    private static long length(String value) {
+      return value == null ? 0 : value.length();
+    }
+  }
+
+  /** Document ids come from clients, so the same id sent by two callers is two documents. */
+  record DocumentKey(String caller, String documentId) {}
+
+  @Value("${madie.translation.incremental.max-documents}")
+  private int maxDocuments;
+
+  @Value("${madie.translation.incremental.include-ttl-seconds}")
+  private long includeTtlSeconds;
+
+  @Value("${madie.translation.incremental.memory-budget-bytes}")
+  private long memoryBudgetBytes;
+
+  @Value("${madie.translation.workspace.compiled-include-bytes}")
+  private long compiledIncludeBytes;
+
+  private final CqlConversionService cqlConversionService;
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private Map<DocumentKey, DocumentState> documents;
+  private long effectiveBudgetBytes;
+
+  public IncrementalTranslationService(
+      CqlConversionService cqlConversionService,
+      ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.cqlConversionService = cqlConversionService;
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    // when not configured, allow the documents a sixteenth of the heap
+    effectiveBudgetBytes =
+        memoryBudgetBytes > 0 ? memoryBudgetBytes : Runtime.getRuntime().maxMemory() / 16;
+    documents =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<DocumentKey, DocumentState> eldest) {
+                return size() > maxDocuments;
+              }
+            });
+  }
+
+  record Translation(CqlConversionPayload payload, DocumentState state) {}
+
+  public CqlConversionPayload translate(
+      String caller, String documentId, RequestData requestData, TranslationContext context) {
+    DocumentKey key = new DocumentKey(caller, documentId);
+    Translation translation =
+        translate(documents.get(key), requestData, context, includeTtlSeconds);
+    synchronized (documents) {
+      documents.put(key, translation.state());
+      enforceBudget(key);
+    }
+    return translation.payload();
+  }
+
+  /**
+   * Translates a revision against the state left by the previous one, which may be null. Compiled
+   * includes of the previous state are reused until they are older than the given TTL.
+   */
+  Translation translate(
+      DocumentState previous,
+      RequestData requestData,
+      TranslationContext context,
+      long includeTtlSeconds) {
+    CqlHeader cqlHeader = context.cqlHeader();
+    String optionsKey = optionsKey(requestData);
+    String includeKey = includeKey(cqlHeader, optionsKey);
+
+    if (previous != null
+        && previous.optionsKey().equals(optionsKey)
+        && previous.cql().equals(requestData.getCqlData())
+        // an unchanged text still picks up changed drafts of what it includes
+        && (cqlHeader.includes().isEmpty() || includesFresh(previous, includeTtlSeconds))) {
+      count(Outcome.UNCHANGED);
+      return new Translation(
+          CqlConversionPayload.builder().json(previous.json()).xml(previous.xml()).build(),
+          previous);
+    }
+
+    Map<VersionedIdentifier, CompiledLibrary> reusable = Map.of();
+    long includesCompiledAt = System.currentTimeMillis();
+    if (previous != null && canReuseIncludes(previous, includeKey, includeTtlSeconds)) {
+      reusable = previous.compiledIncludes();
+      includesCompiledAt = previous.includesCompiledAt();
+    }
+    count(reusable.isEmpty() ? Outcome.FULL : Outcome.INCLUDES_REUSED);
+
+    CqlTranslator cqlTranslator =
+        cqlConversionService.processCqlData(requestData, context, reusable);
+    CqlConversionPayload payload =
+        cqlConversionService.toPayload(requestData, cqlHeader, cqlTranslator);
+
+    return new Translation(
+        payload,
+        new DocumentState(
+            requestData.getCqlData(),
+            optionsKey,
+            includeKey,
+            // the includes are held until the document is evicted
+            ElmCanonicalizer.canonicalize(CompiledIncludes.of(cqlTranslator)),
+            includesCompiledAt,
+            payload.getJson(),
+            payload.getXml()));
+  }
+
+  public void forget(String caller, String documentId) {
+    documents.remove(new DocumentKey(caller, documentId));
+  }
+
+  int documentCount() {
+    return documents.size();
+  }
+
+  long estimatedBytes() {
+    synchronized (documents) {
+      return documents.values().stream()
+          .mapToLong(state -> state.estimatedBytes(compiledIncludeBytes))
+          .sum();
+    }
+  }
+
+  /** Drops the least recently used documents, never the one just translated, until they fit. */
+  private void enforceBudget(DocumentKey current) {
+    Iterator<DocumentKey> eldest = documents.keySet().iterator();
+    while (estimatedBytes() > effectiveBudgetBytes && eldest.hasNext()) {
+      DocumentKey key = eldest.next();
+      if (!key.equals(current)) {
+        eldest.remove();
+        log.debug("Dropped incremental translation state of [{}] over the memory budget", key);
+      }
+    }
+  }
+
+  private boolean canReuseIncludes(
+      DocumentState previous, String includeKey, long includeTtlSeconds) {
+    return previous.includeKey().equals(includeKey)
+        && !previous.compiledIncludes().isEmpty()
+        && includesFresh(previous, includeTtlSeconds);
+  }
+
+  private boolean includesFresh(DocumentState previous, long includeTtlSeconds) {
+    // included drafts can change on the library service without a version change
+    return System.currentTimeMillis() - previous.includesCompiledAt() < includeTtlSeconds * 1000;
+  }
+
+  private static String optionsKey(RequestData requestData) {
+    return String.join(
+        ",",
+        String.valueOf(requestData.getSignatures()),
+        String.valueOf(requestData.isShowWarnings()),
+        String.valueOf(requestData.isAnnotations()),
+        String.valueOf(requestData.isLocators()),
+        String.valueOf(requestData.isDisableListDemotion()),
+        String.valueOf(requestData.isDisableListPromotion()),
+        String.valueOf(requestData.isDisableMethodInvocation()),
+        String.valueOf(requestData.isValidateUnits()),
+        String.valueOf(requestData.isResultTypes()));
+  }
+
+  private static String includeKey(CqlHeader cqlHeader, String optionsKey) {
+    String using =
+        cqlHeader.using() == null
+            ? ""
+            : cqlHeader.using().getLibraryType() + ":" + cqlHeader.using().getVersion();
+    String includes =
+        cqlHeader.includes().stream()
+            .map(include -> include.name() + ":" + include.version())
+            .sorted()
+            .collect(Collectors.joining(","));
+    return using + "|" + includes + "|" + optionsKey;
+  }
+
+  private void count(Outcome outcome) {
+    log.debug("Incremental translation [{}]", outcome.tag);
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            registry.counter("translation.incremental", "outcome", outcome.tag).increment());
+  }
+}
@@ -0,0 +1,255 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.madie.models.dto.TranslatedLibrary;
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsage;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.cql_annotations.r1.CqlToElmInfo;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Builds the {@link TranslatedLibrary} artifacts of a translation's whole library tree in one call.
+ * Libraries are serialized in parallel, and the artifacts of included libraries are kept by name,
+ * version and translator options, so a library shared by many measures is serialized once on a
+ * node. The main library is always serialized again, its CQL is the one being edited, and an
+ * included draft can change without a version change, so included artifacts are serialized again
+ * once older than the include TTL.
+ */
+@Slf4j
+@Service
+public class TranslatedLibraryService {
+
+  @Value("${madie.translation.artifacts.parallelism}")
+  private int parallelism;
+
+  @Value("${madie.translation.artifacts.max-cached-libraries}")
+  private int maxCachedLibraries;
+
+  @Value("${madie.translation.incremental.include-ttl-seconds}")
+  private long includeTtlSeconds;
+
+  private final CqlConversionService cqlConversionService;
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private ThreadPoolExecutor executor;
+  private Map<String, CachedArtifact> includedArtifacts;
+
+  private record CachedArtifact(
+      CompletableFuture<TranslatedLibrary> artifact, long builtAtMillis) {}
+
+  public TranslatedLibraryService(
+      CqlConversionService cqlConversionService,
+      ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.cqlConversionService = cqlConversionService;
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    // when not configured, serialize on every core
+    int effectiveParallelism =
+        parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    AtomicInteger count = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            effectiveParallelism,
+            effectiveParallelism,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "translation-artifacts-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    // threads are started by the first requests and stop again once idle
+    executor.allowCoreThreadTimeOut(true);
+    includedArtifacts =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, CachedArtifact> eldest) {
+                return size() > maxCachedLibraries;
+              }
+            });
+    log.info(
+        "Translated library artifacts built [{}] at a time, [{}] included libraries kept",
+        effectiveParallelism,
+        maxCachedLibraries);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Translates the CQL and builds the artifacts of its whole library tree, the main library first.
+   * CQL that does not translate without errors has no artifacts.
+   */
+  public List<TranslatedLibrary> translateLibraries(
+      RequestData requestData, TranslationContext context) {
+    // included libraries are fetched once, for the translation and for their CQL
+    TranslationContext fetchingOnce = context.fetchingOnce();
+    CqlTranslator cqlTranslator =
+        cqlConversionService.processCqlData(requestData, fetchingOnce, Map.of());
+    if (cqlTranslator.getTranslatedLibrary() == null
+        || cqlTranslator.getExceptions().stream()
+            .anyMatch(e -> e.getSeverity() == CqlCompilerException.ErrorSeverity.Error)) {
+      throw new CqlFormatException("Invalid cql provided for library");
+    }
+
+    Map<String, String> cqlMap = new HashMap<>();
+    VersionedIdentifier mainIdentifier = cqlTranslator.getTranslatedLibrary().getIdentifier();
+    for (VersionedIdentifier identifier : cqlTranslator.getTranslatedLibraries().keySet()) {
+      String key = identifier.getId() + "-" + identifier.getVersion();
+      cqlMap.put(
+          key,
+          identifier.equals(mainIdentifier)
+              ? requestData.getCqlData()
+              : fetchingOnce
+                  .cqlLibraryService()
+                  .getLibraryCql(
+                      identifier.getId(), identifier.getVersion(), fetchingOnce.accessToken()));
+    }
+    return buildTranslatedLibraries(cqlTranslator, cqlMap);
+  }
+
+  /**
+   * The artifacts of every library of the translation, the main library first.
+   *
+   * @param cqlTranslator translation whose libraries are serialized
+   * @param cqlMap CQL of the libraries, keyed by name-version
+   */
+  public List<TranslatedLibrary> buildTranslatedLibraries(
+      CqlTranslator cqlTranslator, Map<String, String> cqlMap) {
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    ResourceUsage usage = ResourceUsage.current();
+    CompiledLibrary main = cqlTranslator.getTranslatedLibrary();
+    VersionedIdentifier mainIdentifier = main == null ? null : main.getIdentifier();
+
+    List<CompletableFuture<TranslatedLibrary>> artifacts = new ArrayList<>();
+    if (main != null) {
+      artifacts.add(build(main, cqlMap, mdc, usage));
+    }
+    for (var entry : cqlTranslator.getTranslatedLibraries().entrySet()) {
+      if (entry.getKey().equals(mainIdentifier)) {
+        continue;
+      }
+      CompiledLibrary library = entry.getValue();
+      artifacts.add(includedArtifact(library, () -> build(library, cqlMap, mdc, usage)));
+    }
+
+    List<TranslatedLibrary> translatedLibraries = new ArrayList<>(artifacts.size());
+    try {
+      for (CompletableFuture<TranslatedLibrary> artifact : artifacts) {
+        translatedLibraries.add(artifact.join());
+      }
+    } catch (CompletionException e) {
+      // a failed serialization is not kept, the next request tries again
+      synchronized (includedArtifacts) {
+        includedArtifacts.values().removeIf(cached -> cached.artifact().isCompletedExceptionally());
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    return translatedLibraries;
+  }
+
+  int cachedLibraryCount() {
+    return includedArtifacts.size();
+  }
+
+  /** The cached artifact of an included library, serialized again when missing or stale. */
+  private CompletableFuture<TranslatedLibrary> includedArtifact(
+      CompiledLibrary library, Supplier<CompletableFuture<TranslatedLibrary>> build) {
+    String key = cacheKey(library);
+    long now = System.currentTimeMillis();
+    CompletableFuture<TranslatedLibrary> artifact;
+    boolean hit;
+    // looked up and replaced under one lock, so concurrent requests share one serialization
+    synchronized (includedArtifacts) {
+      CachedArtifact cached = includedArtifacts.get(key);
+      hit = cached != null && now - cached.builtAtMillis() < includeTtlSeconds * 1000;
+      if (hit) {
+        artifact = cached.artifact();
+      } else {
+        artifact = build.get();
+        includedArtifacts.put(key, new CachedArtifact(artifact, now));
+      }
+    }
+    count(hit ? "hit" : "miss");
+    return artifact;
+  }
+
+  private CompletableFuture<TranslatedLibrary> build(
+      CompiledLibrary library,
+      Map<String, String> cqlMap,
+      Map<String, String> mdc,
+      ResourceUsage usage) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          if (mdc != null) {
+            MDC.setContextMap(mdc);
+          }
+          try {
+            return ResourceUsage.measure(
+                usage, () -> cqlConversionService.buildTranslatedLibrary(library, cqlMap));
+          } finally {
+            MDC.clear();
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Name, version and the translator options recorded in the library, which decide what its
+   * serialized ELM holds.
+   */
+  static String cacheKey(CompiledLibrary library) {
+    VersionedIdentifier identifier = library.getIdentifier();
+    String options =
+        library.getLibrary() == null
+            ? ""
+            : library.getLibrary().getAnnotation().stream()
+                .filter(CqlToElmInfo.class::isInstance)
+                .map(annotation -> ((CqlToElmInfo) annotation).getTranslatorOptions())
+                .findFirst()
+                .orElse("");
+    return identifier.getId() + "-" + identifier.getVersion() + "|" + options;
+  }
+
+  private void count(String outcome) {
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            registry.counter("translation.artifacts.cache", "outcome", outcome).increment());
+  }
+}
@@ -0,0 +1,268 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.mat.cql_elm_translation.dto.TranslationJob;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationJobNotFoundException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs long translation work, such as recursive effective data requirements of large measures, as
+ * jobs so no request thread or gateway connection is held while it runs. Jobs run on a pool of
+ * their own, sized separately from interactive requests, and finished jobs keep their result for a
+ * while in a bounded in-memory store from which clients poll it.
+ *
+ * <p>The store is local to the node, so clients must poll the node that accepted the job. Jobs
+ * belong to the caller that submitted them, other callers do not find them.
+ */
+@Slf4j
+@Service
+public class TranslationJobService {
+
+  public static class Job {
+    @Getter private final String id;
+    @Getter private final String type;
+    @Getter private final String owner;
+    @Getter private final Instant submittedAt = Instant.now();
+    @Getter private volatile TranslationJob.Status status = TranslationJob.Status.QUEUED;
+    @Getter private volatile Instant startedAt;
+    @Getter private volatile Instant finishedAt;
+    @Getter private volatile String result;
+    @Getter private volatile String error;
+    @Getter private volatile RuntimeException failure;
+    private final CompletableFuture<Job> completion = new CompletableFuture<>();
+    private volatile Future<?> future;
+
+    Job(String id, String type, String owner) {
+      this.id = id;
+      this.type = type;
+      this.owner = owner;
+    }
+
+    public boolean isFinished() {
+      return completion.isDone();
+    }
+
+    /** Completes with the job once it has finished, failed or been cancelled. */
+    public CompletableFuture<Job> completion() {
+      return completion;
+    }
+
+    public TranslationJob toDto() {
+      return TranslationJob.builder()
+          .jobId(id)
+          .type(type)
+          .status(status)
+          .submittedAt(submittedAt)
+          .startedAt(startedAt)
+          .finishedAt(finishedAt)
+          .error(error)
+          .build();
+    }
+
+    private synchronized boolean start() {
+      if (completion.isDone()) {
+        return false;
+      }
+      startedAt = Instant.now();
+      status = TranslationJob.Status.RUNNING;
+      return true;
+    }
+
+    /**
+     * Records the outcome unless the job already has one, a cancelled job stays cancelled. The
+     * outcome is counted before the completion is signalled, so whoever waits for it sees it.
+     */
+    private synchronized boolean finish(
+        TranslationJob.Status status,
+        String result,
+        String error,
+        RuntimeException failure,
+        Consumer<Job> counter) {
+      if (completion.isDone()) {
+        return false;
+      }
+      this.result = result;
+      this.error = error;
+      this.failure = failure;
+      this.finishedAt = Instant.now();
+      this.status = status;
+      counter.accept(this);
+      completion.complete(this);
+      return true;
+    }
+  }
+
+  @Value("${madie.translation.jobs.pool-size}")
+  private int poolSize;
+
+  @Value("${madie.translation.jobs.queue-capacity}")
+  private int queueCapacity;
+
+  @Value("${madie.translation.jobs.max-jobs}")
+  private int maxJobs;
+
+  @Value("${madie.translation.jobs.result-ttl-seconds}")
+  private long resultTtlSeconds;
+
+  @Value("${madie.translation.admission.retry-after-seconds}")
+  private long retryAfterSeconds;
+
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+  private ThreadPoolExecutor executor;
+
+  public TranslationJobService(ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    AtomicInteger count = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+              Thread thread = new Thread(runnable, "translation-job-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    log.info(
+        "Translation jobs run [{}] at once, [{}] queued, results kept [{}] s",
+        poolSize,
+        queueCapacity,
+        resultTtlSeconds);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Queues the work and returns at once. The work runs on a job thread with the caller's MDC, after
+   * the request is gone, so it has to capture what it needs, such as the access token its
+   * translation context fetches included libraries with.
+   */
+  public Job submit(String owner, String type, Supplier<String> work) {
+    Job job = new Job(UUID.randomUUID().toString(), type, owner);
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    synchronized (this) {
+      evictExpired();
+      if (jobs.size() >= maxJobs && !evictOldestFinished()) {
+        throw new TranslationOverloadedException(
+            "Too many translation jobs are pending", retryAfterSeconds);
+      }
+      try {
+        job.future = executor.submit(() -> run(job, work, mdc));
+      } catch (RejectedExecutionException e) {
+        throw new TranslationOverloadedException(
+            "Translation job queue is full", retryAfterSeconds);
+      }
+      jobs.put(job.getId(), job);
+    }
+    log.debug("Submitted translation job [{}] of type [{}]", job.getId(), type);
+    return job;
+  }
+
+  /** The job, when it was submitted by the owner. */
+  public synchronized Job get(String owner, String jobId) {
+    evictExpired();
+    Job job = jobs.get(jobId);
+    if (job == null || !job.owner.equals(owner)) {
+      throw new TranslationJobNotFoundException(jobId);
+    }
+    return job;
+  }
+
+  /** Cancels the job if it has not finished yet and drops it from the store. */
+  public void cancel(String owner, String jobId) {
+    Job job;
+    synchronized (this) {
+      job = get(owner, jobId);
+      jobs.remove(jobId);
+    }
+    if (job.finish(TranslationJob.Status.CANCELLED, null, null, null, this::count)) {
+      job.future.cancel(true);
+      // frees the queue slot of a job that had not started
+      executor.purge();
+    }
+  }
+
+  synchronized int jobCount() {
+    return jobs.size();
+  }
+
+  private void run(Job job, Supplier<String> work, Map<String, String> mdc) {
+    if (mdc != null) {
+      MDC.setContextMap(mdc);
+    }
+    try {
+      if (!job.start()) {
+        return;
+      }
+      job.finish(TranslationJob.Status.SUCCEEDED, work.get(), null, null, this::count);
+    } catch (RuntimeException e) {
+      log.warn("Translation job [{}] failed", job.getId(), e);
+      String error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+      job.finish(TranslationJob.Status.FAILED, null, error, e, this::count);
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private void evictExpired() {
+    Instant cutoff = Instant.now().minusSeconds(resultTtlSeconds);
+    jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+  }
+
+  private boolean evictOldestFinished() {
+    for (Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+      if (it.next().isFinished()) {
+        it.remove();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void count(Job job) {
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            registry
+                .counter(
+                    "translation.jobs",
+                    "type",
+                    job.getType(),
+                    "status",
+                    job.getStatus().name().toLowerCase())
+                .increment());
+  }
+}
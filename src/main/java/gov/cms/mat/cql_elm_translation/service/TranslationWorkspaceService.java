@@ -0,0 +1,218 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.exceptions.WorkspaceNotFoundException;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Server held translation state for editor sessions. A workspace is opened for a measure with a
+ * fixed set of translator options, every revision sent to it is translated against the state left
+ * by the previous one (see {@link IncrementalTranslationService}), and it is closed by the client
+ * or evicted when idle, when too many are open, or when the node's memory budget is used up. A
+ * workspace belongs to the caller that opened it; to anyone else it does not exist.
+ */
+@Slf4j
+@Service
+public class TranslationWorkspaceService {
+
+  enum EvictionReason {
+    IDLE,
+    LRU,
+    MEMORY;
+
+    String tag() {
+      return name().toLowerCase();
+    }
+  }
+
+  public static class Workspace {
+    @Getter private final String id;
+    @Getter private final String owner;
+    @Getter private final String measureId;
+    @Getter private final RequestData options;
+    @Getter private volatile long lastAccessMillis;
+    @Getter private volatile long estimatedBytes;
+    private IncrementalTranslationService.DocumentState state;
+
+    Workspace(String id, String owner, String measureId, RequestData options) {
+      this.id = id;
+      this.owner = owner;
+      this.measureId = measureId;
+      this.options = options;
+      this.lastAccessMillis = System.currentTimeMillis();
+    }
+  }
+
+  @Value("${madie.translation.workspace.max-workspaces}")
+  private int maxWorkspaces;
+
+  @Value("${madie.translation.workspace.idle-timeout-seconds}")
+  @Getter
+  private long idleTimeoutSeconds;
+
+  @Value("${madie.translation.workspace.include-ttl-seconds}")
+  private long includeTtlSeconds;
+
+  @Value("${madie.translation.workspace.memory-budget-bytes}")
+  private long memoryBudgetBytes;
+
+  @Value("${madie.translation.workspace.compiled-include-bytes}")
+  private long compiledIncludeBytes;
+
+  private final IncrementalTranslationService incrementalTranslationService;
+  private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+  private final LinkedHashMap<String, Workspace> workspaces = new LinkedHashMap<>(16, 0.75f, true);
+  private long effectiveBudgetBytes;
+
+  public TranslationWorkspaceService(
+      IncrementalTranslationService incrementalTranslationService,
+      ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    this.incrementalTranslationService = incrementalTranslationService;
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @PostConstruct
+  public void init() {
+    // when not configured, allow the workspaces an eighth of the heap
+    effectiveBudgetBytes =
+        memoryBudgetBytes > 0 ? memoryBudgetBytes : Runtime.getRuntime().maxMemory() / 8;
+    log.info(
+        "Translation workspaces limited to [{}] open, [{}] bytes",
+        maxWorkspaces,
+        effectiveBudgetBytes);
+    meterRegistryProvider.ifAvailable(
+        registry -> {
+          Gauge.builder("translation.workspaces.open", this::openCount)
+              .description("Open translation workspaces")
+              .register(registry);
+          Gauge.builder("translation.workspaces.bytes", this::estimatedBytes)
+              .description("Estimated memory held by translation workspaces")
+              .register(registry);
+        });
+  }
+
+  public Workspace open(String owner, String measureId, RequestData options) {
+    Workspace workspace = new Workspace(UUID.randomUUID().toString(), owner, measureId, options);
+    synchronized (this) {
+      evictIdle();
+      while (workspaces.size() >= maxWorkspaces) {
+        evictEldest(EvictionReason.LRU);
+      }
+      workspaces.put(workspace.getId(), workspace);
+    }
+    log.debug("Opened translation workspace [{}] for measure [{}]", workspace.getId(), measureId);
+    return workspace;
+  }
+
+  public Workspace get(String owner, String workspaceId) {
+    synchronized (this) {
+      evictIdle();
+      Workspace workspace = workspaces.get(workspaceId);
+      // another caller's workspace is reported as missing, not as forbidden
+      if (workspace == null || !workspace.owner.equals(owner)) {
+        throw new WorkspaceNotFoundException(workspaceId);
+      }
+      workspace.lastAccessMillis = System.currentTimeMillis();
+      return workspace;
+    }
+  }
+
+  /**
+   * Translates a revision of the workspace's CQL. Revisions of one workspace are translated one at
+   * a time, each against the state of the one before.
+   */
+  public CqlConversionPayload translate(
+      String owner, String workspaceId, String cql, TranslationContext context) {
+    Workspace workspace = get(owner, workspaceId);
+    CqlConversionPayload payload;
+    synchronized (workspace) {
+      IncrementalTranslationService.Translation translation =
+          incrementalTranslationService.translate(
+              workspace.state,
+              workspace.options.toBuilder().cqlData(cql).build(),
+              context,
+              includeTtlSeconds);
+      workspace.state = translation.state();
+      workspace.estimatedBytes = estimateBytes(translation.state());
+      workspace.lastAccessMillis = System.currentTimeMillis();
+      payload = translation.payload();
+    }
+    enforceBudget(workspace);
+    return payload;
+  }
+
+  public void close(String owner, String workspaceId) {
+    synchronized (this) {
+      get(owner, workspaceId);
+      workspaces.remove(workspaceId);
+    }
+    log.debug("Closed translation workspace [{}]", workspaceId);
+  }
+
+  synchronized int openCount() {
+    return workspaces.size();
+  }
+
+  synchronized long estimatedBytes() {
+    return workspaces.values().stream().mapToLong(Workspace::getEstimatedBytes).sum();
+  }
+
+  /** Rough size of what a workspace holds. */
+  long estimateBytes(IncrementalTranslationService.DocumentState state) {
+    return state == null ? 0 : state.estimatedBytes(compiledIncludeBytes);
+  }
+
+  private synchronized void enforceBudget(Workspace current) {
+    while (estimatedBytes() > effectiveBudgetBytes && workspaces.size() > 1) {
+      Map.Entry<String, Workspace> eldest = workspaces.entrySet().iterator().next();
+      if (eldest.getValue() == current) {
+        // never evict the workspace whose revision was just translated
+        break;
+      }
+      evictEldest(EvictionReason.MEMORY);
+    }
+  }
+
+  private void evictIdle() {
+    long cutoff = System.currentTimeMillis() - idleTimeoutSeconds * 1000;
+    List<String> idle = new ArrayList<>();
+    for (Iterator<Workspace> it = workspaces.values().iterator(); it.hasNext(); ) {
+      Workspace workspace = it.next();
+      if (workspace.lastAccessMillis < cutoff) {
+        idle.add(workspace.getId());
+        it.remove();
+      }
+    }
+    idle.forEach(id -> evicted(id, EvictionReason.IDLE));
+  }
+
+  private void evictEldest(EvictionReason reason) {
+    Iterator<String> it = workspaces.keySet().iterator();
+    String id = it.next();
+    it.remove();
+    evicted(id, reason);
+  }
+
+  private void evicted(String workspaceId, EvictionReason reason) {
+    log.info("Evicted translation workspace [{}], reason [{}]", workspaceId, reason.tag());
+    meterRegistryProvider.ifAvailable(
+        registry ->
+            registry.counter("translation.workspaces.evicted", "reason", reason.tag()).increment());
+  }
+}
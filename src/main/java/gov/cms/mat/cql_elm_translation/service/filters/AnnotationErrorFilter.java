@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.fhir.rest.dto.MatCqlConversionException;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import java.util.*;
@@ -14,6 +15,7 @@ import java.util.*;
 public class AnnotationErrorFilter implements CqlLibraryFinder, JsonHelpers {
 
   @Getter private final String cqlData;
+  @Getter private final LibraryProperties parsedLibrary;
   private final boolean showWarnings;
   private final String json;
 
@@ -31,26 +33,48 @@ public class AnnotationErrorFilter implements CqlLibraryFinder, JsonHelpers {
    * */
   // Todo Do we even need these annotations ?
   public AnnotationErrorFilter(String cqlData, boolean showWarnings, String json) {
+    this(cqlData, null, showWarnings, json);
+  }
+
+  public AnnotationErrorFilter(
+      String cqlData, LibraryProperties parsedLibrary, boolean showWarnings, String json) {
     this.cqlData = cqlData;
+    this.parsedLibrary = parsedLibrary;
     this.showWarnings = showWarnings;
     this.json = json;
   }
 
   public String filter() {
+    return filter(List.of());
+  }
+
+  /**
+   * Filters the annotations and puts the errorExceptions in front of the library in the same pass,
+   * so the ELM json is only read and written once.
+   */
+  public String filter(List<MatCqlConversionException> errorExceptions) {
+    JsonNode rootNode;
     try {
-      JsonNode rootNode = readRootNode();
+      rootNode = readRootNode();
+    } catch (Exception e) {
+      log.error("Cannot parse json.", e);
+      return json;
+    }
 
+    try {
       Optional<ArrayNode> annotationNode = getAnnotationNode(rootNode);
 
       if (annotationNode.isEmpty()) {
-        return json;
+        return errorExceptions.isEmpty()
+            ? json
+            : withErrorExceptions(rootNode, errorExceptions).toPrettyString();
       } else {
         libraryProperties = parseLibrary();
-        return processArrayNode(rootNode, annotationNode.get());
+        return processArrayNode(rootNode, annotationNode.get(), errorExceptions);
       }
     } catch (Exception e) {
       log.info("Error filtering annotations", e);
-      return json;
+      return attachToUnfiltered(errorExceptions);
     }
   }
 
@@ -86,7 +110,10 @@ public class AnnotationErrorFilter implements CqlLibraryFinder, JsonHelpers {
     }
   }
 
-  private String processArrayNode(JsonNode rootNode, ArrayNode annotationArrayNode) {
+  private String processArrayNode(
+      JsonNode rootNode,
+      ArrayNode annotationArrayNode,
+      List<MatCqlConversionException> errorExceptions) {
     annotationArrayNode.forEach(this::filterByNode);
 
     annotationArrayNode.removeAll();
@@ -100,7 +127,32 @@ public class AnnotationErrorFilter implements CqlLibraryFinder, JsonHelpers {
 
       rootObjectNode.set("externalErrors", arrayNode);
     }
-    return fixErrorTags(rootNode.toPrettyString());
+    // only the translator's annotations, the errorExceptions are attached as they were built
+    fixErrorTags(rootNode);
+    return withErrorExceptions(rootNode, errorExceptions).toPrettyString();
+  }
+
+  private JsonNode withErrorExceptions(
+      JsonNode rootNode, List<MatCqlConversionException> errorExceptions) {
+    if (errorExceptions.isEmpty() || !(rootNode instanceof ObjectNode rootObjectNode)) {
+      return rootNode;
+    }
+    // errorExceptions goes first, ahead of the library node
+    ObjectNode withErrors = objectMapper.createObjectNode();
+    withErrors.set("errorExceptions", objectMapper.valueToTree(errorExceptions));
+    withErrors.setAll(rootObjectNode);
+    return withErrors;
+  }
+
+  private String attachToUnfiltered(List<MatCqlConversionException> errorExceptions) {
+    if (errorExceptions.isEmpty()) {
+      return json;
+    }
+    try {
+      return withErrorExceptions(readRootNode(), errorExceptions).toPrettyString();
+    } catch (JsonProcessingException e) {
+      return json;
+    }
   }
 
   private void filterByNode(JsonNode jsonNode) {
@@ -157,8 +209,12 @@ public class AnnotationErrorFilter implements CqlLibraryFinder, JsonHelpers {
     return p.getName().equals(libraryId) && p.getVersion().equals(version);
   }
 
-  private String fixErrorTags(String cleanedJson) {
-    return cleanedJson.replace("\"errorSeverity\" : \"error\"", "\"errorSeverity\" : \"Error\"");
+  private void fixErrorTags(JsonNode rootNode) {
+    for (JsonNode parent : rootNode.findParents("errorSeverity")) {
+      if (parent instanceof ObjectNode node && "error".equals(node.get("errorSeverity").asText())) {
+        node.put("errorSeverity", "Error");
+      }
+    }
   }
 
   private boolean isLibraryNodeValid(JsonNode node) {
@@ -6,7 +6,15 @@ import gov.cms.mat.cql.elements.LibraryProperties;
 public interface CqlLibraryFinder {
   String getCqlData();
 
+  /** The library declaration when the caller already parsed it, otherwise null. */
+  default LibraryProperties getParsedLibrary() {
+    return null;
+  }
+
   default LibraryProperties parseLibrary() {
+    if (getParsedLibrary() != null) {
+      return getParsedLibrary();
+    }
     CqlTextParser cqlTextParser = new CqlTextParser(getCqlData());
     return cqlTextParser.getLibrary();
   }
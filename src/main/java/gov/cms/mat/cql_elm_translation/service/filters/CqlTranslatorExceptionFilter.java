@@ -1,6 +1,7 @@
 package gov.cms.mat.cql_elm_translation.service.filters;
 
 import gov.cms.mat.cql.elements.LibraryProperties;
+import gov.cms.mat.cql_elm_translation.service.support.CqlExceptionErrorProcessor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
@@ -15,12 +16,22 @@ import java.util.stream.Collectors;
 @Slf4j
 public class CqlTranslatorExceptionFilter implements CqlLibraryFinder {
   @Getter private final String cqlData;
+  @Getter private final LibraryProperties parsedLibrary;
   private final boolean showWarnings;
   private final List<CqlCompilerException> cqlTranslatorExceptions;
 
   public CqlTranslatorExceptionFilter(
       String cqlData, boolean showWarnings, List<CqlCompilerException> cqlTranslatorExceptions) {
+    this(cqlData, null, showWarnings, cqlTranslatorExceptions);
+  }
+
+  public CqlTranslatorExceptionFilter(
+      String cqlData,
+      LibraryProperties parsedLibrary,
+      boolean showWarnings,
+      List<CqlCompilerException> cqlTranslatorExceptions) {
     this.cqlData = cqlData;
+    this.parsedLibrary = parsedLibrary;
     this.showWarnings = showWarnings;
     this.cqlTranslatorExceptions = cqlTranslatorExceptions;
   }
@@ -104,11 +115,7 @@ public class CqlTranslatorExceptionFilter implements CqlLibraryFinder {
   private List<CqlCompilerException> filterBySyntax(
       List<CqlCompilerException> filteredCqlTranslatorExceptions) {
     return filteredCqlTranslatorExceptions.stream()
-        .filter(
-            cqlCompilerException ->
-                cqlCompilerException
-                    .toString()
-                    .contains("org.cqframework.cql.cql2elm.CqlSyntaxException"))
+        .filter(CqlExceptionErrorProcessor::isSyntaxError)
         .toList();
   }
 }
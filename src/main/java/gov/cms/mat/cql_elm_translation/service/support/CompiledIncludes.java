@@ -0,0 +1,46 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/** Picks the included libraries out of a translation so later translations can reuse them. */
+public final class CompiledIncludes {
+
+  private CompiledIncludes() {}
+
+  /**
+   * The compiled included libraries of a translation. Errors found in an include are reported only
+   * when the include is compiled, so nothing is returned when any include had errors.
+   */
+  public static Map<VersionedIdentifier, CompiledLibrary> of(CqlTranslator cqlTranslator) {
+    VersionedIdentifier main = cqlTranslator.getTranslatedLibrary().getIdentifier();
+    String mainId = main == null ? null : main.getId();
+    boolean includeErrors =
+        cqlTranslator.getExceptions().stream()
+            .map(CqlCompilerException::getLocator)
+            .filter(Objects::nonNull)
+            .anyMatch(
+                locator ->
+                    locator.getLibrary() != null
+                        && !Objects.equals(locator.getLibrary().getId(), mainId));
+    if (includeErrors) {
+      return Map.of();
+    }
+    Map<VersionedIdentifier, CompiledLibrary> compiled = new HashMap<>();
+    cqlTranslator
+        .getTranslatedLibraries()
+        .forEach(
+            (identifier, library) -> {
+              if (!Objects.equals(identifier.getId(), mainId)) {
+                compiled.put(identifier, library);
+              }
+            });
+    return Map.copyOf(compiled);
+  }
+}
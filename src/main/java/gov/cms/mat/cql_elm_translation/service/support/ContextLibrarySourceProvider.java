@@ -0,0 +1,40 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.LibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Resolves included libraries through the library service of one {@link TranslationContext}. */
+@Slf4j
+public class ContextLibrarySourceProvider implements LibrarySourceProvider {
+
+  public static final String MODEL_VERSION_REQUIRED = "Model Type and version are required";
+
+  private final TranslationContext context;
+
+  public ContextLibrarySourceProvider(TranslationContext context) {
+    this.context = context;
+  }
+
+  @Override
+  public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+    // the compiler reports the message as the error of the include
+    if (context.cqlHeader().using() == null) {
+      throw new IllegalStateException(MODEL_VERSION_REQUIRED);
+    }
+    if (context.cqlLibraryService() == null) {
+      log.debug("No library service to resolve [{}]", libraryIdentifier.getId());
+      return null;
+    }
+    String cql =
+        context
+            .cqlLibraryService()
+            .getLibraryCql(
+                libraryIdentifier.getId(), libraryIdentifier.getVersion(), context.accessToken());
+    return cql == null ? null : new ByteArrayInputStream(cql.getBytes(StandardCharsets.UTF_8));
+  }
+}
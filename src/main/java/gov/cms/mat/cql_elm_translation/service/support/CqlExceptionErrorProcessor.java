@@ -1,56 +1,35 @@
 package gov.cms.mat.cql_elm_translation.service.support;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.cms.mat.fhir.rest.dto.MatCqlConversionException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlSyntaxException;
 import org.cqframework.cql.elm.tracking.TrackBack;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class CqlExceptionErrorProcessor {
 
-  private static final ObjectMapper mapper = new ObjectMapper();
-
   private final List<CqlCompilerException> cqlErrors;
-  private final String json;
 
-  /**
-   * Transforms CqlTranslatorException to MatCqlConversionException and prepend with
-   * "errorExceptions" object to the translator.json
-   */
-  public CqlExceptionErrorProcessor(List<CqlCompilerException> cqlErrors, String json) {
+  /** Transforms CqlTranslatorException to MatCqlConversionException. */
+  public CqlExceptionErrorProcessor(List<CqlCompilerException> cqlErrors) {
     this.cqlErrors = cqlErrors;
-    this.json = json;
   }
 
-  public String process() {
-    try {
-      if (CollectionUtils.isEmpty(cqlErrors)) {
-        return json;
-      } else {
-        return addErrorsToJson();
-      }
-    } catch (Exception e) {
-      log.error("Cannot parse json.", e);
-      log.trace(json);
-      return json;
+  /**
+   * Transforms the CqlCompilerExceptions into the errorExceptions model so they can be attached to
+   * the ELM tree while it is serialized, see {@link
+   * gov.cms.mat.cql_elm_translation.service.filters.AnnotationErrorFilter#filter(List)}.
+   */
+  public List<MatCqlConversionException> buildErrorExceptions() {
+    if (CollectionUtils.isEmpty(cqlErrors)) {
+      return List.of();
     }
-  }
-
-  private String addErrorsToJson() throws JsonProcessingException {
-    mapper.readTree(json);
-
-    List<MatCqlConversionException> matErrors = buildMatErrors();
-    String jsonToInsert = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(matErrors);
-
-    return json.replaceFirst(
-        "\n", Matcher.quoteReplacement("\n  \"errorExceptions\":" + jsonToInsert + ",\n"));
+    return buildMatErrors();
   }
 
   private List<MatCqlConversionException> buildMatErrors() {
@@ -73,27 +52,11 @@ public class CqlExceptionErrorProcessor {
     MatCqlConversionException matCqlConversionException = new MatCqlConversionException();
     matCqlConversionException.setErrorSeverity(cqlTranslatorException.getSeverity().name());
 
-    matCqlConversionException.setType(
-        cqlTranslatorException.toString().contains("org.cqframework.cql.cql2elm.CqlSyntaxException")
-            ? "parsing"
-            : null);
+    matCqlConversionException.setType(isSyntaxError(cqlTranslatorException) ? "parsing" : null);
 
     log.debug("cqlTranslatorException:" + cqlTranslatorException.getMessage());
     try {
       String payload = escape(cqlTranslatorException.getMessage());
-      // UsingProperties.getVersion should be an indicate that the CQL error was a result of Model
-      // and version not found in the CQL
-      if (StringUtils.contains(payload, "UsingProperties.getVersion")) {
-        log.info("cqlTranslatorException: Payload" + payload);
-        String rawPayload = clean(payload);
-        log.info("cqlTranslatorException: RawPayload" + rawPayload);
-        if (rawPayload.equals(
-            "CannotinvokegovcmsmatcqlelementsUsingProperties"
-                + "getVersionbecausethereturnvalueofjavalangThreadLocalgetisnull")) {
-          payload = "Model Type and version are required";
-        }
-      }
-
       matCqlConversionException.setMessage(payload);
     } catch (Exception e) {
       log.info("Error building MADiEError message", e.getMessage());
@@ -104,6 +67,17 @@ public class CqlExceptionErrorProcessor {
     return matCqlConversionException;
   }
 
+  /**
+   * Syntax errors are usually CqlSyntaxExceptions, but some reach us wrapped in a plain
+   * CqlCompilerException that only carries the original exception in its message or cause.
+   */
+  public static boolean isSyntaxError(CqlCompilerException cqlCompilerException) {
+    return cqlCompilerException instanceof CqlSyntaxException
+        || cqlCompilerException.getCause() instanceof CqlSyntaxException
+        || StringUtils.contains(
+            cqlCompilerException.getMessage(), CqlSyntaxException.class.getName());
+  }
+
   private void addLocatorData(
       TrackBack locator, MatCqlConversionException matCqlConversionException) {
     matCqlConversionException.setStartLine(locator.getStartLine());
@@ -126,8 +100,4 @@ public class CqlExceptionErrorProcessor {
     // TODO: escape other non-printing characters using uXXXX notation
     return escaped;
   }
-
-  private String clean(String raw) {
-    return raw.replaceAll("[^a-zA-Z0-9]", "");
-  }
 }
@@ -0,0 +1,384 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.cql.model.IntervalType;
+import org.hl7.cql.model.ListType;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import javax.xml.namespace.QName;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Removes duplicates from compiled libraries before they are held in a long-lived cache. Included
+ * libraries repeat the same identifiers, type names, locators and annotation narrative over and
+ * over, within one library and across libraries, and the compiler builds a new list and interval
+ * type for every expression that has one. This pass walks the ELM of a library and points those
+ * fields at one shared instance of each value.
+ *
+ * <p>Only values that are never changed after compilation are shared: strings, qualified type names
+ * and the list and interval result types. ELM elements themselves are left alone, they are mutable
+ * and are told apart by identity in places. Shared values are held weakly, so they go when the last
+ * library using them is evicted.
+ */
+@Slf4j
+public final class ElmCanonicalizer {
+
+  /**
+   * Estimated retained size of a library before and after the pass. Every distinct value the
+   * library refers to is counted once, whether or not another library shares it, so the saving is
+   * what the duplicates within this library cost. Sharing across libraries saves more than that.
+   */
+  record Report(String library, long bytesBefore, long bytesAfter) {
+    public long bytesSaved() {
+      return bytesBefore - bytesAfter;
+    }
+  }
+
+  private static final List<String> WALKED_PACKAGES =
+      List.of(
+          "org.hl7.elm.r1",
+          "org.hl7.cql_annotations.r1",
+          "org.cqframework.cql.elm.tracking",
+          "org.cqframework.cql.cql2elm.model",
+          "jakarta.xml.bind",
+          "javax.xml.bind");
+
+  private static final Interner INTERNER = new Interner();
+
+  private static final Set<CompiledLibrary> CANONICALIZED =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  private static final ClassValue<Boolean> WALKED =
+      new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+          return WALKED_PACKAGES.contains(type.getPackageName());
+        }
+      };
+
+  private static final ClassValue<List<Field>> FIELDS =
+      new ClassValue<>() {
+        @Override
+        protected List<Field> computeValue(Class<?> type) {
+          List<Field> fields = new ArrayList<>();
+          // fields of JDK superclasses are neither readable nor worth sharing
+          for (Class<?> c = type; c != null && isWalked(c); c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+              if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                field.setAccessible(true);
+                fields.add(field);
+              }
+            }
+          }
+          return List.copyOf(fields);
+        }
+      };
+
+  private static final ClassValue<Long> SHALLOW_SIZE =
+      new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+          // compressed oops: 12 byte header, 4 byte references, padded to 8
+          long size = 12;
+          for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+              if (!Modifier.isStatic(field.getModifiers())) {
+                size += fieldSize(field.getType());
+              }
+            }
+          }
+          return align(size);
+        }
+      };
+
+  private ElmCanonicalizer() {}
+
+  /** Canonicalizes every library of the map. Libraries seen before are skipped. */
+  public static Map<VersionedIdentifier, CompiledLibrary> canonicalize(
+      Map<VersionedIdentifier, CompiledLibrary> libraries) {
+    libraries.values().forEach(ElmCanonicalizer::canonicalize);
+    return libraries;
+  }
+
+  /** Canonicalizes the library in place, returns false when it was done before. */
+  public static boolean canonicalize(CompiledLibrary library) {
+    if (log.isDebugEnabled()) {
+      Report report = canonicalizeReporting(library);
+      if (report != null) {
+        log.debug(
+            "Canonicalized library [{}], estimated retained bytes [{}] -> [{}]",
+            report.library(),
+            report.bytesBefore(),
+            report.bytesAfter());
+      }
+      return report != null;
+    }
+    if (library == null || !CANONICALIZED.add(library)) {
+      return false;
+    }
+    walk(library, true);
+    return true;
+  }
+
+  /**
+   * Canonicalizes the library like {@link #canonicalize(CompiledLibrary)} and estimates its size
+   * before and after, returns null when it was done before. The estimates walk the library twice
+   * more, so they are only taken for debug logging.
+   */
+  static Report canonicalizeReporting(CompiledLibrary library) {
+    if (library == null || !CANONICALIZED.add(library)) {
+      return null;
+    }
+    long before = estimateRetainedBytes(library);
+    walk(library, true);
+    long after = estimateRetainedBytes(library);
+    return new Report(name(library), before, after);
+  }
+
+  /**
+   * Rough retained size of the library's object graph. JDK collections and leaf values are
+   * estimated from their length, everything else from its declared fields.
+   */
+  static long estimateRetainedBytes(CompiledLibrary library) {
+    return walk(library, false);
+  }
+
+  static int poolSize() {
+    return INTERNER.size();
+  }
+
+  private static long walk(Object root, boolean canonicalize) {
+    Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(root);
+    long bytes = 0;
+    while (!pending.isEmpty()) {
+      Object object = pending.pop();
+      if (!seen.add(object)) {
+        continue;
+      }
+      if (object instanceof List<?> list) {
+        bytes += 40 + 4L * list.size();
+        if (canonicalize) {
+          canonicalizeElements(list);
+        }
+        list.forEach(element -> push(pending, element));
+      } else if (object instanceof Collection<?> collection) {
+        bytes += 48 + 36L * collection.size();
+        collection.forEach(element -> push(pending, element));
+      } else if (object instanceof Map<?, ?> map) {
+        bytes += 48 + 36L * map.size();
+        map.forEach(
+            (key, value) -> {
+              push(pending, key);
+              push(pending, value);
+            });
+      } else if (object.getClass().isArray()) {
+        int length = Array.getLength(object);
+        bytes += align(16 + (long) length * fieldSize(object.getClass().getComponentType()));
+        if (!object.getClass().getComponentType().isPrimitive()) {
+          for (int i = 0; i < length; i++) {
+            push(pending, Array.get(object, i));
+          }
+        }
+      } else if (object instanceof Enum<?>) {
+        // constants, already one instance each
+        continue;
+      } else if (isShareable(object)) {
+        bytes += leafSize(object);
+      } else if (isWalked(object.getClass())) {
+        bytes += SHALLOW_SIZE.get(object.getClass());
+        for (Field field : FIELDS.get(object.getClass())) {
+          Object value = get(field, object);
+          if (canonicalize && value != null && !Modifier.isFinal(field.getModifiers())) {
+            Object canonical = canonical(value);
+            if (canonical != value) {
+              set(field, object, canonical);
+              value = canonical;
+            }
+          }
+          push(pending, value);
+        }
+      } else {
+        bytes += leafSize(object);
+      }
+    }
+    return bytes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void canonicalizeElements(List<?> list) {
+    // immutable lists are left as they are
+    try {
+      for (ListIterator<Object> it = (ListIterator<Object>) list.listIterator(); it.hasNext(); ) {
+        Object value = it.next();
+        Object canonical = value == null ? null : canonical(value);
+        if (canonical != value) {
+          it.set(canonical);
+        }
+      }
+    } catch (UnsupportedOperationException e) {
+      log.trace("Skipped unmodifiable list of [{}] elements", list.size());
+    }
+  }
+
+  private static Object canonical(Object value) {
+    if (value instanceof QName name) {
+      // QName equality ignores the prefix, which is written out when the ELM is serialized
+      QName canonical = INTERNER.intern(name);
+      return canonical.getPrefix().equals(name.getPrefix()) ? canonical : name;
+    }
+    return value instanceof String || value instanceof ListType || value instanceof IntervalType
+        ? INTERNER.intern(value)
+        : value;
+  }
+
+  private static boolean isShareable(Object value) {
+    return value instanceof String
+        || value instanceof QName
+        || value instanceof ListType
+        || value instanceof IntervalType;
+  }
+
+  private static boolean isWalked(Class<?> type) {
+    return WALKED.get(type);
+  }
+
+  private static void push(Deque<Object> pending, Object value) {
+    if (value != null) {
+      pending.push(value);
+    }
+  }
+
+  private static long leafSize(Object value) {
+    if (value instanceof String string) {
+      // compact string: the String object and a byte array of its Latin-1 characters
+      return 24 + align(16 + string.length());
+    }
+    if (value instanceof QName name) {
+      return 24 + leafSize(name.getNamespaceURI()) + leafSize(name.getLocalPart());
+    }
+    return 16;
+  }
+
+  private static long fieldSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == byte.class || type == boolean.class) {
+      return 1;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 4;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static Object get(Field field, Object object) {
+    try {
+      return field.get(object);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Cannot read " + field, e);
+    }
+  }
+
+  private static void set(Field field, Object object, Object value) {
+    try {
+      field.set(object, value);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Cannot write " + field, e);
+    }
+  }
+
+  private static String name(CompiledLibrary library) {
+    VersionedIdentifier identifier = library.getIdentifier();
+    return identifier == null ? "unnamed" : identifier.getId() + "-" + identifier.getVersion();
+  }
+
+  /**
+   * Weak canonical map, an entry goes once no library refers to its value any more. Keys are weak
+   * references compared by their referent, cleared ones are removed as they are found.
+   */
+  private static final class Interner {
+    private final ConcurrentMap<Key, Key> pool = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+
+    @SuppressWarnings("unchecked")
+    <T> T intern(T value) {
+      expunge();
+      Key key = new Key(value, cleared);
+      while (true) {
+        Key existing = pool.putIfAbsent(key, key);
+        if (existing == null) {
+          return value;
+        }
+        Object canonical = existing.get();
+        if (canonical != null) {
+          return (T) canonical;
+        }
+        // cleared after the lookup matched it, make room for this value
+        pool.remove(existing, existing);
+      }
+    }
+
+    int size() {
+      expunge();
+      return pool.size();
+    }
+
+    private void expunge() {
+      for (Reference<?> reference; (reference = cleared.poll()) != null; ) {
+        pool.remove(reference, reference);
+      }
+    }
+  }
+
+  private static final class Key extends WeakReference<Object> {
+    private final int hash;
+
+    Key(Object value, ReferenceQueue<Object> queue) {
+      super(value, queue);
+      this.hash = value.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key key) || hash != key.hash) {
+        return false;
+      }
+      Object value = get();
+      return value != null && value.equals(key.get());
+    }
+  }
+}
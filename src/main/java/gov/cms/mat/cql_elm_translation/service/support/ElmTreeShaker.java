@@ -0,0 +1,83 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.elm.visiting.FunctionalElmVisitor;
+import org.hl7.elm.r1.ContextDef;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.ExpressionRef;
+import org.hl7.elm.r1.Library;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the definitions and functions of a library that cannot be reached from a set of root
+ * definitions, for consumers that only evaluate a measure's populations. A definition is kept when
+ * a root or a kept definition refers to it, either as an expression or as a function; a function
+ * reference keeps every overload of that name. The definitions made for the library's contexts are
+ * always kept.
+ *
+ * <p>Only the library itself is pruned. Included libraries are separate ELM documents and are left
+ * as they are.
+ */
+@Slf4j
+public final class ElmTreeShaker {
+
+  private static final FunctionalElmVisitor<Void, Deque<String>> LOCAL_REFERENCES =
+      FunctionalElmVisitor.from(
+          (elm, pending) -> {
+            if (elm instanceof ExpressionRef ref && ref.getLibraryName() == null) {
+              pending.add(ref.getName());
+            }
+            return null;
+          },
+          (aggregate, next) -> null);
+
+  private ElmTreeShaker() {}
+
+  /**
+   * Prunes the statements of the library in place.
+   *
+   * @return the number of definitions and functions removed
+   */
+  public static int prune(Library library, Collection<String> roots) {
+    if (library.getStatements() == null) {
+      return 0;
+    }
+    List<ExpressionDef> statements = library.getStatements().getDef();
+    Map<String, List<ExpressionDef>> byName = new HashMap<>();
+    statements.forEach(
+        def -> byName.computeIfAbsent(def.getName(), name -> new ArrayList<>()).add(def));
+
+    Deque<String> pending = new ArrayDeque<>(roots);
+    if (library.getContexts() != null) {
+      library.getContexts().getDef().stream().map(ContextDef::getName).forEach(pending::add);
+    }
+    Set<String> reachable = new HashSet<>();
+    while (!pending.isEmpty()) {
+      String name = pending.pop();
+      if (reachable.add(name)) {
+        byName
+            .getOrDefault(name, List.of())
+            .forEach(def -> LOCAL_REFERENCES.visitExpressionDef(def, pending));
+      }
+    }
+
+    int before = statements.size();
+    statements.removeIf(def -> !reachable.contains(def.getName()));
+    int removed = before - statements.size();
+    log.debug(
+        "Pruned [{}] of [{}] statements from library [{}]",
+        removed,
+        before,
+        library.getIdentifier() == null ? null : library.getIdentifier().getId());
+    return removed;
+  }
+}
@@ -0,0 +1,34 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the CQL of the libraries fetched for one translation, so the compilations that make it up
+ * fetch each included library once between them. Failed fetches are not kept.
+ */
+public class FetchOnceCqlLibraryService extends CqlLibraryService {
+
+  private final CqlLibraryService delegate;
+  private final Map<String, String> fetched = new ConcurrentHashMap<>();
+
+  public FetchOnceCqlLibraryService(CqlLibraryService delegate) {
+    super(null);
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getLibraryCql(String name, String version, String accessToken) {
+    String key = name + "-" + version;
+    String cql = fetched.get(key);
+    if (cql == null) {
+      cql = delegate.getLibraryCql(name, version, accessToken);
+      if (cql != null) {
+        fetched.putIfAbsent(key, cql);
+      }
+    }
+    return cql;
+  }
+}
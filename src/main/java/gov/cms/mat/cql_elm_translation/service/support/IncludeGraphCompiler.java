@@ -0,0 +1,350 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import gov.cms.mat.cql_elm_translation.config.accounting.ResourceUsage;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationCancellation;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the included libraries of a translation before the translation itself, following the
+ * include graph. The compiler resolves includes one after another on the calling thread; here the
+ * graph is fetched a level at a time, the libraries of a level side by side, and compiled a level
+ * at a time, a library once everything it includes is compiled. Libraries that do not depend on
+ * each other, like the supplemental data elements and the common functions most measures include,
+ * are fetched and compiled at the same time.
+ *
+ * <p>The parts of a level run on the calling thread and on idle workers of its translation lane,
+ * see {@link TranslationExecutor#laneHelpers()}, so a translation never keeps more threads busy
+ * than its lane has workers. When the translation is cancelled the parts not started yet are
+ * skipped; a part already running on another worker cannot be interrupted and finishes its library.
+ *
+ * <p>Each library is compiled by translating a library that does nothing but include it, with the
+ * libraries it includes seeded into the library manager. The compiler compiles, sorts and checks it
+ * exactly as it would for the measure, so the compiled libraries handed to the translation are the
+ * ones it would have built itself. A library that fails to fetch or compiles with errors or
+ * warnings is left, with everything that includes it, for the translation to compile and report.
+ */
+@Slf4j
+public final class IncludeGraphCompiler {
+
+  /** Translates CQL with already compiled included libraries seeded into its library manager. */
+  @FunctionalInterface
+  public interface LibraryCompiler {
+    CqlTranslator compile(
+        String cql,
+        TranslationContext context,
+        Map<VersionedIdentifier, CompiledLibrary> compiledIncludes);
+  }
+
+  static final String WRAPPER_LIBRARY = "IncludeGraphCompilerWrapper";
+
+  private static final Pattern PLAIN_IDENTIFIER =
+      Pattern.compile("[A-Za-z_]\\w*(\\.[A-Za-z_]\\w*)*");
+
+  private record Node(String name, String version, String cql, List<String> includes) {}
+
+  private IncludeGraphCompiler() {}
+
+  /** Whether the translation has included libraries that can be fetched ahead of it. */
+  public static boolean applies(TranslationContext context) {
+    return context.cqlLibraryService() != null
+        && context.cqlHeader().using() != null
+        && !context.cqlHeader().includes().isEmpty();
+  }
+
+  /**
+   * Compiles the libraries the translation includes, directly or not, that are not compiled yet.
+   *
+   * @param context context of the translation, should fetch each library once
+   * @param compiledIncludes libraries compiled already
+   * @return the compiled libraries to seed the translation with, the given ones included
+   */
+  public static Map<VersionedIdentifier, CompiledLibrary> compile(
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes,
+      LibraryCompiler compiler) {
+    return compile(context, compiledIncludes, compiler, TranslationExecutor.laneHelpers());
+  }
+
+  static Map<VersionedIdentifier, CompiledLibrary> compile(
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes,
+      LibraryCompiler compiler,
+      Executor executor) {
+    Parts parts = new Parts(executor);
+    Map<String, Node> graph = fetchGraph(context, compiledIncludes, parts);
+    if (graph.size() < 2) {
+      // nothing to compile side by side, the translation fetches from the context again
+      return compiledIncludes;
+    }
+
+    // compiled libraries of each node, null for a node left to the translation
+    Map<String, Map<VersionedIdentifier, CompiledLibrary>> results = new HashMap<>();
+    Set<String> remaining = new LinkedHashSet<>(graph.keySet());
+    while (!remaining.isEmpty()) {
+      List<Node> level =
+          remaining.stream()
+              .map(graph::get)
+              .filter(node -> results.keySet().containsAll(node.includes()))
+              .toList();
+      if (level.isEmpty()) {
+        // an include cycle, the compiler will report it
+        remaining.forEach(key -> results.put(key, null));
+        break;
+      }
+      List<Supplier<Map<VersionedIdentifier, CompiledLibrary>>> compilations = new ArrayList<>();
+      for (Node node : level) {
+        Map<VersionedIdentifier, CompiledLibrary> seeds = seeds(node, results);
+        compilations.add(
+            () ->
+                seeds == null
+                    ? null
+                    : compileNode(node, seeds, context, compiledIncludes, compiler));
+      }
+      List<Map<VersionedIdentifier, CompiledLibrary>> compiled = parts.run(compilations);
+      for (int i = 0; i < level.size(); i++) {
+        String key = key(level.get(i).name(), level.get(i).version());
+        results.put(key, compiled.get(i));
+        remaining.remove(key);
+      }
+    }
+
+    Map<VersionedIdentifier, CompiledLibrary> compiled = new HashMap<>(compiledIncludes);
+    int failed = 0;
+    for (Map<VersionedIdentifier, CompiledLibrary> libraries : results.values()) {
+      if (libraries == null) {
+        failed++;
+      } else {
+        compiled.putAll(libraries);
+      }
+    }
+    log.debug(
+        "Compiled [{}] of [{}] included libraries ahead of the translation",
+        graph.size() - failed,
+        graph.size());
+    return compiled;
+  }
+
+  /**
+   * Fetches the CQL of every library reachable through includes that is not compiled yet, the
+   * libraries of each level of the graph at the same time.
+   */
+  private static Map<String, Node> fetchGraph(
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes,
+      Parts parts) {
+    Set<String> compiled = new HashSet<>();
+    compiledIncludes.keySet().forEach(id -> compiled.add(key(id.getId(), id.getVersion())));
+    Map<String, Node> graph = new LinkedHashMap<>();
+    List<CqlHeader.Include> level = context.cqlHeader().includes();
+    while (!level.isEmpty()) {
+      Map<String, CqlHeader.Include> pending = new LinkedHashMap<>();
+      for (CqlHeader.Include include : level) {
+        String key = key(include.name(), include.version());
+        if (!compiled.contains(key) && !graph.containsKey(key)) {
+          pending.putIfAbsent(key, include);
+        }
+      }
+      List<String> fetched =
+          parts.run(
+              pending.values().stream()
+                  .<Supplier<String>>map(include -> () -> fetch(context, include))
+                  .toList());
+
+      List<CqlHeader.Include> next = new ArrayList<>();
+      int i = 0;
+      for (var entry : pending.entrySet()) {
+        CqlHeader.Include include = entry.getValue();
+        String cql = fetched.get(i++);
+        List<CqlHeader.Include> includes = CqlHeader.parseIncludes(cql);
+        // libraries compiled already are not part of the graph, a node does not wait for them
+        graph.put(
+            entry.getKey(),
+            new Node(
+                include.name(),
+                include.version(),
+                cql,
+                includes.stream()
+                    .map(inc -> key(inc.name(), inc.version()))
+                    .filter(k -> !compiled.contains(k))
+                    .toList()));
+        next.addAll(includes);
+      }
+      level = next;
+    }
+    return graph;
+  }
+
+  private static String fetch(TranslationContext context, CqlHeader.Include include) {
+    try {
+      return context
+          .cqlLibraryService()
+          .getLibraryCql(include.name(), include.version(), context.accessToken());
+    } catch (RuntimeException e) {
+      log.debug("Could not fetch [{}] ahead of the translation", include.name(), e);
+      return null;
+    }
+  }
+
+  /** The compiled libraries a node is compiled with, null when one of its includes failed. */
+  private static Map<VersionedIdentifier, CompiledLibrary> seeds(
+      Node node, Map<String, Map<VersionedIdentifier, CompiledLibrary>> results) {
+    if (node.cql() == null) {
+      return null;
+    }
+    Map<VersionedIdentifier, CompiledLibrary> seeds = new HashMap<>();
+    for (String include : node.includes()) {
+      Map<VersionedIdentifier, CompiledLibrary> libraries = results.get(include);
+      if (libraries == null) {
+        return null;
+      }
+      seeds.putAll(libraries);
+    }
+    return seeds;
+  }
+
+  private static Map<VersionedIdentifier, CompiledLibrary> compileNode(
+      Node node,
+      Map<VersionedIdentifier, CompiledLibrary> seeds,
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes,
+      LibraryCompiler compiler) {
+    try {
+      Map<VersionedIdentifier, CompiledLibrary> allSeeds = new HashMap<>(compiledIncludes);
+      allSeeds.putAll(seeds);
+      CqlTranslator cqlTranslator = compiler.compile(wrapperCql(node), context, allSeeds);
+      if (!cqlTranslator.getExceptions().isEmpty()) {
+        log.debug(
+            "Included library [{}] left to the translation, it has [{}] errors or warnings",
+            node.name(),
+            cqlTranslator.getExceptions().size());
+        return null;
+      }
+      Map<VersionedIdentifier, CompiledLibrary> compiled = new HashMap<>();
+      cqlTranslator
+          .getTranslatedLibraries()
+          .forEach(
+              (identifier, library) -> {
+                if (!Objects.equals(identifier.getId(), WRAPPER_LIBRARY)) {
+                  compiled.put(identifier, library);
+                }
+              });
+      return compiled;
+    } catch (RuntimeException e) {
+      log.debug("Included library [{}] left to the translation", node.name(), e);
+      return null;
+    }
+  }
+
+  private static String wrapperCql(Node node) {
+    return "library "
+        + WRAPPER_LIBRARY
+        + " version '0.0.000'\n\ninclude "
+        + identifier(node.name())
+        + (node.version() == null ? "" : " version '" + node.version() + "'")
+        + "\n";
+  }
+
+  private static String identifier(String name) {
+    return PLAIN_IDENTIFIER.matcher(name).matches() ? name : "\"" + name + "\"";
+  }
+
+  private static String key(String name, String version) {
+    return name + "-" + version;
+  }
+
+  /**
+   * Runs the parts of a level on the calling thread and on the executor at once. Every part is
+   * offered to the executor, then the caller runs each part no worker has started and waits for the
+   * rest. Once the caller is interrupted the parts not started are skipped.
+   */
+  private static final class Parts {
+    private final Executor executor;
+    private final Thread caller = Thread.currentThread();
+    private final Map<String, String> mdc = MDC.getCopyOfContextMap();
+    private final ResourceUsage usage = ResourceUsage.current();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    private Parts(Executor executor) {
+      this.executor = executor;
+    }
+
+    <T> List<T> run(List<Supplier<T>> parts) {
+      List<FutureTask<T>> tasks =
+          parts.stream().map(part -> new FutureTask<>(() -> run(part))).toList();
+      // the caller takes the first part itself
+      for (int i = 1; i < tasks.size(); i++) {
+        try {
+          executor.execute(tasks.get(i));
+        } catch (RejectedExecutionException e) {
+          // no more idle workers, the caller runs the rest
+          break;
+        }
+      }
+      List<T> results = new ArrayList<>(tasks.size());
+      try {
+        for (FutureTask<T> task : tasks) {
+          TranslationCancellation.checkpoint();
+          // does nothing when a worker has started the part
+          task.run();
+        }
+        for (FutureTask<T> task : tasks) {
+          results.add(task.get());
+        }
+      } catch (InterruptedException e) {
+        cancelled.set(true);
+        Thread.currentThread().interrupt();
+        throw new CancellationException("Translation cancelled");
+      } catch (CancellationException e) {
+        cancelled.set(true);
+        throw e;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+      return results;
+    }
+
+    private <T> T run(Supplier<T> part) {
+      if (cancelled.get()) {
+        throw new CancellationException("Translation cancelled");
+      }
+      if (Thread.currentThread() == caller) {
+        return part.get();
+      }
+      if (mdc != null) {
+        MDC.setContextMap(mdc);
+      }
+      try {
+        return ResourceUsage.measure(usage, part);
+      } finally {
+        MDC.clear();
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.TranslationResource;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationCancellation;
+import gov.cms.mat.cql_elm_translation.config.profiling.RecordingCqlLibraryService;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStage;
+import gov.cms.mat.cql_elm_translation.config.profiling.TranslationStageEvents;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.LibrarySourceProvider;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.util.Map;
+
+/**
+ * Everything a translation needs beyond its CQL text: the parsed header and where and as whom to
+ * fetch included libraries. It is handed down explicitly rather than kept in thread locals, so a
+ * translation can run on any thread and several can run side by side in one request.
+ */
+public record TranslationContext(
+    CqlHeader cqlHeader, CqlLibraryService cqlLibraryService, String accessToken) {
+
+  /** Fetches go through a {@link RecordingCqlLibraryService} so they show up in recordings. */
+  public static TranslationContext of(
+      CqlHeader cqlHeader, CqlLibraryService cqlLibraryService, String accessToken) {
+    return new TranslationContext(
+        cqlHeader,
+        cqlLibraryService == null || cqlLibraryService instanceof RecordingCqlLibraryService
+            ? cqlLibraryService
+            : new RecordingCqlLibraryService(cqlLibraryService),
+        accessToken);
+  }
+
+  /** For CQL that is not expected to include other libraries, any include fails to resolve. */
+  public static TranslationContext withoutLibraries(CqlHeader cqlHeader) {
+    return new TranslationContext(cqlHeader, null, null);
+  }
+
+  /** A context whose compilations fetch each included library once between them. */
+  public TranslationContext fetchingOnce() {
+    if (cqlLibraryService == null || cqlLibraryService instanceof FetchOnceCqlLibraryService) {
+      return this;
+    }
+    return new TranslationContext(
+        cqlHeader, new FetchOnceCqlLibraryService(cqlLibraryService), accessToken);
+  }
+
+  public LibrarySourceProvider librarySourceProvider() {
+    return new ContextLibrarySourceProvider(this);
+  }
+
+  /**
+   * Makes the library manager of a translation resolve includes through this context, in place of
+   * the provider TranslationResource registers, which reads them from thread locals.
+   */
+  public void applyTo(LibraryManager libraryManager) {
+    libraryManager.getLibrarySourceLoader().clearProviders();
+    libraryManager.getLibrarySourceLoader().registerProvider(librarySourceProvider());
+  }
+
+  /**
+   * Compiles the request on the translation resource with the shared {@link TranslationModels},
+   * includes resolved through this context and the already compiled ones seeded in, then keeps the
+   * models the compilation had to build for the translations after it.
+   */
+  public CqlTranslator compile(
+      TranslationResource translationResource,
+      RequestData requestData,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes) {
+    LibraryManager libraryManager = translationResource.getLibraryManager();
+    TranslationModels.attach(libraryManager);
+    applyTo(libraryManager);
+    if (!compiledIncludes.isEmpty()) {
+      libraryManager.getCompiledLibraries().putAll(compiledIncludes);
+    }
+    CqlTranslator cqlTranslator =
+        TranslationStageEvents.record(
+            TranslationStage.COMPILE,
+            cqlHeader,
+            requestData.getCqlData(),
+            () -> translationResource.buildTranslator(requestData));
+    TranslationModels.retain(libraryManager);
+    TranslationCancellation.checkpoint();
+    return cqlTranslator;
+  }
+}
@@ -0,0 +1,95 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
+import org.fhir.ucum.UcumService;
+import org.hl7.cql.model.ModelIdentifier;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide models for the translator. {@code TranslationResource} builds a new model manager
+ * for every translation, which loads and indexes the model info of FHIR, QI-Core or QDM all over
+ * again, and a new library manager, which parses the UCUM essence for unit validation. Neither
+ * changes once built, so one copy of each model version and one UCUM service are kept here and
+ * handed to every translation, and only the managers themselves are created per call.
+ *
+ * <p>The warm-up translates a library of each model, so the registry is filled before the pod
+ * reports ready.
+ */
+@Slf4j
+public final class TranslationModels {
+
+  private static final Map<ModelIdentifier, Model> MODELS = new ConcurrentHashMap<>();
+  private static volatile UcumService ucumService;
+
+  private TranslationModels() {}
+
+  /** Seeds the shared models and UCUM service into the managers of a translation. */
+  public static void attach(LibraryManager libraryManager) {
+    libraryManager.getModelManager().getGlobalCache().putAll(MODELS);
+    UcumService ucum = ucumService();
+    if (ucum != null) {
+      libraryManager.setUcumService(ucum);
+    }
+  }
+
+  /** Keeps the models a translation had to build itself for the translations after it. */
+  public static void retain(LibraryManager libraryManager) {
+    libraryManager
+        .getModelManager()
+        .getGlobalCache()
+        .forEach(
+            (identifier, model) -> {
+              if (!MODELS.containsKey(identifier)) {
+                // the compiler's identifier may be changed later, the key must not be
+                ModelIdentifier key =
+                    new ModelIdentifier()
+                        .withSystem(identifier.getSystem())
+                        .withId(identifier.getId())
+                        .withVersion(identifier.getVersion());
+                if (MODELS.putIfAbsent(key, model) == null) {
+                  log.info("Sharing model [{}] version [{}]", key.getId(), key.getVersion());
+                }
+              }
+            });
+  }
+
+  static int modelCount() {
+    return MODELS.size();
+  }
+
+  static Map<ModelIdentifier, Model> models() {
+    return Map.copyOf(MODELS);
+  }
+
+  static void clear() {
+    MODELS.clear();
+    ucumService = null;
+  }
+
+  private static UcumService ucumService() {
+    UcumService ucum = ucumService;
+    if (ucum == null) {
+      synchronized (TranslationModels.class) {
+        ucum = ucumService;
+        if (ucum == null) {
+          try {
+            ucum =
+                new UcumEssenceService(
+                    UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+            ucumService = ucum;
+          } catch (UcumException e) {
+            // the library manager loads its own when asked to validate units
+            log.warn("Could not load shared UCUM service", e);
+          }
+        }
+      }
+    }
+    return ucum;
+  }
+}
@@ -0,0 +1,184 @@
+package gov.cms.mat.cql_elm_translation.bulk;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.controllers.CqlConversionController;
+import gov.cms.mat.cql_elm_translation.service.BatchTranslationService;
+import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.service.CqlSyntaxCheckService;
+import gov.cms.mat.cql_elm_translation.service.DataCriteriaService;
+import gov.cms.mat.cql_elm_translation.service.IncrementalTranslationService;
+import gov.cms.mat.cql_elm_translation.service.TranslatedLibraryService;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlSemanticException;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor.result;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkTranslationRunnerTest implements ResourceFileUtil {
+
+  private static final String HELPER = "library Helper version '1.0.000'\n";
+  private static final String MAIN =
+      "library Main version '1.0.000'\ninclude Helper version '1.0.000'\n";
+  private static final String BROKEN = "library Broken version '1.0.000'\n";
+
+  @TempDir Path input;
+  @TempDir Path output;
+
+  private final CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+
+  private CqlTranslator translator(String id, List<CqlCompilerException> exceptions) {
+    CompiledLibrary library = new CompiledLibrary();
+    library.setIdentifier(new VersionedIdentifier().withId(id));
+    CqlTranslator cqlTranslator = mock(CqlTranslator.class);
+    when(cqlTranslator.getTranslatedLibrary()).thenReturn(library);
+    when(cqlTranslator.getTranslatedLibraries()).thenReturn(Map.of());
+    when(cqlTranslator.getExceptions()).thenReturn(exceptions);
+    return cqlTranslator;
+  }
+
+  @Test
+  void translatesEveryFileAndWritesTheReport() throws Exception {
+    Files.writeString(input.resolve("Helper.cql"), HELPER);
+    Files.createDirectories(input.resolve("measures"));
+    Files.writeString(input.resolve("measures/Main.cql"), MAIN);
+    Files.writeString(input.resolve("measures/Broken.cql"), BROKEN);
+    Files.writeString(input.resolve("notes.txt"), "not cql");
+
+    CqlTranslator helper = translator("Helper", new ArrayList<>());
+    CqlTranslator main =
+        translator("Main", List.of(new CqlSemanticException("Could not resolve Foo")));
+    when(cqlConversionService.processCqlData(any(), any(), anyMap()))
+        .thenAnswer(
+            invocation -> {
+              String cql = ((RequestData) invocation.getArgument(0)).getCqlData();
+              if (cql.equals(BROKEN)) {
+                throw new IllegalStateException("translator crashed");
+              }
+              return cql.equals(MAIN) ? main : helper;
+            });
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenAnswer(
+            invocation ->
+                CqlConversionPayload.builder()
+                    .json(
+                        "{\"library\":\""
+                            + invocation
+                                .getArgument(2, CqlTranslator.class)
+                                .getTranslatedLibrary()
+                                .getIdentifier()
+                                .getId()
+                            + "\"}")
+                    .xml("<library/>")
+                    .build());
+
+    BulkTranslationRunner runner = new BulkTranslationRunner(cqlConversionService);
+    ReflectionTestUtils.setField(runner, "inputDir", input.toString());
+    ReflectionTestUtils.setField(runner, "outputDir", output.toString());
+    ReflectionTestUtils.setField(runner, "parallelism", 2);
+    runner.run(null);
+
+    assertThat(Files.readString(output.resolve("Helper.json")), is("{\"library\":\"Helper\"}"));
+    assertThat(
+        Files.readString(output.resolve("measures/Main.json")), is("{\"library\":\"Main\"}"));
+    assertThat(Files.readString(output.resolve("measures/Main.xml")), is("<library/>"));
+    assertFalse(Files.exists(output.resolve("measures/Broken.json")));
+
+    BulkTranslationReport report =
+        new ObjectMapper()
+            .readValue(
+                output.resolve(BulkTranslationRunner.REPORT_FILE).toFile(),
+                BulkTranslationReport.class);
+    assertThat(report.threads(), is(2));
+    assertThat(report.translated(), is(1));
+    assertThat(report.withErrors(), is(1));
+    assertThat(report.failed(), is(1));
+    // entries are in file order
+    BulkTranslationReport.Entry helperEntry = report.entries().get(0);
+    assertThat(helperEntry.file(), is("Helper.cql"));
+    assertThat(helperEntry.library(), is("Helper"));
+    assertThat(helperEntry.status(), is(BulkTranslationReport.Status.OK));
+    assertNull(helperEntry.firstError());
+    BulkTranslationReport.Entry brokenEntry = report.entries().get(1);
+    assertThat(brokenEntry.status(), is(BulkTranslationReport.Status.FAILED));
+    assertThat(brokenEntry.firstError(), is("translator crashed"));
+    BulkTranslationReport.Entry mainEntry = report.entries().get(2);
+    assertThat(mainEntry.status(), is(BulkTranslationReport.Status.ERRORS));
+    assertThat(mainEntry.errorCount(), is(1));
+    assertThat(mainEntry.firstError(), is("Could not resolve Foo"));
+  }
+
+  @Test
+  void writesTheSameJsonAsTheCqlEndpoint() throws Exception {
+    Files.writeString(input.resolve("Helper.cql"), HELPER);
+    String elm = getData("/fhir4_std_lib_errors_annotations.json");
+    CqlTranslator helper = translator("Helper", new ArrayList<>());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(helper);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenAnswer(invocation -> CqlConversionPayload.builder().json(elm).xml("").build());
+    when(cqlConversionService.processCqlDataWithErrors(any(), any()))
+        .thenAnswer(invocation -> CqlConversionPayload.builder().json(elm).build());
+    TranslationExecutor translationExecutor = mock(TranslationExecutor.class);
+    InlineTranslationExecutor.runInline(translationExecutor);
+    CqlConversionController controller =
+        new CqlConversionController(
+            cqlConversionService,
+            mock(CqlLibraryService.class),
+            translationExecutor,
+            mock(CqlSyntaxCheckService.class),
+            mock(IncrementalTranslationService.class),
+            mock(BatchTranslationService.class),
+            mock(DataCriteriaService.class),
+            mock(TranslatedLibraryService.class));
+
+    BulkTranslationRunner runner = new BulkTranslationRunner(cqlConversionService);
+    ReflectionTestUtils.setField(runner, "inputDir", input.toString());
+    ReflectionTestUtils.setField(runner, "outputDir", output.toString());
+    ReflectionTestUtils.setField(runner, "parallelism", 1);
+    runner.run(null);
+    CqlConversionPayload endpoint =
+        result(
+            controller.cqlToElmJson(
+                HELPER, null, false, true, true, true, true, false, true, true, "token", null, null,
+                null));
+
+    assertThat(Files.readString(output.resolve("Helper.json")), is(endpoint.getJson()));
+    assertFalse(endpoint.getJson().contains("translatorOptions"));
+  }
+
+  @Test
+  void includesAreResolvedFromTheInputDirectory() throws Exception {
+    Files.writeString(input.resolve("Helper.cql"), HELPER);
+    Files.writeString(input.resolve("Main.cql"), MAIN);
+
+    DirectoryCqlLibraryService libraries = new DirectoryCqlLibraryService(input);
+
+    assertThat(libraries.getFiles().size(), is(2));
+    assertThat(libraries.getLibraryCql("Helper", "1.0.000", ""), is(HELPER));
+    assertNull(libraries.getLibraryCql("Helper", "2.0.000", ""));
+  }
+}
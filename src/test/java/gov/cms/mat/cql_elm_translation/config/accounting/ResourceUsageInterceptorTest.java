@@ -0,0 +1,105 @@
+package gov.cms.mat.cql_elm_translation.config.accounting;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+class ResourceUsageInterceptorTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final MockHttpServletRequest request = new MockHttpServletRequest();
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private ResourceUsageInterceptor interceptor;
+
+  @BeforeEach
+  void setUp() {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    interceptor = new ResourceUsageInterceptor(beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(interceptor, "enabled", true);
+    request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/cql/translator/cql");
+  }
+
+  private static long allocate(int size) {
+    long sum = 0;
+    for (int i = 0; i < 100; i++) {
+      sum += new byte[size].length;
+    }
+    return sum;
+  }
+
+  @Test
+  void usageOfWorkOnOtherThreadsIsChargedToTheRequest() throws Exception {
+    interceptor.preHandle(request, response, null);
+    ResourceUsage usage = ResourceUsage.current();
+
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      CompletableFuture.supplyAsync(
+              () -> ResourceUsage.measure(usage, () -> allocate(1024 * 1024)), executor)
+          .get();
+    } finally {
+      executor.shutdownNow();
+    }
+    interceptor.afterCompletion(request, response, null, null);
+
+    assertThat(ResourceUsage.current(), is(nullValue()));
+    assertThat(usage.getAllocatedBytes(), greaterThan(100L * 1024 * 1024));
+    assertThat(
+        meterRegistry
+            .get("translation.request.allocated")
+            .tag("endpoint", "/cql/translator/cql")
+            .summary()
+            .totalAmount(),
+        is((double) usage.getAllocatedBytes()));
+    assertThat(
+        meterRegistry
+            .get("translation.request.cpu")
+            .tag("endpoint", "/cql/translator/cql")
+            .timer()
+            .count(),
+        is(1L));
+  }
+
+  @Test
+  void asyncDispatchContinuesTheSameUsage() throws Exception {
+    interceptor.preHandle(request, response, null);
+    ResourceUsage usage = (ResourceUsage) request.getAttribute(ResourceUsageInterceptor.USAGE);
+    interceptor.afterConcurrentHandlingStarted(request, response, null);
+    assertThat(ResourceUsage.current(), is(nullValue()));
+
+    request.setDispatcherType(DispatcherType.ASYNC);
+    interceptor.preHandle(request, response, null);
+    allocate(1024 * 1024);
+    interceptor.afterCompletion(request, response, null, null);
+
+    assertThat(request.getAttribute(ResourceUsageInterceptor.USAGE), is(usage));
+    assertThat(usage.getAllocatedBytes(), greaterThan(100L * 1024 * 1024));
+  }
+
+  @Test
+  void nothingIsRecordedWhenDisabled() throws Exception {
+    ReflectionTestUtils.setField(interceptor, "enabled", false);
+
+    interceptor.preHandle(request, response, null);
+    interceptor.afterCompletion(request, response, null, null);
+
+    assertThat(request.getAttribute(ResourceUsageInterceptor.USAGE), is(nullValue()));
+    assertThat(meterRegistry.find("translation.request.allocated").summary(), is(nullValue()));
+  }
+}
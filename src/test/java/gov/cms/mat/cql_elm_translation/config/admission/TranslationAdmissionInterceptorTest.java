@@ -0,0 +1,82 @@
+package gov.cms.mat.cql_elm_translation.config.admission;
+
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationLane;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationLaneClassifier;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranslationAdmissionInterceptorTest {
+
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private TranslationAdmissionInterceptor interceptor;
+
+  @BeforeEach
+  void setUp() {
+    TranslationLaneClassifier laneClassifier = new TranslationLaneClassifier();
+    ReflectionTestUtils.setField(laneClassifier, "batchPayloadBytes", 1024L);
+    interceptor =
+        new TranslationAdmissionInterceptor(
+            laneClassifier, new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(interceptor, "enabled", true);
+    ReflectionTestUtils.setField(interceptor, "capacity", 8);
+    ReflectionTestUtils.setField(interceptor, "batchShare", 0.25);
+    ReflectionTestUtils.setField(interceptor, "bytesPerUnit", 65536);
+    ReflectionTestUtils.setField(interceptor, "maxQueueDepth", 0);
+    ReflectionTestUtils.setField(interceptor, "maxQueueWaitMillis", 0L);
+    ReflectionTestUtils.setField(interceptor, "retryAfterSeconds", 5L);
+    ReflectionTestUtils.setField(interceptor, "heapShedRatio", 0.0);
+    interceptor.init();
+  }
+
+  private MockHttpServletRequest request(String uri) {
+    MockHttpServletRequest request = new MockHttpServletRequest("PUT", uri);
+    request.setContent("library Test".getBytes());
+    return request;
+  }
+
+  @Test
+  void lanesAreAdmittedAgainstBudgetsOfTheirOwn() {
+    assertThat(interceptor.getAdmission(TranslationLane.INTERACTIVE).getCapacity(), is(6));
+    assertThat(interceptor.getAdmission(TranslationLane.BATCH).getCapacity(), is(2));
+
+    MockHttpServletRequest first = request("/effective-data-requirements");
+    MockHttpServletRequest second = request("/effective-data-requirements");
+    assertTrue(interceptor.preHandle(first, response, null));
+    assertTrue(interceptor.preHandle(second, response, null));
+    assertThrows(
+        TranslationOverloadedException.class,
+        () -> interceptor.preHandle(request("/effective-data-requirements"), response, null));
+
+    // a saturated batch lane leaves editor requests alone
+    MockHttpServletRequest editor = request("/cql/translator/cql");
+    assertTrue(interceptor.preHandle(editor, response, null));
+    assertThat(interceptor.getAdmission(TranslationLane.INTERACTIVE).getUnitsInUse(), is(1));
+
+    interceptor.afterCompletion(first, response, null, null);
+    interceptor.afterCompletion(editor, response, null, null);
+    assertThat(interceptor.getAdmission(TranslationLane.BATCH).getUnitsInUse(), is(1));
+    assertThat(interceptor.getAdmission(TranslationLane.INTERACTIVE).getUnitsInUse(), is(0));
+  }
+
+  @Test
+  void priorityHeaderCannotMoveBatchWorkToTheInteractiveBudget() {
+    MockHttpServletRequest request = request("/effective-data-requirements");
+    request.addHeader(TranslationLane.PRIORITY_HEADER, "interactive");
+
+    interceptor.preHandle(request, response, null);
+
+    assertThat(interceptor.getAdmission(TranslationLane.BATCH).getUnitsInUse(), is(1));
+    assertThat(interceptor.getAdmission(TranslationLane.INTERACTIVE).getUnitsInUse(), is(0));
+  }
+}
@@ -0,0 +1,97 @@
+package gov.cms.mat.cql_elm_translation.config.admission;
+
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TranslationAdmissionTest {
+
+  @Test
+  void admitCapsCostAtCapacityAndReleases() {
+    TranslationAdmission admission = new TranslationAdmission(4, 0, 0, 5, 0, () -> 0);
+    int units = admission.admit(10);
+    assertThat(units, is(4));
+    assertThat(admission.getSaturation(), is(1.0));
+    admission.release(units);
+    assertThat(admission.getUnitsInUse(), is(0));
+  }
+
+  @Test
+  void admitRejectsWhenQueueIsFull() {
+    TranslationAdmission admission = new TranslationAdmission(2, 0, 1000, 7, 0, () -> 0);
+    admission.admit(2);
+    TranslationOverloadedException ex =
+        assertThrows(TranslationOverloadedException.class, () -> admission.admit(1));
+    assertThat(ex.getRetryAfterSeconds(), is(7L));
+  }
+
+  @Test
+  void admitRejectsAfterQueueWait() {
+    TranslationAdmission admission = new TranslationAdmission(2, 1, 10, 5, 0, () -> 0);
+    admission.admit(2);
+    assertThrows(TranslationOverloadedException.class, () -> admission.admit(1));
+    assertThat(admission.getQueueDepth(), is(0));
+  }
+
+  @Test
+  void admitShedsUnderHeapPressure() {
+    TranslationAdmission admission = new TranslationAdmission(2, 1, 10, 5, 0.9, () -> 0.95);
+    assertThrows(TranslationOverloadedException.class, () -> admission.admit(1));
+    assertThat(admission.getUnitsInUse(), is(0));
+  }
+
+  @Test
+  void queuedRequestIsAdmittedOnceCapacityIsReleased() throws Exception {
+    TranslationAdmission admission = new TranslationAdmission(2, 1, 5000, 5, 0, () -> 0);
+    int held = admission.admit(2);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch started = new CountDownLatch(1);
+      Future<Integer> queued =
+          executor.submit(
+              () -> {
+                started.countDown();
+                return admission.admit(1);
+              });
+      started.await();
+      admission.release(held);
+      assertEquals(1, queued.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void estimateCountsSizeAndIncludes() {
+    String cql =
+        "library Test version '1.0.000'\n"
+            + "using QICore version '4.1.1'\n"
+            + "include FHIRHelpers version '4.1.000' called FHIRHelpers\n"
+            + "  include SupplementalDataElements version '3.4.000' called SDE\n"
+            + "define \"include this\": true";
+    assertThat(TranslationCostEstimator.countIncludes(cql), is(2));
+    assertThat(TranslationCostEstimator.estimate(cql, -1, 65536), is(3));
+  }
+
+  @Test
+  void estimateCountsIncludesInJsonBody() {
+    String json = "{\"cql\": \"library Test\\ninclude FHIRHelpers version '4.1.000'\\n\"}";
+    assertThat(TranslationCostEstimator.countIncludes(json), is(1));
+  }
+
+  @Test
+  void estimateFallsBackToContentLength() {
+    assertThat(TranslationCostEstimator.estimate(null, 200_000, 65536), is(4));
+    assertThat(TranslationCostEstimator.estimate(null, -1, 65536), is(1));
+  }
+}
@@ -0,0 +1,34 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/** Stubs a mocked {@link TranslationExecutor} to run work on the calling thread. */
+public final class InlineTranslationExecutor {
+
+  private InlineTranslationExecutor() {}
+
+  /** Deferred results come back already set, with the result or the exception of the work. */
+  public static void runInline(TranslationExecutor translationExecutor) {
+    when(translationExecutor.defer(any(TranslationEndpoint.class), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              DeferredResult<Object> deferredResult = new DeferredResult<>();
+              try {
+                deferredResult.setResult(invocation.<Supplier<?>>getArgument(2).get());
+              } catch (RuntimeException e) {
+                deferredResult.setErrorResult(e);
+              }
+              return deferredResult;
+            });
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T> T result(DeferredResult<T> deferredResult) {
+    return (T) deferredResult.getResult();
+  }
+}
@@ -0,0 +1,453 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationSupersededException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationTimeoutException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranslationExecutorTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private TranslationExecutor translationExecutor;
+
+  @BeforeEach
+  void setUp() {
+    TranslationDeadlineConfig deadlineConfig = new TranslationDeadlineConfig();
+    deadlineConfig.setCqlToElmMillis(5000);
+    deadlineConfig.setCallstacksMillis(50);
+
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    TranslationLaneClassifier laneClassifier = new TranslationLaneClassifier();
+    ReflectionTestUtils.setField(laneClassifier, "batchPayloadBytes", 1024L);
+    translationExecutor =
+        new TranslationExecutor(
+            deadlineConfig, laneClassifier, beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(translationExecutor, "poolSize", 2);
+    ReflectionTestUtils.setField(translationExecutor, "queueCapacity", 2);
+    ReflectionTestUtils.setField(translationExecutor, "batchPoolSize", 1);
+    ReflectionTestUtils.setField(translationExecutor, "batchQueueCapacity", 0);
+    ReflectionTestUtils.setField(translationExecutor, "retryAfterSeconds", 5L);
+    ReflectionTestUtils.setField(translationExecutor, "revisionRetentionSeconds", 600L);
+    translationExecutor.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+    translationExecutor.shutdown();
+  }
+
+  /** Submits the work and waits for its outcome, failing with the exception of the work. */
+  private <T> T run(TranslationEndpoint endpoint, DocumentRevision revision, Supplier<T> work) {
+    CompletableFuture<T> future = translationExecutor.executeAsync(endpoint, revision, work);
+    try {
+      return future.get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException | TimeoutException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Work that spins until cancelled, counting down {@code started} once it runs. */
+  private static String spinUntilCancelled(CountDownLatch started) {
+    started.countDown();
+    while (true) {
+      TranslationCancellation.checkpoint();
+      Thread.onSpinWait();
+    }
+  }
+
+  @Test
+  void executeAsyncCompletesWithTheResultOfWork() {
+    assertThat(run(TranslationEndpoint.CQL_TO_ELM, null, () -> "elm"), is("elm"));
+  }
+
+  @Test
+  void executeAsyncFailsWithTheExceptionOfWork() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            run(
+                TranslationEndpoint.CQL_TO_ELM,
+                null,
+                () -> {
+                  throw new IllegalArgumentException("bad cql");
+                }));
+  }
+
+  @Test
+  void newerRevisionCancelsWorkForOlderRevision() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<String> older =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-1", 1),
+            () -> spinUntilCancelled(started));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    String result =
+        run(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-1", 2),
+            () -> "elm");
+
+    assertThat(result, is("elm"));
+    ExecutionException ex =
+        assertThrows(ExecutionException.class, () -> older.get(5, TimeUnit.SECONDS));
+    assertThat(ex.getCause(), instanceOf(TranslationSupersededException.class));
+    assertThat(((TranslationSupersededException) ex.getCause()).getRevision(), is(1L));
+    assertThat(
+        meterRegistry.counter("translation.superseded", "endpoint", "cql-to-elm").count(), is(1.0));
+  }
+
+  @Test
+  void olderRevisionIsRefusedWhileNewerRevisionRuns() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<String> newer =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-1", 5),
+            () -> spinUntilCancelled(started));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertThrows(
+        TranslationSupersededException.class,
+        () ->
+            run(
+                TranslationEndpoint.CALLSTACKS,
+                new DocumentRevision("user", "measure-1", 4),
+                () -> "callstacks"));
+    assertThat(
+        meterRegistry.counter("translation.superseded", "endpoint", "callstacks").count(), is(1.0));
+
+    // the same revision on another endpoint, and other documents, are not affected
+    assertThat(
+        run(
+            TranslationEndpoint.CALLSTACKS,
+            new DocumentRevision("user", "measure-1", 5),
+            () -> "callstacks"),
+        is("callstacks"));
+    assertThat(
+        run(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-2", 1),
+            () -> "elm"),
+        is("elm"));
+    newer.cancel(true);
+  }
+
+  @Test
+  void olderRevisionIsRefusedAfterTheNewerRevisionCompleted() {
+    assertThat(
+        run(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-1", 3),
+            () -> "elm"),
+        is("elm"));
+
+    assertThrows(
+        TranslationSupersededException.class,
+        () ->
+            run(
+                TranslationEndpoint.CQL_TO_ELM,
+                new DocumentRevision("user", "measure-1", 2),
+                () -> "elm"));
+
+    // forgotten once idle past the retention
+    ReflectionTestUtils.setField(translationExecutor, "revisionRetentionSeconds", 0L);
+    translationExecutor.forgetIdleDocuments();
+    assertThat(translationExecutor.documentCount(), is(0));
+  }
+
+  @Test
+  void sameDocumentOfAnotherCallerIsNotSuperseded() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> first =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("alice", "measure-1", 1),
+            () -> {
+              started.countDown();
+              try {
+                release.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return "alice";
+            });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertThat(
+        run(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("bob", "measure-1", 2),
+            () -> "bob"),
+        is("bob"));
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS), is("alice"));
+    assertThat(
+        meterRegistry.counter("translation.superseded", "endpoint", "cql-to-elm").count(), is(0.0));
+  }
+
+  @Test
+  void saturatedBatchLaneDoesNotHoldUpInteractiveWork() throws Exception {
+    deadlineConfigFor(translationExecutor).setEffectiveDataRequirementsMillis(5000);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> heavy =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.EFFECTIVE_DATA_REQUIREMENTS,
+            null,
+            () -> {
+              started.countDown();
+              try {
+                release.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return "requirements";
+            });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // the single batch worker is busy and the batch lane has no queue
+    assertThrows(
+        TranslationOverloadedException.class,
+        () -> run(TranslationEndpoint.EFFECTIVE_DATA_REQUIREMENTS, null, () -> "requirements"));
+    assertThat(run(TranslationEndpoint.CQL_TO_ELM, null, () -> "elm"), is("elm"));
+
+    release.countDown();
+    assertThat(heavy.get(5, TimeUnit.SECONDS), is("requirements"));
+    assertThat(
+        meterRegistry.get("translation.lane.latency").tag("lane", "interactive").timer().count(),
+        is(1L));
+    assertThat(
+        meterRegistry.get("translation.lane.queue.wait").tag("lane", "batch").timer().count(),
+        is(1L));
+  }
+
+  @Test
+  void priorityHeaderMovesWorkToTheBatchLane() {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(TranslationLane.PRIORITY_HEADER, "batch");
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+    String thread =
+        run(TranslationEndpoint.CQL_TO_ELM, null, () -> Thread.currentThread().getName());
+
+    assertThat(thread.startsWith("translation-batch-"), is(true));
+  }
+
+  @Test
+  void laneHelpersHandPartsToIdleWorkersOfTheLane() {
+    assertThrows(
+        RejectedExecutionException.class,
+        () -> TranslationExecutor.laneHelpers().execute(() -> {}));
+
+    String helper =
+        run(
+            TranslationEndpoint.CQL_TO_ELM,
+            null,
+            () -> {
+              FutureTask<String> part = new FutureTask<>(() -> Thread.currentThread().getName());
+              TranslationExecutor.laneHelpers().execute(part);
+              try {
+                return part.get(5, TimeUnit.SECONDS);
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+
+    assertThat(helper.startsWith("translation-interactive-"), is(true));
+  }
+
+  @Test
+  void laneHelpersRejectPartsInsteadOfQueueingThem() throws Exception {
+    CountDownLatch partStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> future =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CQL_TO_ELM,
+            null,
+            () -> {
+              try {
+                // takes the other worker of the lane
+                TranslationExecutor.laneHelpers()
+                    .execute(
+                        () -> {
+                          partStarted.countDown();
+                          awaitQuietly(release);
+                        });
+                partStarted.await(5, TimeUnit.SECONDS);
+                TranslationExecutor.laneHelpers().execute(() -> {});
+                return "handed out";
+              } catch (RejectedExecutionException e) {
+                return "rejected";
+              } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+
+    try {
+      assertThat(future.get(5, TimeUnit.SECONDS), is("rejected"));
+      assertThat(laneGauge("translation.lane.queued"), is(0.0));
+      assertThat(laneGauge("translation.lane.active"), is(1.0));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  private double laneGauge(String name) {
+    return meterRegistry.get(name).tag("lane", "interactive").gauge().value();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void executeAsyncDoesNotHoldTheCaller() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> future =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CQL_TO_ELM,
+            null,
+            () -> {
+              try {
+                release.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return "elm";
+            });
+
+    assertFalse(future.isDone());
+    release.countDown();
+    assertThat(future.get(5, TimeUnit.SECONDS), is("elm"));
+  }
+
+  @Test
+  void executeAsyncCancelsWorkAfterDeadline() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    CompletableFuture<String> future =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CALLSTACKS,
+            null,
+            () -> {
+              try {
+                return spinUntilCancelled(started);
+              } catch (CancellationException e) {
+                cancelled.countDown();
+                throw e;
+              }
+            });
+
+    ExecutionException ex =
+        assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    assertThat(ex.getCause(), instanceOf(TranslationTimeoutException.class));
+    TranslationTimeoutException timeout = (TranslationTimeoutException) ex.getCause();
+    assertThat(timeout.getEndpoint(), is("callstacks"));
+    assertThat(timeout.getDeadlineMillis(), is(50L));
+    assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    assertThat(
+        meterRegistry.counter("translation.timeouts", "endpoint", "callstacks").count(), is(1.0));
+  }
+
+  @Test
+  void cancellingTheAsyncResultCancelsWork() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    CompletableFuture<String> future =
+        translationExecutor.executeAsync(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-1", 1),
+            () -> {
+              try {
+                return spinUntilCancelled(started);
+              } catch (CancellationException e) {
+                cancelled.countDown();
+                throw e;
+              }
+            });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    future.cancel(true);
+
+    assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    // the cancelled work no longer counts as running for the document
+    assertThat(
+        run(
+            TranslationEndpoint.CQL_TO_ELM,
+            new DocumentRevision("user", "measure-1", 1),
+            () -> "elm"),
+        is("elm"));
+  }
+
+  @Test
+  void deferAnswersWithTheResultOrTheErrorOfTheWork() throws InterruptedException {
+    DeferredResult<String> succeeded =
+        translationExecutor.defer(TranslationEndpoint.CQL_TO_ELM, null, () -> "elm");
+    DeferredResult<String> failed =
+        translationExecutor.defer(
+            TranslationEndpoint.CQL_TO_ELM,
+            null,
+            () -> {
+              throw new IllegalArgumentException("bad cql");
+            });
+
+    awaitResult(succeeded);
+    awaitResult(failed);
+    assertThat(succeeded.getResult(), is("elm"));
+    assertThat(failed.getResult(), instanceOf(IllegalArgumentException.class));
+  }
+
+  private static void awaitResult(DeferredResult<?> deferredResult) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!deferredResult.hasResult() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(deferredResult.hasResult());
+  }
+
+  private static TranslationDeadlineConfig deadlineConfigFor(TranslationExecutor executor) {
+    return (TranslationDeadlineConfig) ReflectionTestUtils.getField(executor, "deadlineConfig");
+  }
+}
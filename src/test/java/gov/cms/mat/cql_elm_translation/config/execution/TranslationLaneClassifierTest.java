@@ -0,0 +1,104 @@
+package gov.cms.mat.cql_elm_translation.config.execution;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class TranslationLaneClassifierTest {
+
+  private final TranslationLaneClassifier classifier = new TranslationLaneClassifier();
+  private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(classifier, "batchPayloadBytes", 10L);
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+  }
+
+  @AfterEach
+  void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  void smallEditorRequestsAreInteractive() {
+    request.setContent("define".getBytes());
+    assertThat(
+        classifier.classify(TranslationEndpoint.CQL_TO_ELM), is(TranslationLane.INTERACTIVE));
+  }
+
+  @Test
+  void largeRequestsAndHeavyEndpointsAreBatch() {
+    assertThat(
+        classifier.classify(TranslationEndpoint.EFFECTIVE_DATA_REQUIREMENTS),
+        is(TranslationLane.BATCH));
+    request.setContent("library Large version '1.0.000'".getBytes());
+    assertThat(classifier.classify(TranslationEndpoint.CQL_TO_ELM), is(TranslationLane.BATCH));
+  }
+
+  @Test
+  void priorityHeaderMovesWorkToTheBatchLane() {
+    request.addHeader(TranslationLane.PRIORITY_HEADER, "Batch");
+    assertThat(classifier.classify(TranslationEndpoint.CQL_TO_ELM), is(TranslationLane.BATCH));
+  }
+
+  @Test
+  void priorityHeaderDoesNotRaiseBatchWork() {
+    request.addHeader(TranslationLane.PRIORITY_HEADER, "Interactive");
+    assertThat(
+        classifier.classify(TranslationEndpoint.EFFECTIVE_DATA_REQUIREMENTS),
+        is(TranslationLane.BATCH));
+    request.setContent("library Large version '1.0.000'".getBytes());
+    assertThat(classifier.classify(TranslationEndpoint.CQL_TO_ELM), is(TranslationLane.BATCH));
+  }
+
+  @Test
+  void workRunsInTheLaneItsRequestWasAdmittedTo() {
+    request.setContextPath("/api/fhir");
+    request.setRequestURI("/api/fhir/effective-data-requirements");
+
+    assertThat(classifier.classify(request), is(TranslationLane.BATCH));
+    assertThat(classifier.classify(TranslationEndpoint.CQL_TO_ELM), is(TranslationLane.BATCH));
+  }
+
+  @Test
+  void wholeMeasureTranslationsAreBatch() {
+    request.setContextPath("/api/fhir");
+    request.setRequestURI("/api/fhir/cql/translator/measure");
+    request.setContent("define".getBytes());
+
+    assertThat(classifier.classify(request), is(TranslationLane.BATCH));
+    assertThat(classifier.classify(TranslationEndpoint.CQL_TO_ELM), is(TranslationLane.BATCH));
+  }
+
+  @Test
+  void libraryTreeArtifactsAreBatch() {
+    request.setContextPath("/api/fhir");
+    request.setRequestURI("/api/fhir/cql/translator/cql/libraries");
+
+    assertThat(classifier.classify(request), is(TranslationLane.BATCH));
+  }
+
+  @Test
+  void editorTranslationsAreNotMatchedAsMeasures() {
+    request.setContextPath("/api/fhir");
+    request.setRequestURI("/api/fhir/cql/translator/cql");
+    request.setContent("define".getBytes());
+
+    assertThat(classifier.classify(request), is(TranslationLane.INTERACTIVE));
+  }
+
+  @Test
+  void workOutsideARequestIsInteractive() {
+    RequestContextHolder.resetRequestAttributes();
+    assertThat(
+        classifier.classify(TranslationEndpoint.CALLSTACKS), is(TranslationLane.INTERACTIVE));
+  }
+}
@@ -0,0 +1,60 @@
+package gov.cms.mat.cql_elm_translation.config.logging;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogInterceptorTest {
+
+  private final MockHttpServletRequest request =
+      new MockHttpServletRequest("PUT", "/api/fhir/cql/translator/measure");
+  private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+  private final Logger audit = (Logger) LoggerFactory.getLogger("action_audit");
+
+  @BeforeEach
+  void setUp() {
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    appender.start();
+    audit.addAppender(appender);
+  }
+
+  @AfterEach
+  void tearDown() {
+    audit.detachAppender(appender);
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  void auditLineNamesTheLibraryAndMeasure() {
+    AuditSubject.library(CqlHeader.parse("library TestLibrary version '1.0.000'\n"));
+    AuditSubject.measure("measure-1");
+
+    new LogInterceptor().afterCompletion(request, new MockHttpServletResponse(), null, null);
+
+    assertEquals(
+        "User [] called [PUT] on path [/api/fhir/cql/translator/measure] for library [TestLibrary"
+            + " 1.0.000] of measure [measure-1] and got response code [200]",
+        appender.list.get(0).getFormattedMessage());
+  }
+
+  @Test
+  void auditLineWithoutSubjectIsUnchanged() {
+    new LogInterceptor().afterCompletion(request, new MockHttpServletResponse(), null, null);
+
+    assertEquals(
+        "User [] called [PUT] on path [/api/fhir/cql/translator/measure] and got response code"
+            + " [200]",
+        appender.list.get(0).getFormattedMessage());
+  }
+}
@@ -0,0 +1,106 @@
+package gov.cms.mat.cql_elm_translation.config.profiling;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TranslationRecordingEndpointTest {
+
+  private TranslationRecordingEndpoint endpoint;
+
+  @BeforeEach
+  void setUp() {
+    endpoint = new TranslationRecordingEndpoint(new DefaultResourceLoader());
+    ReflectionTestUtils.setField(endpoint, "enabled", true);
+    ReflectionTestUtils.setField(endpoint, "settings", "classpath:jfr/translation.jfc");
+    ReflectionTestUtils.setField(endpoint, "maxAgeMinutes", 5L);
+    ReflectionTestUtils.setField(endpoint, "maxSizeBytes", 10_000_000L);
+  }
+
+  @AfterEach
+  void tearDown() {
+    endpoint.stop();
+  }
+
+  private List<RecordedEvent> stageEvents() throws Exception {
+    WebEndpointResponse<Resource> response = endpoint.dump();
+    assertThat(response.getStatus(), is(200));
+    return RecordingFile.readAllEvents(response.getBody().getFile().toPath()).stream()
+        .filter(event -> event.getEventType().getName().equals(TranslationStageEvent.NAME))
+        .toList();
+  }
+
+  private static String describe(RecordedEvent event) {
+    return String.join(
+        "|",
+        event.getString("stage"),
+        event.getString("library"),
+        event.getString("version"),
+        String.valueOf(event.getLong("cqlSize")),
+        event.getString("outcome"));
+  }
+
+  @Test
+  void stagesAreRecordedWithLibraryAndOutcome() throws Exception {
+    endpoint.start();
+
+    TranslationStageEvents.record(
+        TranslationStage.COMPILE, "OpioidData", "1.0.000", 42, () -> "elm");
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            TranslationStageEvents.record(
+                TranslationStage.ANNOTATION_FILTER,
+                "OpioidData",
+                "1.0.000",
+                42,
+                () -> {
+                  throw new IllegalStateException("bad annotation");
+                }));
+
+    List<String> events =
+        stageEvents().stream().map(TranslationRecordingEndpointTest::describe).toList();
+    assertThat(events, hasItem("compile|OpioidData|1.0.000|42|ok"));
+    assertThat(events, hasItem("annotation-filter|OpioidData|1.0.000|42|error"));
+  }
+
+  @Test
+  void libraryFetchesAreRecorded() throws Exception {
+    endpoint.start();
+    CqlLibraryService delegate = mock(CqlLibraryService.class);
+    when(delegate.getLibraryCql("FHIRHelpers", "4.1.000", "token")).thenReturn("library x");
+
+    new RecordingCqlLibraryService(delegate).getLibraryCql("FHIRHelpers", "4.1.000", "token");
+    new RecordingCqlLibraryService(delegate).getLibraryCql("Missing", "1.0.000", "token");
+
+    List<String> events =
+        stageEvents().stream().map(TranslationRecordingEndpointTest::describe).toList();
+    assertThat(events, hasItem("library-fetch|FHIRHelpers|4.1.000|9|ok"));
+    assertThat(events, hasItem("library-fetch|Missing|1.0.000|0|error"));
+  }
+
+  @Test
+  void dumpIsNotFoundWhenRecordingIsDisabled() throws Exception {
+    ReflectionTestUtils.setField(endpoint, "enabled", false);
+    endpoint.start();
+
+    assertThat(endpoint.isRecording(), is(false));
+    assertThat(endpoint.dump().getStatus(), is(404));
+  }
+}
@@ -76,4 +76,33 @@ class SecurityFilterTest {
     securityFilter.doFilter(servletRequest, servletResponse, filterChain);
     assertEquals(200, servletResponse.getStatus());
   }
+
+  @Test
+  void testDoFilterIfReadinessProbeIsWhiteListed() throws ServletException, IOException {
+    filterChain = mock(FilterChain.class);
+    servletRequest.setRequestURI("/actuator/health/readiness");
+    servletRequest.setMethod("GET");
+    securityFilter.doFilter(servletRequest, servletResponse, filterChain);
+    assertEquals(200, servletResponse.getStatus());
+  }
+
+  @Test
+  void testDoFilterIfReadinessProbeUnderContextPathIsWhiteListed()
+      throws ServletException, IOException {
+    filterChain = mock(FilterChain.class);
+    servletRequest.setContextPath("/api/fhir");
+    servletRequest.setRequestURI("/api/fhir/actuator/health/readiness");
+    servletRequest.setMethod("GET");
+    securityFilter.doFilter(servletRequest, servletResponse, filterChain);
+    assertEquals(200, servletResponse.getStatus());
+  }
+
+  @Test
+  void testDoFilterForHealthPathOutsideContextPath() throws ServletException, IOException {
+    servletRequest.setContextPath("/api/fhir");
+    servletRequest.setRequestURI("/api/fhir/cql/actuator/health");
+    servletRequest.setMethod("GET");
+    securityFilter.doFilter(servletRequest, servletResponse, filterChain);
+    assertEquals(403, servletResponse.getStatus());
+  }
 }
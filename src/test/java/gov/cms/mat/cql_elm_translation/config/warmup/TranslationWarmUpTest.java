@@ -0,0 +1,71 @@
+package gov.cms.mat.cql_elm_translation.config.warmup;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.service.CqlParsingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TranslationWarmUpTest {
+
+  @Mock private CqlConversionService cqlConversionService;
+  @Mock private CqlParsingService cqlParsingService;
+  @Mock private CqlLibraryService cqlLibraryService;
+  @InjectMocks private TranslationWarmUp translationWarmUp;
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(translationWarmUp, "enabled", true);
+    ReflectionTestUtils.setField(translationWarmUp, "corpusLocation", "classpath*:warmup/*.cql");
+    ReflectionTestUtils.setField(translationWarmUp, "iterations", 2);
+  }
+
+  @Test
+  void runTranslatesBundledCorpusForEachIteration() {
+    WarmUpHealthIndicator healthIndicator = new WarmUpHealthIndicator(translationWarmUp);
+    assertThat(healthIndicator.health().getStatus(), is(Status.OUT_OF_SERVICE));
+
+    translationWarmUp.run();
+
+    assertThat(translationWarmUp.getState(), is(TranslationWarmUp.State.COMPLETE));
+    assertThat(translationWarmUp.getTranslations(), is(6));
+    verify(cqlConversionService, times(6)).processCqlDataWithErrors(any(), any());
+    verify(cqlParsingService, times(6)).getCqlBuilderLookups(anyString(), anyString());
+    assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+  }
+
+  @Test
+  void runMarksPodReadyWhenWarmUpFails() {
+    when(cqlConversionService.processCqlDataWithErrors(any(), any()))
+        .thenThrow(new IllegalStateException("boom"));
+
+    translationWarmUp.run();
+
+    assertThat(translationWarmUp.getState(), is(TranslationWarmUp.State.FAILED));
+    assertThat(new WarmUpHealthIndicator(translationWarmUp).health().getStatus(), is(Status.UP));
+  }
+
+  @Test
+  void startDoesNothingWhenDisabled() {
+    ReflectionTestUtils.setField(translationWarmUp, "enabled", false);
+
+    translationWarmUp.start();
+
+    assertThat(translationWarmUp.getState(), is(TranslationWarmUp.State.DISABLED));
+  }
+}
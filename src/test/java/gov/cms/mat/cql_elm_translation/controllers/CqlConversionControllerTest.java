@@ -1,13 +1,30 @@
 package gov.cms.mat.cql_elm_translation.controllers;
 
+import static gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor.result;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 
 import java.io.UncheckedIOException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.Set;
+import java.nio.charset.StandardCharsets;
 
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
 import org.junit.jupiter.api.Test;
@@ -23,9 +40,22 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
 import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
 import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationResult;
+import gov.cms.mat.cql_elm_translation.service.BatchTranslationService;
+import gov.cms.mat.cql_elm_translation.service.CqlSyntaxCheckService;
+import gov.cms.mat.cql_elm_translation.service.DataCriteriaService;
+import gov.cms.madie.models.measure.Measure;
+import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.mat.cql_elm_translation.service.IncrementalTranslationService;
+import gov.cms.mat.cql_elm_translation.service.TranslatedLibraryService;
+import gov.cms.madie.models.dto.TranslatedLibrary;
+import java.util.List;
 
 @ExtendWith(MockitoExtension.class)
 class CqlConversionControllerTest implements ResourceFileUtil {
@@ -33,6 +63,12 @@ class CqlConversionControllerTest implements ResourceFileUtil {
 
   @Mock private CqlConversionService cqlConversionService;
   @Mock private CqlLibraryService cqlLibraryService;
+  @Mock private TranslationExecutor translationExecutor;
+  @Mock private CqlSyntaxCheckService cqlSyntaxCheckService;
+  @Mock private IncrementalTranslationService incrementalTranslationService;
+  @Mock private BatchTranslationService batchTranslationService;
+  @Mock private DataCriteriaService dataCriteriaService;
+  @Mock private TranslatedLibraryService translatedLibraryService;
   @InjectMocks private CqlConversionController cqlConversionController;
 
   @Test
@@ -40,15 +76,232 @@ class CqlConversionControllerTest implements ResourceFileUtil {
     String cqlData = getData("/cv_populations.cql");
     String result = getData("/cv_populations.json");
     CqlConversionPayload payload = CqlConversionPayload.builder().json(result).build();
-    Mockito.when(cqlConversionService.processCqlDataWithErrors(any(RequestData.class)))
+    Mockito.when(
+            cqlConversionService.processCqlDataWithErrors(
+                any(RequestData.class), any(TranslationContext.class)))
+        .thenReturn(payload);
+    InlineTranslationExecutor.runInline(translationExecutor);
+
+    CqlConversionPayload cqlConversionPayload =
+        result(
+            cqlConversionController.cqlToElmJson(
+                cqlData, null, true, true, true, true, true, true, true, true, "test", null, null,
+                null));
+
+    assertEquals(result, cqlConversionPayload.getJson());
+    Mockito.verify(cqlConversionService).processCqlDataWithErrors(any(), any());
+  }
+
+  @Test
+  void cqlToTranslatedLibraries() {
+    String cqlData = getData("/cv_populations.cql");
+    List<TranslatedLibrary> translatedLibraries =
+        List.of(TranslatedLibrary.builder().name("TestCVPopulations").build());
+    Mockito.when(
+            translatedLibraryService.translateLibraries(
+                any(RequestData.class), any(TranslationContext.class)))
+        .thenReturn(translatedLibraries);
+    InlineTranslationExecutor.runInline(translationExecutor);
+
+    assertEquals(
+        translatedLibraries,
+        result(
+            cqlConversionController.cqlToTranslatedLibraries(
+                cqlData, null, true, true, true, true, true, true, true, "test")));
+    Mockito.verifyNoInteractions(cqlConversionService);
+  }
+
+  @Test
+  void cqlToElmJsonWithDocumentIdIsIncremental() {
+    String cqlData = getData("/cv_populations.cql");
+    String result = getData("/cv_populations.json");
+    CqlConversionPayload payload = CqlConversionPayload.builder().json(result).build();
+    Mockito.when(
+            incrementalTranslationService.translate(
+                eq("user-1"),
+                eq("measure-1"),
+                any(RequestData.class),
+                any(TranslationContext.class)))
         .thenReturn(payload);
+    InlineTranslationExecutor.runInline(translationExecutor);
 
     CqlConversionPayload cqlConversionPayload =
-        cqlConversionController.cqlToElmJson(
-            cqlData, null, true, true, true, true, true, true, true, true, "test");
+        result(
+            cqlConversionController.cqlToElmJson(
+                cqlData,
+                null,
+                true,
+                true,
+                true,
+                true,
+                true,
+                true,
+                true,
+                true,
+                "test",
+                "measure-1",
+                3L,
+                () -> "user-1"));
 
     assertEquals(result, cqlConversionPayload.getJson());
-    Mockito.verify(cqlConversionService).processCqlDataWithErrors(any());
+    Mockito.verifyNoInteractions(cqlConversionService);
+  }
+
+  @Test
+  void measureToElmJsonPrunesToTheMeasuresDefinitions() {
+    Measure measure = Measure.builder().cql(getData("/cv_populations.cql")).build();
+    String result = getData("/cv_populations.json");
+    Mockito.when(dataCriteriaService.getUsedDefinitionsFromMeasure(measure))
+        .thenReturn(Set.of("Initial Population"));
+    Mockito.when(
+            cqlConversionService.processCqlDataWithErrors(
+                any(RequestData.class),
+                any(TranslationContext.class),
+                eq(Set.of("Initial Population"))))
+        .thenReturn(CqlConversionPayload.builder().json(result).build());
+    InlineTranslationExecutor.runInline(translationExecutor);
+
+    CqlConversionPayload cqlConversionPayload =
+        result(
+            cqlConversionController.measureToElmJson(
+                measure, true, null, true, true, true, true, true, true, true, true, "test", null,
+                null, null));
+
+    assertEquals(result, cqlConversionPayload.getJson());
+    Mockito.verify(cqlConversionService, Mockito.never()).processCqlDataWithErrors(any(), any());
+  }
+
+  @Test
+  void measureToElmJsonWithoutPruning() {
+    Measure measure = Measure.builder().cql(getData("/cv_populations.cql")).build();
+    Mockito.when(
+            cqlConversionService.processCqlDataWithErrors(
+                any(RequestData.class), any(TranslationContext.class)))
+        .thenReturn(CqlConversionPayload.builder().json(getData("/cv_populations.json")).build());
+    InlineTranslationExecutor.runInline(translationExecutor);
+
+    result(
+        cqlConversionController.measureToElmJson(
+            measure, false, null, true, true, true, true, true, true, true, true, "test", null,
+            null, null));
+
+    Mockito.verifyNoInteractions(dataCriteriaService);
+  }
+
+  @Test
+  void measureToElmJsonNamingNoDefinitionsIsNotPruned() {
+    Measure measure = Measure.builder().cql(getData("/cv_populations.cql")).build();
+    Mockito.when(dataCriteriaService.getUsedDefinitionsFromMeasure(measure)).thenReturn(Set.of());
+    Mockito.when(
+            cqlConversionService.processCqlDataWithErrors(
+                any(RequestData.class), any(TranslationContext.class)))
+        .thenReturn(CqlConversionPayload.builder().json(getData("/cv_populations.json")).build());
+    InlineTranslationExecutor.runInline(translationExecutor);
+
+    result(
+        cqlConversionController.measureToElmJson(
+            measure, true, null, true, true, true, true, true, true, true, true, "test", null, null,
+            null));
+
+    Mockito.verify(cqlConversionService, Mockito.never())
+        .processCqlDataWithErrors(any(), any(), any());
+  }
+
+  @Test
+  void measureToElmJsonWithoutCqlIsRejected() {
+    Measure measure = Measure.builder().build();
+
+    assertThrows(
+        CqlFormatException.class,
+        () ->
+            cqlConversionController.measureToElmJson(
+                measure, true, null, true, true, true, true, true, true, true, true, "test", null,
+                null, null));
+    Mockito.verifyNoInteractions(translationExecutor);
+  }
+
+  @Test
+  void cqlToElmBatchStreamsOneLinePerItem() throws Exception {
+    Mockito.when(batchTranslationService.getTimeoutMillis()).thenReturn(60000L);
+    Future<?> batch = new CompletableFuture<>();
+    Mockito.doAnswer(
+            invocation -> {
+              Consumer<BatchTranslationResult> sink = invocation.getArgument(3);
+              Consumer<Throwable> whenDone = invocation.getArgument(4);
+              sink.accept(
+                  BatchTranslationResult.builder()
+                      .id("2")
+                      .status(BatchTranslationResult.Status.ERROR)
+                      .error("failed")
+                      .build());
+              sink.accept(
+                  BatchTranslationResult.builder()
+                      .id("1")
+                      .status(BatchTranslationResult.Status.OK)
+                      .json("{\"library\":{}}")
+                      .xml("<library/>")
+                      .build());
+              whenDone.accept(null);
+              return batch;
+            })
+        .when(batchTranslationService)
+        .start(any(), any(RequestData.class), eq("test"), any(), any());
+    MockMvc mockMvc = MockMvcBuilders.standaloneSetup(cqlConversionController).build();
+
+    MvcResult started =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.post("/cql/translator/cql/batch")
+                    .header(HttpHeaders.AUTHORIZATION, "test")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"id\":\"1\",\"cql\":\"cql\"},{\"id\":\"2\",\"cql\":\"cql\"}]"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    MvcResult result = mockMvc.perform(asyncDispatch(started)).andReturn();
+
+    String[] lines = result.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(2, lines.length);
+    assertEquals(
+        "{\"id\":\"2\",\"status\":\"ERROR\",\"error\":\"failed\",\"durationMillis\":0}", lines[0]);
+    assertEquals(
+        "{\"id\":\"1\",\"status\":\"OK\",\"json\":{\"library\":{}},\"durationMillis\":0}",
+        lines[1]);
+    Mockito.verify(batchTranslationService).getTimeoutMillis();
+  }
+
+  @Test
+  void cqlToElmBatchCancelsTheBatchWhenTheResponseEnds() throws Exception {
+    Mockito.when(batchTranslationService.getTimeoutMillis()).thenReturn(60000L);
+    Future<?> batch = Mockito.mock(Future.class);
+    Mockito.doReturn(batch)
+        .when(batchTranslationService)
+        .start(any(), any(RequestData.class), eq("test"), any(), any());
+    MockMvc mockMvc = MockMvcBuilders.standaloneSetup(cqlConversionController).build();
+
+    MvcResult started =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.post("/cql/translator/cql/batch")
+                    .header(HttpHeaders.AUTHORIZATION, "test")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"id\":\"1\",\"cql\":\"cql\"}]"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    // the client never reads the response and it times out
+    ((MockAsyncContext) started.getRequest().getAsyncContext())
+        .getListeners()
+        .get(0)
+        .onTimeout(null);
+
+    Mockito.verify(batch, Mockito.atLeastOnce()).cancel(true);
+  }
+
+  @Test
+  void cqlSyntaxCheck() {
+    CqlConversionPayload payload = CqlConversionPayload.builder().json("{}").build();
+    Mockito.when(cqlSyntaxCheckService.checkSyntax("cql")).thenReturn(payload);
+
+    assertEquals(payload, cqlConversionController.cqlSyntaxCheck("cql"));
   }
 
   @Test
@@ -1,39 +1,60 @@
 package gov.cms.mat.cql_elm_translation.controllers;
 
 import gov.cms.madie.cql_elm_translator.dto.CqlBuilderLookup;
+import gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationLaneClassifier;
+import gov.cms.mat.cql_elm_translation.dto.CallstackGraph;
 import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
 import gov.cms.mat.cql_elm_translation.service.CqlParsingService;
 import gov.cms.mat.cql_elm_translation.service.DataCriteriaService;
 import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 
 @WebMvcTest({CqlToolsController.class})
+@Import(TranslationLaneClassifier.class)
 public class CqlToolsControllerMvcTest {
   private static final String TEST_USER_ID = "john_doe";
   @MockBean private DataCriteriaService dataCriteriaService;
   @MockBean private CqlConversionService cqlConversionService;
   @MockBean private CqlParsingService cqlParsingService;
+  @MockBean private TranslationExecutor translationExecutor;
 
   @Autowired private MockMvc mockMvc;
 
+  @BeforeEach
+  void setUp() {
+    InlineTranslationExecutor.runInline(translationExecutor);
+  }
+
   @Test
   void testGetCqlBuilderLookups() throws Exception {
     var p = CqlBuilderLookup.Lookup.builder().name("Parameter").logic("abc").build();
@@ -47,7 +68,7 @@ public class CqlToolsControllerMvcTest {
                 .functions(Set.of(f))
                 .build());
 
-    var results =
+    var started =
         mockMvc
             .perform(
                 MockMvcRequestBuilders.put("/cql-builder-lookups")
@@ -56,11 +77,65 @@ public class CqlToolsControllerMvcTest {
                     .header(HttpHeaders.AUTHORIZATION, TEST_USER_ID)
                     .content("test cql")
                     .contentType(MediaType.TEXT_PLAIN_VALUE))
+            .andExpect(request().asyncStarted())
             .andReturn();
+    var results = mockMvc.perform(asyncDispatch(started)).andReturn();
     assertThat(results.getResponse().getStatus(), is(equalTo(HttpStatus.SC_OK)));
     String response = results.getResponse().getContentAsString();
     assertThat(response, containsString(p.getName()));
     assertThat(response, containsString(d.getName()));
     assertThat(response, containsString(f.getName()));
   }
+
+  @Test
+  void testGetDefinitionCallstackGraphByMediaType() throws Exception {
+    when(cqlParsingService.getDefinitionCallstackGraph(anyString(), anyString(), eq(true)))
+        .thenReturn(
+            CallstackGraph.builder()
+                .nodes(List.of(CallstackGraph.Node.builder().id("Numerator").build()))
+                .calls(List.of(List.of()))
+                .reachable(List.of(List.of()))
+                .build());
+
+    var started =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.put("/cql/callstacks")
+                    .param("reachability", "true")
+                    .with(user(TEST_USER_ID))
+                    .with(csrf())
+                    .header(HttpHeaders.AUTHORIZATION, TEST_USER_ID)
+                    .accept(CallstackGraph.MEDIA_TYPE)
+                    .content("test cql")
+                    .contentType(MediaType.TEXT_PLAIN_VALUE))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    var results = mockMvc.perform(asyncDispatch(started)).andReturn();
+    assertThat(results.getResponse().getStatus(), is(equalTo(HttpStatus.SC_OK)));
+    assertThat(results.getResponse().getContentType(), containsString(CallstackGraph.MEDIA_TYPE));
+    assertThat(results.getResponse().getContentAsString(), containsString("\"reachable\""));
+    verify(cqlParsingService, never()).getDefinitionCallstacks(anyString(), anyString());
+  }
+
+  @Test
+  void testGetDefinitionCallstacksByDefault() throws Exception {
+    when(cqlParsingService.getDefinitionCallstacks(anyString(), anyString())).thenReturn(Map.of());
+
+    var started =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.put("/cql/callstacks")
+                    .with(user(TEST_USER_ID))
+                    .with(csrf())
+                    .header(HttpHeaders.AUTHORIZATION, TEST_USER_ID)
+                    .content("test cql")
+                    .contentType(MediaType.TEXT_PLAIN_VALUE))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    var results = mockMvc.perform(asyncDispatch(started)).andReturn();
+    assertThat(results.getResponse().getStatus(), is(equalTo(HttpStatus.SC_OK)));
+    assertThat(results.getResponse().getContentAsString(), is("{}"));
+    verify(cqlParsingService, never())
+        .getDefinitionCallstackGraph(anyString(), anyString(), anyBoolean());
+  }
 }
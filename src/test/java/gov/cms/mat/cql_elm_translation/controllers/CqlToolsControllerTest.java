@@ -1,5 +1,6 @@
 package gov.cms.mat.cql_elm_translation.controllers;
 
+import static gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor.result;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -17,6 +18,8 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import gov.cms.madie.cql_elm_translator.dto.CqlBuilderLookup;
+import gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
 import org.cqframework.cql.tools.formatter.CqlFormatterVisitor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -43,11 +46,13 @@ class CqlToolsControllerTest implements ResourceFileUtil {
 
   @Mock private CqlParsingService cqlParsingService;
   @Mock private CqlFormatterVisitor cqlFormatterVisitor;
+  @Mock private TranslationExecutor translationExecutor;
 
   private Set<CQLDefinition> allDefinitions;
 
   @BeforeEach
   void setUp() {
+    InlineTranslationExecutor.runInline(translationExecutor);
     CQLDefinition definition1 =
         CQLDefinition.builder()
             .id("Initial Population")
@@ -69,7 +74,7 @@ class CqlToolsControllerTest implements ResourceFileUtil {
     sdcSet.add(sdc);
     when(dataCriteriaService.getRelevantElements(any(Measure.class), anyString()))
         .thenReturn(sdcSet);
-    var result = cqlToolsController.getRelevantElements(measure, token);
+    var result = result(cqlToolsController.getRelevantElements(measure, token, null, null, null));
     SourceDataCriteria sourceDataCriteria =
         ((TreeSet<SourceDataCriteria>) result.getBody()).first();
     assertThat(sourceDataCriteria.getOid(), is(equalTo(sdc.getOid())));
@@ -91,7 +96,8 @@ class CqlToolsControllerTest implements ResourceFileUtil {
         .thenReturn(definitionCallstacks);
 
     ResponseEntity<Map<String, Set<CQLDefinition>>> result =
-        cqlToolsController.getDefinitionCallstack("test cql", "accessToken");
+        result(
+            cqlToolsController.getDefinitionCallstack("test cql", "accessToken", null, null, null));
     Set<CQLDefinition> defintions = result.getBody().get("test");
     assertThat(defintions.size(), is(equalTo(1)));
   }
@@ -110,7 +116,7 @@ class CqlToolsControllerTest implements ResourceFileUtil {
                 .build());
 
     ResponseEntity<CqlBuilderLookup> result =
-        cqlToolsController.getCqlBuilderLookups("CQL", "accessToken");
+        result(cqlToolsController.getCqlBuilderLookups("CQL", "accessToken", null, null, null));
     CqlBuilderLookup cqlBuilderLookups = result.getBody();
     assertNotNull(cqlBuilderLookups);
     assertThat(cqlBuilderLookups.getParameters().size(), is(1));
@@ -1,13 +1,18 @@
 package gov.cms.mat.cql_elm_translation.controllers;
 
 import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
+import gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationLaneClassifier;
 import gov.cms.mat.cql_elm_translation.service.EffectiveDataRequirementService;
 import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
@@ -24,9 +29,12 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest({EffectiveDataRequirementController.class})
+@Import(TranslationLaneClassifier.class)
 class EffectiveDataRequirementControllerMVCTest {
 
   private static final String TEST_USER_ID = "john_doe";
@@ -34,9 +42,15 @@ class EffectiveDataRequirementControllerMVCTest {
   @Autowired private MockMvc mockMvc;
 
   @MockBean EffectiveDataRequirementService effectiveDataRequirementService;
+  @MockBean TranslationExecutor translationExecutor;
 
   @Mock org.hl7.fhir.r5.model.Library r5Libray;
 
+  @BeforeEach
+  void setUp() {
+    InlineTranslationExecutor.runInline(translationExecutor);
+  }
+
   @Test
   public void testGetEffectiveDataRequirementsThrowsExceptionWhenLibraryDetailsIsnull()
       throws Exception {
@@ -78,15 +92,19 @@ class EffectiveDataRequirementControllerMVCTest {
     when(effectiveDataRequirementService.getEffectiveDataRequirementsStr(
             any(org.hl7.fhir.r5.model.Library.class)))
         .thenReturn("test");
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.put("/effective-data-requirements")
-                .with(user(TEST_USER_ID))
-                .with(csrf())
-                .header(HttpHeaders.AUTHORIZATION, TEST_USER_ID)
-                .content("{\"cql\": \"Test CQL\", \"libraryName\": \"Test\", \"expressions\": []}")
-                .contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(status().isOk());
+    var started =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.put("/effective-data-requirements")
+                    .with(user(TEST_USER_ID))
+                    .with(csrf())
+                    .header(HttpHeaders.AUTHORIZATION, TEST_USER_ID)
+                    .content(
+                        "{\"cql\": \"Test CQL\", \"libraryName\": \"Test\", \"expressions\": []}")
+                    .contentType(MediaType.APPLICATION_JSON_VALUE))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk());
     verify(effectiveDataRequirementService, times(1))
         .getEffectiveDataRequirements(any(CqlLibraryDetails.class), anyBoolean(), anyString());
     verify(effectiveDataRequirementService, times(1))
@@ -0,0 +1,196 @@
+package gov.cms.mat.cql_elm_translation.controllers;
+
+import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
+import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.mat.cql_elm_translation.config.security.CallerIdentity;
+import gov.cms.mat.cql_elm_translation.dto.TranslationJob;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationJobNotFoundException;
+import gov.cms.mat.cql_elm_translation.service.EffectiveDataRequirementService;
+import gov.cms.mat.cql_elm_translation.service.TranslationJobService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hl7.fhir.r5.model.Library;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.Principal;
+import java.time.Instant;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class TranslationJobControllerTest {
+
+  private final EffectiveDataRequirementService effectiveDataRequirementService =
+      mock(EffectiveDataRequirementService.class);
+  private TranslationJobService translationJobService;
+  private TranslationJobController translationJobController;
+
+  @BeforeEach
+  void setUp() {
+    translationJobService =
+        new TranslationJobService(
+            new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(translationJobService, "poolSize", 1);
+    ReflectionTestUtils.setField(translationJobService, "queueCapacity", 4);
+    ReflectionTestUtils.setField(translationJobService, "maxJobs", 8);
+    ReflectionTestUtils.setField(translationJobService, "resultTtlSeconds", 60L);
+    translationJobService.init();
+    translationJobController =
+        new TranslationJobController(translationJobService, effectiveDataRequirementService);
+    ReflectionTestUtils.setField(translationJobController, "maxWaitSeconds", 10L);
+  }
+
+  @AfterEach
+  void tearDown() {
+    translationJobService.shutdown();
+  }
+
+  private CqlLibraryDetails libraryDetails() {
+    CqlLibraryDetails libraryDetails = new CqlLibraryDetails();
+    libraryDetails.setLibraryName("TestLibrary");
+    libraryDetails.setCql("library TestLibrary version '1.0.000'");
+    return libraryDetails;
+  }
+
+  @Test
+  void submittedJobResultIsLongPolled() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Library library = new Library();
+    when(effectiveDataRequirementService.getEffectiveDataRequirements(any(), eq(true), eq("test")))
+        .thenAnswer(
+            invocation -> {
+              release.await(10, TimeUnit.SECONDS);
+              return library;
+            });
+    when(effectiveDataRequirementService.getEffectiveDataRequirementsStr(library))
+        .thenReturn("{\"resourceType\":\"Library\"}");
+
+    ResponseEntity<TranslationJob> submitted =
+        translationJobController.submitEffectiveDataRequirements(
+            libraryDetails(), true, "test", null);
+    assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+    String jobId = submitted.getBody().getJobId();
+
+    // without wait the pending job is returned at once
+    ResponseEntity<?> pending =
+        (ResponseEntity<?>)
+            translationJobController.getJobResult(jobId, 0, "test", null).getResult();
+    assertEquals(HttpStatus.ACCEPTED, pending.getStatusCode());
+
+    var deferredResult = translationJobController.getJobResult(jobId, 30, "test", null);
+    assertFalse(deferredResult.hasResult());
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!deferredResult.hasResult() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(deferredResult.hasResult());
+    ResponseEntity<?> result = (ResponseEntity<?>) deferredResult.getResult();
+    assertEquals(HttpStatus.OK, result.getStatusCode());
+    assertEquals("{\"resourceType\":\"Library\"}", result.getBody());
+    assertEquals(
+        TranslationJob.Status.SUCCEEDED,
+        translationJobController.getJob(jobId, "test", null).getStatus());
+  }
+
+  @Test
+  void failedJobIsHandedToTheExceptionHandlers() throws Exception {
+    when(effectiveDataRequirementService.getEffectiveDataRequirements(any(), eq(false), any()))
+        .thenThrow(new CqlFormatException("Invalid cql"));
+
+    String jobId =
+        translationJobController
+            .submitEffectiveDataRequirements(libraryDetails(), false, "test", null)
+            .getBody()
+            .getJobId();
+    String owner = CallerIdentity.of(null, "test");
+    translationJobService.get(owner, jobId).completion().get(10, TimeUnit.SECONDS);
+
+    // answered like the synchronous endpoint, 400 for invalid CQL
+    Object result = translationJobController.getJobResult(jobId, 5, "test", null).getResult();
+    assertTrue(result instanceof CqlFormatException);
+    assertEquals(
+        TranslationJob.Status.FAILED,
+        translationJobController.getJob(jobId, "test", null).getStatus());
+  }
+
+  @Test
+  void jobIsOnlyVisibleToItsSubmitter() {
+    when(effectiveDataRequirementService.getEffectiveDataRequirements(any(), eq(true), any()))
+        .thenReturn(new Library());
+    Principal submitter = () -> "user-1";
+    Principal other = () -> "user-2";
+
+    String jobId =
+        translationJobController
+            .submitEffectiveDataRequirements(libraryDetails(), true, "test", submitter)
+            .getBody()
+            .getJobId();
+
+    assertEquals(jobId, translationJobController.getJob(jobId, "test", submitter).getJobId());
+    assertThrows(
+        TranslationJobNotFoundException.class,
+        () -> translationJobController.getJob(jobId, "test", other));
+    assertThrows(
+        TranslationJobNotFoundException.class,
+        () -> translationJobController.getJobResult(jobId, 0, "test", other));
+    assertThrows(
+        TranslationJobNotFoundException.class,
+        () -> translationJobController.cancelJob(jobId, "test", other));
+  }
+
+  @Test
+  void jobStartingAfterTheTokenExpiredFails() throws Exception {
+    Instant now = Instant.now();
+    Jwt jwt =
+        Jwt.withTokenValue("token")
+            .header("alg", "none")
+            .subject("user-1")
+            .issuedAt(now.minusSeconds(120))
+            .expiresAt(now.minusSeconds(60))
+            .build();
+    Principal principal = new JwtAuthenticationToken(jwt);
+
+    String jobId =
+        translationJobController
+            .submitEffectiveDataRequirements(libraryDetails(), true, "test", principal)
+            .getBody()
+            .getJobId();
+    translationJobService.get("user-1", jobId).completion().get(10, TimeUnit.SECONDS);
+
+    Object result = translationJobController.getJobResult(jobId, 5, "test", principal).getResult();
+    assertTrue(result instanceof ResponseStatusException);
+    assertEquals(HttpStatus.UNAUTHORIZED, ((ResponseStatusException) result).getStatusCode());
+    verifyNoInteractions(effectiveDataRequirementService);
+  }
+
+  @Test
+  void blankCqlIsRejected() {
+    CqlLibraryDetails libraryDetails = libraryDetails();
+    libraryDetails.setCql(" ");
+    assertThrows(
+        CqlFormatException.class,
+        () ->
+            translationJobController.submitEffectiveDataRequirements(
+                libraryDetails, true, "test", null));
+  }
+}
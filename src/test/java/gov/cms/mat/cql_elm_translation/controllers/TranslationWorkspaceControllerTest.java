@@ -0,0 +1,107 @@
+package gov.cms.mat.cql_elm_translation.controllers;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor;
+import gov.cms.mat.cql_elm_translation.config.execution.TranslationExecutor;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import gov.cms.mat.cql_elm_translation.dto.TranslationWorkspace;
+import gov.cms.mat.cql_elm_translation.exceptions.WorkspaceNotFoundException;
+import gov.cms.mat.cql_elm_translation.service.TranslationWorkspaceService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.security.Principal;
+
+import static gov.cms.mat.cql_elm_translation.config.execution.InlineTranslationExecutor.result;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+
+@ExtendWith(MockitoExtension.class)
+class TranslationWorkspaceControllerTest implements ResourceFileUtil {
+
+  private static final Principal USER = () -> "user-1";
+
+  @Mock private TranslationWorkspaceService translationWorkspaceService;
+  @Mock private CqlLibraryService cqlLibraryService;
+  @Mock private TranslationExecutor translationExecutor;
+
+  @InjectMocks private TranslationWorkspaceController translationWorkspaceController;
+
+  @Test
+  void openWorkspace() {
+    TranslationWorkspaceService.Workspace workspace =
+        Mockito.mock(TranslationWorkspaceService.Workspace.class);
+    Mockito.when(workspace.getId()).thenReturn("workspace-1");
+    Mockito.when(workspace.getMeasureId()).thenReturn("measure-1");
+    Mockito.when(
+            translationWorkspaceService.open(
+                eq("user-1"),
+                eq("measure-1"),
+                argThat((RequestData options) -> options.isAnnotations() && options.isLocators())))
+        .thenReturn(workspace);
+    Mockito.when(translationWorkspaceService.getIdleTimeoutSeconds()).thenReturn(1800L);
+
+    ResponseEntity<TranslationWorkspace> response =
+        translationWorkspaceController.openWorkspace(
+            "measure-1", null, false, true, true, true, true, false, true, true, "token", USER);
+
+    assertEquals(HttpStatus.CREATED, response.getStatusCode());
+    assertEquals("workspace-1", response.getBody().getWorkspaceId());
+    assertEquals("measure-1", response.getBody().getMeasureId());
+    assertEquals(1800L, response.getBody().getIdleTimeoutSeconds());
+  }
+
+  @Test
+  void translateRevision() {
+    String cqlData = getData("/cv_populations.cql");
+    String result = getData("/cv_populations.json");
+    Mockito.when(translationWorkspaceService.get("user-1", "workspace-1"))
+        .thenReturn(Mockito.mock(TranslationWorkspaceService.Workspace.class));
+    Mockito.when(
+            translationWorkspaceService.translate(
+                eq("user-1"), eq("workspace-1"), eq(cqlData), any(TranslationContext.class)))
+        .thenReturn(CqlConversionPayload.builder().json(result).build());
+    InlineTranslationExecutor.runInline(translationExecutor);
+
+    CqlConversionPayload payload =
+        result(
+            translationWorkspaceController.translateRevision(
+                "workspace-1", cqlData, "token", 1L, USER));
+
+    assertEquals(result, payload.getJson());
+  }
+
+  @Test
+  void translateRevisionForUnknownWorkspace() {
+    Mockito.when(translationWorkspaceService.get("user-1", "missing"))
+        .thenThrow(new WorkspaceNotFoundException("missing"));
+
+    assertThrows(
+        WorkspaceNotFoundException.class,
+        () ->
+            translationWorkspaceController.translateRevision(
+                "missing", "cql", "token", null, USER));
+    Mockito.verifyNoInteractions(translationExecutor);
+  }
+
+  @Test
+  void closeWorkspace() {
+    ResponseEntity<Void> response =
+        translationWorkspaceController.closeWorkspace("workspace-1", "token", USER);
+
+    assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+    Mockito.verify(translationWorkspaceService).close("user-1", "workspace-1");
+  }
+}
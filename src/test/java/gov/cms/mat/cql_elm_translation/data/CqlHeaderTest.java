@@ -0,0 +1,90 @@
+package gov.cms.mat.cql_elm_translation.data;
+
+import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CqlHeaderTest implements ResourceFileUtil {
+
+  @Test
+  void parseReadsLibraryUsingAndIncludes() {
+    CqlHeader cqlHeader = CqlHeader.parse(getData("/cv_populations.cql"));
+
+    assertThat(cqlHeader.library().getName(), is("TestCVPopulations"));
+    assertThat(cqlHeader.library().getVersion(), is("4.0.001"));
+    assertThat(cqlHeader.using().getLibraryType(), is("FHIR"));
+    assertTrue(cqlHeader.isFhir());
+    assertTrue(cqlHeader.modelVersionDeclared());
+    assertThat(
+        cqlHeader.includes(),
+        is(
+            List.of(
+                new CqlHeader.Include("FHIRHelpers", "4.0.001", "FHIRHelpers"),
+                new CqlHeader.Include("SupplementalDataElementsFHIR4", "4.0.001", "SDE"),
+                new CqlHeader.Include("MATGlobalCommonFunctionsFHIR4", "4.0.001", "Global"))));
+  }
+
+  @Test
+  void parseDefaultsIncludeAliasToLibraryName() {
+    CqlHeader cqlHeader =
+        CqlHeader.parse(
+            "library Test version '0.0.000'\n"
+                + "using QDM version '5.6'\n"
+                + "include \"MATGlobalCommonFunctions\" version '7.0.000'\n"
+                + "include Helper version '1.0.000' called \"Helper Lib\"\n");
+
+    assertFalse(cqlHeader.isFhir());
+    assertThat(cqlHeader.includes().size(), is(2));
+    assertThat(cqlHeader.includes().get(0).alias(), is("MATGlobalCommonFunctions"));
+    assertThat(cqlHeader.includes().get(1).alias(), is("Helper Lib"));
+  }
+
+  @Test
+  void parseIncludesSkipsCommentedOutIncludes() {
+    List<CqlHeader.Include> includes =
+        CqlHeader.parseIncludes(
+            "library Test version '0.0.000'\n"
+                + "using FHIR version '4.0.1'\n"
+                + "/*\n"
+                + "include Old version '1.0.000' called Old\n"
+                + "*/\n"
+                + "// include Older version '0.1.000'\n"
+                + "include FHIRHelpers version '4.0.001' called FHIRHelpers\n"
+                + "define \"Text\": 'include Quoted version \\'1.0.000\\''\n");
+
+    assertThat(
+        includes, is(List.of(new CqlHeader.Include("FHIRHelpers", "4.0.001", "FHIRHelpers"))));
+  }
+
+  @Test
+  void parseIncludesReadsVersionlessAndQualifiedIncludes() {
+    List<CqlHeader.Include> includes =
+        CqlHeader.parseIncludes(
+            "library Test version '0.0.000'\n"
+                + "include Helper\n"
+                + "include hl7.fhir.Common called Common\n"
+                + "include Other version '2.0.000'");
+
+    assertThat(
+        includes,
+        is(
+            List.of(
+                new CqlHeader.Include("Helper", null, "Helper"),
+                new CqlHeader.Include("hl7.fhir.Common", null, "Common"),
+                new CqlHeader.Include("Other", "2.0.000", "Other"))));
+  }
+
+  @Test
+  void parseDetectsMissingModelVersion() {
+    CqlHeader cqlHeader = CqlHeader.parse(getData("/missing-model.cql"));
+
+    assertFalse(cqlHeader.modelVersionDeclared());
+    assertFalse(cqlHeader.isFhir());
+  }
+}
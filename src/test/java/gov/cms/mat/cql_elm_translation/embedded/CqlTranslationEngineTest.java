@@ -0,0 +1,72 @@
+package gov.cms.mat.cql_elm_translation.embedded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CqlTranslationEngineTest implements ResourceFileUtil {
+
+  @Test
+  void translatesWithIncludesFromTheLibrarySource() throws Exception {
+    Map<String, String> libraries =
+        Map.of("HelperLibrary-0.0.000", getData("/qicore_included_lib.cql"));
+    CqlTranslationEngine engine =
+        CqlTranslationEngine.builder()
+            .librarySource((name, version) -> libraries.get(name + "-" + version))
+            .build();
+    String cql = getData("/qicore_define_callstack.cql");
+
+    CqlConversionPayload first = engine.translate(cql);
+    CqlConversionPayload second = engine.translate(cql);
+
+    JsonNode library = new ObjectMapper().readTree(first.getJson()).get("library");
+    assertThat(library.at("/identifier/id").textValue(), is("definitionCallstack"));
+    assertTrue(engine.compiledIncludeCount() > 0);
+    // the second translation reuses the compiled include and gives the same ELM
+    assertEquals(first.getJson(), second.getJson());
+    assertEquals(first.getXml(), second.getXml());
+  }
+
+  @Test
+  void compiledIncludesAreBounded() {
+    Map<String, String> libraries =
+        Map.of("HelperLibrary-0.0.000", getData("/qicore_included_lib.cql"));
+    CqlTranslationEngine engine =
+        CqlTranslationEngine.builder()
+            .librarySource((name, version) -> libraries.get(name + "-" + version))
+            .maxCompiledIncludes(1)
+            .build();
+
+    engine.translate(getData("/qicore_define_callstack.cql"));
+
+    assertThat(engine.compiledIncludeCount(), is(1));
+  }
+
+  @Test
+  void librarySourceIsRequired() {
+    assertThrows(NullPointerException.class, () -> CqlTranslationEngine.builder().build());
+  }
+
+  @Test
+  void libraryServiceAdapterReadsFromTheLibrarySource() {
+    LibrarySourceCqlLibraryService cqlLibraryService =
+        new LibrarySourceCqlLibraryService(
+            (name, version) ->
+                "Helper".equals(name) ? "library Helper version '" + version + "'" : null);
+
+    assertThat(
+        cqlLibraryService.getLibraryCql("Helper", "1.0.000", "ignored"),
+        is("library Helper version '1.0.000'"));
+    assertThat(cqlLibraryService.getLibraryCql("Other", "1.0.000", "ignored"), is((String) null));
+  }
+}
@@ -0,0 +1,230 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationItem;
+import gov.cms.mat.cql_elm_translation.dto.BatchTranslationResult;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchTranslationServiceTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+  private BatchTranslationService service;
+
+  @BeforeEach
+  void setUp() {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    service =
+        new BatchTranslationService(
+            cqlConversionService,
+            mock(CqlLibraryService.class),
+            beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(service, "parallelism", 1);
+    ReflectionTestUtils.setField(service, "maxConcurrentBatches", 1);
+    ReflectionTestUtils.setField(service, "retryAfterSeconds", 5L);
+    ReflectionTestUtils.setField(service, "timeoutMillis", 60000L);
+    service.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    service.shutdown();
+  }
+
+  private CqlTranslator translator(Map<VersionedIdentifier, CompiledLibrary> includes) {
+    CompiledLibrary main = new CompiledLibrary();
+    main.setIdentifier(new VersionedIdentifier().withId("Main"));
+    CqlTranslator cqlTranslator = mock(CqlTranslator.class);
+    when(cqlTranslator.getTranslatedLibrary()).thenReturn(main);
+    when(cqlTranslator.getTranslatedLibraries()).thenReturn(includes);
+    when(cqlTranslator.getExceptions()).thenReturn(new ArrayList<>());
+    return cqlTranslator;
+  }
+
+  /** Runs a batch to its end and returns how it ended. */
+  private Throwable run(List<BatchTranslationItem> items, Consumer<BatchTranslationResult> sink)
+      throws Exception {
+    CompletableFuture<Throwable> done = new CompletableFuture<>();
+    service.start(
+        items, RequestData.builder().annotations(true).build(), "token", sink, done::complete);
+    return done.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void failingItemsAreReportedWithoutStoppingTheBatch() throws Exception {
+    VersionedIdentifier helper = new VersionedIdentifier().withId("Helper").withVersion("1.0.000");
+    CompiledLibrary helperLibrary = new CompiledLibrary();
+    CqlTranslator cqlTranslator = translator(Map.of(helper, helperLibrary));
+    when(cqlConversionService.processCqlData(any(), any(), anyMap()))
+        .thenAnswer(
+            invocation -> {
+              RequestData requestData = invocation.getArgument(0);
+              if ("bad".equals(requestData.getCqlData())) {
+                throw new IllegalStateException("compiler failure");
+              }
+              return cqlTranslator;
+            });
+    when(cqlConversionService.toPayload(any(), any(), eq(cqlTranslator)))
+        .thenReturn(CqlConversionPayload.builder().json("{}").xml("<xml/>").build());
+    List<BatchTranslationResult> results = new ArrayList<>();
+
+    Throwable failure =
+        run(
+            List.of(
+                new BatchTranslationItem("1", "library One"),
+                new BatchTranslationItem("2", "bad"),
+                new BatchTranslationItem("3", "library Three")),
+            results::add);
+
+    assertThat(failure, is(nullValue()));
+    assertThat(results.size(), is(3));
+    assertThat(results.get(0).getStatus(), is(BatchTranslationResult.Status.OK));
+    assertThat(results.get(0).getJson(), is("{}"));
+    assertThat(results.get(1).getId(), is("2"));
+    assertThat(results.get(1).getStatus(), is(BatchTranslationResult.Status.ERROR));
+    assertThat(results.get(1).getError(), is("compiler failure"));
+    assertThat(results.get(2).getStatus(), is(BatchTranslationResult.Status.OK));
+    // the include compiled for the first item is handed to the later ones
+    verify(cqlConversionService)
+        .processCqlData(
+            argThat((RequestData requestData) -> "library Three".equals(requestData.getCqlData())),
+            any(),
+            eq(Map.of(helper, helperLibrary)));
+    assertThat(meterRegistry.counter("translation.batch.items", "status", "ok").count(), is(2.0));
+    assertThat(
+        meterRegistry.counter("translation.batch.items", "status", "error").count(), is(1.0));
+  }
+
+  @Test
+  void startRefusesBatchesOverTheLimitUntilOneCompletes() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CqlTranslator cqlTranslator = translator(Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap()))
+        .thenAnswer(
+            invocation -> {
+              release.await(10, TimeUnit.SECONDS);
+              return cqlTranslator;
+            });
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    CompletableFuture<Throwable> done = new CompletableFuture<>();
+    service.start(
+        List.of(new BatchTranslationItem("1", "one")),
+        RequestData.builder().build(),
+        "token",
+        result -> {},
+        done::complete);
+
+    assertThrows(TranslationOverloadedException.class, () -> run(List.of(), result -> {}));
+
+    release.countDown();
+    assertThat(done.get(10, TimeUnit.SECONDS), is(nullValue()));
+    assertThat(run(List.of(), result -> {}), is(nullValue()));
+  }
+
+  @Test
+  void batchNobodyReadsReleasesItsPermitWhenItEnds() throws Exception {
+    CqlTranslator cqlTranslator = translator(Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    CountDownLatch done = new CountDownLatch(1);
+
+    // the caller never consumes the response, the batch still runs to its end
+    service.start(
+        List.of(new BatchTranslationItem("1", "one")),
+        RequestData.builder().build(),
+        "token",
+        result -> {},
+        failure -> done.countDown());
+
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(run(List.of(), result -> {}), is(nullValue()));
+  }
+
+  @Test
+  void cancelledBatchReleasesItsPermit() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    when(cqlConversionService.processCqlData(any(), any(), anyMap()))
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              new CountDownLatch(1).await();
+              return null;
+            });
+    CompletableFuture<Throwable> done = new CompletableFuture<>();
+    Future<?> batch =
+        service.start(
+            List.of(new BatchTranslationItem("1", "one")),
+            RequestData.builder().build(),
+            "token",
+            result -> {},
+            done::complete);
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+
+    batch.cancel(true);
+
+    assertThat(done.get(10, TimeUnit.SECONDS), is(instanceOf(CancellationException.class)));
+    assertThat(run(List.of(), result -> {}), is(nullValue()));
+  }
+
+  @Test
+  void failingSinkStopsTheBatchAndReleasesIt() throws Exception {
+    CqlTranslator cqlTranslator = translator(Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    List<BatchTranslationResult> results = new ArrayList<>();
+
+    Throwable failure =
+        run(
+            List.of(
+                new BatchTranslationItem("1", "one"),
+                new BatchTranslationItem("2", "two"),
+                new BatchTranslationItem("3", "three")),
+            result -> {
+              results.add(result);
+              throw new IllegalStateException("client went away");
+            });
+
+    assertThat(failure, is(instanceOf(IllegalStateException.class)));
+    assertThat(results.size(), is(1));
+    assertThat(run(List.of(), result -> {}), is(nullValue()));
+  }
+}
@@ -4,10 +4,10 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.cms.madie.models.dto.TranslatedLibrary;
-import gov.cms.mat.cql.CqlTextParser;
 import gov.cms.mat.cql.dto.CqlConversionPayload;
 import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
-import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.MadieLibrarySourceProvider;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
 import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
 import gov.cms.madie.cql_elm_translator.exceptions.InternalServerException;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
@@ -180,10 +180,10 @@ class CqlConversionServiceTest implements ResourceFileUtil {
       throw new UncheckedIOException(e);
     }
     RequestData data = requestData.toBuilder().cqlData(cqlData).build();
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(cqlData).getUsing());
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
-    MadieLibrarySourceProvider.setAccessToken("access token");
-    CqlConversionPayload payload = service.processCqlDataWithErrors(data);
+    CqlConversionPayload payload =
+        service.processCqlDataWithErrors(
+            data,
+            TranslationContext.of(CqlHeader.parse(cqlData), cqlLibraryService, "access token"));
     assertNotNull(payload);
     String resultJson = payload.getJson();
     ObjectMapper objectMapper = new ObjectMapper();
@@ -246,10 +246,10 @@ class CqlConversionServiceTest implements ResourceFileUtil {
       throw new UncheckedIOException(e);
     }
     RequestData data = requestData.toBuilder().cqlData(cqlData).build();
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(cqlData).getUsing());
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
-    MadieLibrarySourceProvider.setAccessToken("access token");
-    CqlConversionPayload payload = service.processCqlDataWithErrors(data);
+    CqlConversionPayload payload =
+        service.processCqlDataWithErrors(
+            data,
+            TranslationContext.of(CqlHeader.parse(cqlData), cqlLibraryService, "access token"));
     assertNotNull(payload);
     String resultJson = payload.getJson();
     ObjectMapper objectMapper = new ObjectMapper();
@@ -295,10 +295,10 @@ class CqlConversionServiceTest implements ResourceFileUtil {
       throw new UncheckedIOException(e);
     }
     RequestData data = requestData.toBuilder().cqlData(cqlData).build();
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(cqlData).getUsing());
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
-    MadieLibrarySourceProvider.setAccessToken("access token");
-    CqlConversionPayload payload = service.processCqlDataWithErrors(data);
+    CqlConversionPayload payload =
+        service.processCqlDataWithErrors(
+            data,
+            TranslationContext.of(CqlHeader.parse(cqlData), cqlLibraryService, "access token"));
     assertNotNull(payload);
     String resultJson = payload.getJson();
     ObjectMapper objectMapper = new ObjectMapper();
@@ -1,20 +1,27 @@
 package gov.cms.mat.cql_elm_translation.service;
 
-import gov.cms.mat.cql.CqlTextParser;
 import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
-import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.MadieLibrarySourceProvider;
+import gov.cms.mat.cql_elm_translation.dto.CallstackGraph;
 import gov.cms.madie.cql_elm_translator.dto.CqlBuilderLookup;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
 import gov.cms.madie.cql_elm_translator.utils.cql.parsing.model.CQLDefinition;
 
 import static org.hamcrest.CoreMatchers.nullValue;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.VersionedIdentifier;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,7 +30,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -39,14 +47,13 @@ public class CqlParsingServiceTest implements ResourceFileUtil {
   void setup() {
     qiCoreHelperCql = getData("/qicore_included_lib.cql");
     qiCoreMeasureCql = getData("/qicore_define_callstack.cql");
+    ReflectionTestUtils.setField(cqlParsingService, "includeTtlSeconds", 60L);
+    ReflectionTestUtils.setField(cqlParsingService, "maxIncludedLibraries", 2);
   }
 
   @Test
   void testCallstack() {
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(qiCoreMeasureCql).getUsing());
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
     doReturn(qiCoreHelperCql).when(cqlLibraryService).getLibraryCql(any(), any(), any());
-    doNothing().when(cqlLibraryService).setUpLibrarySourceProvider(anyString(), anyString());
     Map<String, Set<CQLDefinition>> definitionCallstacks =
         cqlParsingService.getDefinitionCallstacks(qiCoreMeasureCql, TOKEN);
 
@@ -108,10 +115,7 @@ public class CqlParsingServiceTest implements ResourceFileUtil {
   }
 
   void testGetCqlBuilderLookups() {
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(qiCoreMeasureCql).getUsing());
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
     doReturn(qiCoreHelperCql).when(cqlLibraryService).getLibraryCql(any(), any(), any());
-    doNothing().when(cqlLibraryService).setUpLibrarySourceProvider(anyString(), anyString());
     CqlBuilderLookup lookup = cqlParsingService.getCqlBuilderLookups(qiCoreMeasureCql, TOKEN);
     assertThat(lookup.getParameters().size(), is(2));
     assertThat(lookup.getDefinitions().size(), is(5));
@@ -119,6 +123,144 @@ public class CqlParsingServiceTest implements ResourceFileUtil {
     assertThat(lookup.getFluentFunctions().size(), is(1));
   }
 
+  private static final String MAIN_CQL =
+      "library Main version '1.0.000'\n\n"
+          + "using FHIR version '4.0.1'\n\n"
+          + "include Helper version '1.0.000' called H\n";
+
+  private static CompiledLibrary compiledLibrary(String name, String... includes) {
+    VersionedIdentifier identifier = new VersionedIdentifier().withId(name).withVersion("1.0.000");
+    Library elm = new Library().withIdentifier(identifier);
+    if (includes.length > 0) {
+      elm.setIncludes(new Library.Includes());
+      for (String include : includes) {
+        elm.getIncludes().getDef().add(new IncludeDef().withPath(include).withVersion("1.0.000"));
+      }
+    }
+    CompiledLibrary library = new CompiledLibrary();
+    library.setIdentifier(identifier);
+    library.setLibrary(elm);
+    return library;
+  }
+
+  /** A parsing service whose translations compile the main library and the given includes. */
+  private CqlParsingService translatingTo(CompiledLibrary... includes) {
+    CompiledLibrary main = compiledLibrary("Main", "Helper");
+    Map<VersionedIdentifier, CompiledLibrary> libraries = new HashMap<>();
+    libraries.put(main.getIdentifier(), main);
+    for (CompiledLibrary include : includes) {
+      libraries.put(include.getIdentifier(), include);
+    }
+    CqlTranslator cqlTranslator = mock(CqlTranslator.class);
+    when(cqlTranslator.getTranslatedLibrary()).thenReturn(main);
+    when(cqlTranslator.getTranslatedLibraries()).thenReturn(libraries);
+    when(cqlTranslator.getExceptions()).thenReturn(List.of());
+    doReturn(qiCoreHelperCql).when(cqlLibraryService).getLibraryCql(any(), any(), any());
+    CqlParsingService service = spy(cqlParsingService);
+    doReturn(cqlTranslator).when(service).processCqlData(any(), any(), anyMap());
+    return service;
+  }
+
+  @Test
+  void includedLibrariesAreParsedOnce() {
+    CompiledLibrary helper = compiledLibrary("Helper");
+    CqlParsingService service = translatingTo(helper);
+
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+
+    verify(service).processCqlData(any(), any(), eq(Map.of()));
+    verify(service).processCqlData(any(), any(), eq(Map.of(helper.getIdentifier(), helper)));
+    // the second parse takes the helper's CQL from the cache too
+    verify(cqlLibraryService).getLibraryCql(eq("Helper"), eq("1.0.000"), any());
+  }
+
+  @Test
+  void includedLibrariesAreParsedAgainAfterTheTtl() {
+    ReflectionTestUtils.setField(cqlParsingService, "includeTtlSeconds", 0L);
+    CqlParsingService service = translatingTo(compiledLibrary("Helper"));
+
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+
+    verify(service, times(2)).processCqlData(any(), any(), eq(Map.of()));
+    verify(cqlLibraryService, times(2)).getLibraryCql(eq("Helper"), eq("1.0.000"), any());
+  }
+
+  @Test
+  void includedLibrariesAreSeededOnlyWithEverythingTheyInclude() {
+    // the helper includes a library that is not cached
+    CqlParsingService service = translatingTo(compiledLibrary("Helper", "Common"));
+
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+
+    verify(service, times(2)).processCqlData(any(), any(), eq(Map.of()));
+  }
+
+  @Test
+  void leastRecentlyUsedIncludedLibrariesAreDropped() {
+    ReflectionTestUtils.setField(cqlParsingService, "maxIncludedLibraries", 1);
+    CompiledLibrary helper = compiledLibrary("Helper", "Common");
+    CompiledLibrary common = compiledLibrary("Common");
+    CqlParsingService service = translatingTo(helper, common);
+
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+    service.parseCql(MAIN_CQL, TOKEN, cqlLibraryService, null);
+
+    // only one of the two was kept, the helper cannot be seeded without what it includes
+    verify(service, times(2)).processCqlData(any(), any(), eq(Map.of()));
+  }
+
+  @Test
+  void callstackGraphSendsEachDefinitionOnce() {
+    CQLDefinition define1 =
+        CQLDefinition.builder()
+            .id("define 1")
+            .definitionName("define 1")
+            .definitionLogic("1")
+            .build();
+    CQLDefinition define2 =
+        CQLDefinition.builder()
+            .id("define 2")
+            .definitionName("define 2")
+            .definitionLogic("2")
+            .build();
+    CQLDefinition helper =
+        CQLDefinition.builder()
+            .id("Helper-0.0.000|Helper|Fn")
+            .definitionName("Fn")
+            .parentLibrary("Helper")
+            .libraryVersion("0.0.000")
+            .libraryDisplayName("Helper")
+            .function(true)
+            .build();
+    Map<String, Set<CQLDefinition>> callstacks =
+        Map.of(
+            "define 3", Set.of(define1, define2),
+            "define 2", Set.of(define1, helper));
+
+    CallstackGraph graph =
+        CqlParsingService.buildCallstackGraph(
+            callstacks,
+            Map.of("define 2", define2, "define 1", define1, helper.getId(), helper),
+            true);
+
+    assertThat(
+        graph.getNodes().stream().map(CallstackGraph.Node::getId).toList(),
+        contains("define 2", "define 3", "Helper-0.0.000|Helper|Fn", "define 1"));
+    assertThat(graph.getNodes().get(0).getLogic(), is("2"));
+    assertThat(graph.getNodes().get(1).getLogic(), is(nullValue()));
+    assertThat(graph.getNodes().get(2).isFunction(), is(true));
+    assertThat(graph.getNodes().get(2).getLibraryAlias(), is("Helper"));
+    assertThat(graph.getCalls(), contains(List.of(2, 3), List.of(0, 3), List.of(), List.of()));
+    assertThat(graph.getReachable().get(1), contains(0, 2, 3));
+
+    assertThat(
+        CqlParsingService.buildCallstackGraph(callstacks, Map.of(), false).getReachable(),
+        is(nullValue()));
+  }
+
   @Test
   void testGetCqlBuilderLookupsForEmptyCql() {
     CqlBuilderLookup lookup = cqlParsingService.getCqlBuilderLookups(null, TOKEN);
@@ -0,0 +1,62 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlSyntaxException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CqlSyntaxCheckServiceTest implements ResourceFileUtil {
+
+  private final CqlSyntaxCheckService cqlSyntaxCheckService = new CqlSyntaxCheckService();
+
+  @Test
+  void findSyntaxErrorsReturnsNothingForValidCql() {
+    assertTrue(cqlSyntaxCheckService.findSyntaxErrors(getData("/cv_populations.cql")).isEmpty());
+    assertTrue(cqlSyntaxCheckService.findSyntaxErrors(getData("/fhirhelpers.cql")).isEmpty());
+  }
+
+  @Test
+  void findSyntaxErrorsLocatesErrorInLibrary() {
+    List<CqlCompilerException> errors =
+        cqlSyntaxCheckService.findSyntaxErrors(getData("/syntaxError.cql"));
+
+    assertThat(errors.isEmpty(), is(false));
+    CqlCompilerException error = errors.get(0);
+    assertThat(error, instanceOf(CqlSyntaxException.class));
+    assertThat(error.getSeverity(), is(CqlCompilerException.ErrorSeverity.Error));
+    assertThat(error.getLocator().getLibrary().getId(), is("Library767878"));
+    assertThat(error.getLocator().getLibrary().getVersion(), is("0.0.000"));
+    assertThat(error.getLocator().getStartLine(), is(14));
+  }
+
+  @Test
+  void checkSyntaxReturnsErrorExceptions() throws Exception {
+    CqlConversionPayload payload =
+        cqlSyntaxCheckService.checkSyntax(getData("/invalid_syntax.cql"));
+
+    JsonNode errorExceptions =
+        new ObjectMapper().readTree(payload.getJson()).get("errorExceptions");
+    assertThat(errorExceptions.isEmpty(), is(false));
+    assertThat(errorExceptions.get(0).get("type").asText(), is("parsing"));
+    assertThat(errorExceptions.get(0).get("targetIncludeLibraryId").asText(), is("test"));
+  }
+
+  @Test
+  void checkSyntaxReturnsEmptyErrorExceptionsForValidCql() throws Exception {
+    CqlConversionPayload payload = cqlSyntaxCheckService.checkSyntax(getData("/qicore.cql"));
+
+    JsonNode errorExceptions =
+        new ObjectMapper().readTree(payload.getJson()).get("errorExceptions");
+    assertThat(errorExceptions.isEmpty(), is(true));
+  }
+}
@@ -1,5 +1,6 @@
 package gov.cms.mat.cql_elm_translation.service;
 
+import gov.cms.madie.models.measure.DefDescPair;
 import gov.cms.madie.models.measure.Group;
 import gov.cms.madie.models.measure.Measure;
 import gov.cms.madie.models.measure.MeasureObservation;
@@ -20,10 +21,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -33,7 +34,6 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 
@@ -87,9 +87,6 @@ public class DataCriteriaServiceTest implements ResourceFileUtil {
 
     CqlTranslator translator = TranslationResource.getInstance(false).buildTranslator(requestData);
     verify(cqlLibraryService).getLibraryCql(any(), any(), any());
-    Mockito.doNothing()
-        .when(cqlLibraryService)
-        .setUpLibrarySourceProvider(anyString(), anyString());
 
     Set<SourceDataCriteria> relevantElements =
         dataCriteriaService.getRelevantElements(measure, token);
@@ -140,10 +137,6 @@ public class DataCriteriaServiceTest implements ResourceFileUtil {
         TranslationResource.getInstance(false)
             .buildTranslator(data.getCqlDataInputStream(), data.createMap(), data.getSourceInfo());
 
-    Mockito.doNothing()
-        .when(cqlLibraryService)
-        .setUpLibrarySourceProvider(anyString(), anyString());
-
     Set<SourceDataCriteria> sourceDataCriteria =
         dataCriteriaService.getRelevantElements(measure, token);
 
@@ -159,4 +152,37 @@ public class DataCriteriaServiceTest implements ResourceFileUtil {
         dataCriteriaService.getRelevantElements(measure, token);
     assertThat(sourceDataCriteria.size(), is(equalTo(0)));
   }
+
+  @Test
+  void usedDefinitionsOfAMeasureWithoutGroups() {
+    Measure measure =
+        Measure.builder()
+            .supplementalData(List.of(DefDescPair.builder().definition("SDE Ethnicity").build()))
+            .riskAdjustments(List.of(DefDescPair.builder().definition("Risk Variable").build()))
+            .build();
+
+    assertThat(
+        dataCriteriaService.getUsedDefinitionsFromMeasure(measure),
+        is(equalTo(Set.of("SDE Ethnicity", "Risk Variable"))));
+  }
+
+  @Test
+  void usedDefinitionsSkipCriteriaWithoutADefinition() {
+    Stratification stratification = new Stratification();
+    Group group =
+        Group.builder()
+            .populations(
+                List.of(
+                    Population.builder().build(),
+                    Population.builder().definition(" ").build(),
+                    Population.builder().definition("Initial Population").build()))
+            .measureObservations(List.of(MeasureObservation.builder().build()))
+            .stratifications(List.of(stratification))
+            .build();
+    Measure measure = Measure.builder().groups(List.of(group)).build();
+
+    assertThat(
+        dataCriteriaService.getUsedDefinitionsFromMeasure(measure),
+        is(equalTo(Set.of("Initial Population"))));
+  }
 }
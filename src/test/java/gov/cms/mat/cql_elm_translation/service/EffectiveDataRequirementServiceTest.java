@@ -3,9 +3,7 @@ package gov.cms.mat.cql_elm_translation.service;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.JsonParser;
 import gov.cms.madie.cql_elm_translator.dto.CqlLibraryDetails;
-import gov.cms.mat.cql.CqlTextParser;
 import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
-import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.MadieLibrarySourceProvider;
 import gov.cms.madie.cql_elm_translator.utils.ResourceUtils;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -51,8 +49,6 @@ class EffectiveDataRequirementServiceTest {
 
   @Test
   public void testGetEffectiveDataRequirementsSuccess() {
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(cqlLibraryDetails.getCql()).getUsing());
-
     String fhirHelperString = ResourceUtils.getData("/fhirhelpers.cql");
     String suppDataString = ResourceUtils.getData("/SupplementalDataElements.cql");
     String cqlLibrary = ResourceUtils.getData("/cv_populations.cql");
@@ -69,7 +65,6 @@ class EffectiveDataRequirementServiceTest {
         .when(cqlLibraryService)
         .getLibraryCql(eq("TestCVPopulations"), nullable(String.class), nullable(String.class));
 
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
     org.hl7.fhir.r5.model.Library r5Library =
         effectiveDataRequirementService.getEffectiveDataRequirements(
             cqlLibraryDetails, false, testAccessToken);
@@ -78,8 +73,6 @@ class EffectiveDataRequirementServiceTest {
 
   @Test
   public void testGetEffectiveDataRequirementsStr() {
-    MadieLibrarySourceProvider.setUsing(new CqlTextParser(cqlLibraryDetails.getCql()).getUsing());
-
     String fhirHelperString = ResourceUtils.getData("/fhirhelpers.cql");
     String suppDataString = ResourceUtils.getData("/SupplementalDataElements.cql");
     String cqlLibrary = ResourceUtils.getData("/cv_populations.cql");
@@ -96,7 +89,6 @@ class EffectiveDataRequirementServiceTest {
         .when(cqlLibraryService)
         .getLibraryCql(eq("TestCVPopulations"), nullable(String.class), nullable(String.class));
 
-    MadieLibrarySourceProvider.setCqlLibraryService(cqlLibraryService);
     org.hl7.fhir.r5.model.Library r5Library =
         effectiveDataRequirementService.getEffectiveDataRequirements(
             cqlLibraryDetails, false, testAccessToken);
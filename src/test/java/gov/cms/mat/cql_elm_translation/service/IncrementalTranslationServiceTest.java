@@ -0,0 +1,299 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IncrementalTranslationServiceTest implements ResourceFileUtil {
+
+  private static final String EDIT = "\n\ndefine \"Incremental Edit\":\n  true\n";
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private IncrementalTranslationService newService(CqlConversionService cqlConversionService) {
+    return newService(cqlConversionService, 60L, 1L << 30);
+  }
+
+  private IncrementalTranslationService newService(
+      CqlConversionService cqlConversionService, long includeTtlSeconds, long memoryBudgetBytes) {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    IncrementalTranslationService service =
+        new IncrementalTranslationService(
+            cqlConversionService, beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(service, "maxDocuments", 2);
+    ReflectionTestUtils.setField(service, "includeTtlSeconds", includeTtlSeconds);
+    ReflectionTestUtils.setField(service, "memoryBudgetBytes", memoryBudgetBytes);
+    ReflectionTestUtils.setField(service, "compiledIncludeBytes", 1000L);
+    service.init();
+    return service;
+  }
+
+  private RequestData requestData(String cql) {
+    return RequestData.builder()
+        .cqlData(cql)
+        .showWarnings(false)
+        .signatures(LibraryBuilder.SignatureLevel.All)
+        .annotations(true)
+        .locators(true)
+        .disableListDemotion(true)
+        .disableListPromotion(true)
+        .disableMethodInvocation(false)
+        .validateUnits(true)
+        .resultTypes(true)
+        .build();
+  }
+
+  private TranslationContext context(String cql) {
+    return TranslationContext.withoutLibraries(CqlHeader.parse(cql));
+  }
+
+  private CqlTranslator translator(
+      String mainId, Map<VersionedIdentifier, CompiledLibrary> includes) {
+    VersionedIdentifier main = new VersionedIdentifier().withId(mainId);
+    CompiledLibrary mainLibrary = new CompiledLibrary();
+    mainLibrary.setIdentifier(main);
+    Map<VersionedIdentifier, CompiledLibrary> libraries = new HashMap<>(includes);
+    libraries.put(main, mainLibrary);
+    CqlTranslator cqlTranslator = mock(CqlTranslator.class);
+    when(cqlTranslator.getTranslatedLibrary()).thenReturn(mainLibrary);
+    when(cqlTranslator.getTranslatedLibraries()).thenReturn(libraries);
+    when(cqlTranslator.getExceptions()).thenReturn(new ArrayList<>());
+    return cqlTranslator;
+  }
+
+  private double outcomeCount(String outcome) {
+    return meterRegistry.counter("translation.incremental", "outcome", outcome).count();
+  }
+
+  /** Translating revisions through the incremental path gives the ELM of a full translation. */
+  @Test
+  void incrementalTranslationMatchesFullTranslation() {
+    CqlLibraryService cqlLibraryService = mock(CqlLibraryService.class);
+    Map<String, String> libraries =
+        Map.of(
+            "HelperLibrary-0.0.000", getData("/qicore_included_lib.cql"),
+            "SupplementalDataElements-4.0.000", getData("/SupplementalDataElements.cql"),
+            "SupplementalDataElements-3.0.000", getData("/SupplementalDataElements_3.cql"),
+            "TJCOverall-4.0.000", getData("/TJCOVerall.cql"),
+            "MATGlobalCommonFunctions-7.0.000", getData("/mat_global_common_functions.cql"));
+    when(cqlLibraryService.getLibraryCql(any(), any(), any()))
+        .thenAnswer(
+            invocation ->
+                libraries.get(invocation.getArgument(0) + "-" + invocation.getArgument(1)));
+
+    CqlConversionService cqlConversionService = new CqlConversionService();
+    IncrementalTranslationService service = newService(cqlConversionService);
+    List<String> corpus =
+        List.of(
+            "/qicore_define_callstack.cql",
+            "/fhir_duplicate_includes.cql",
+            "/fhir_duplicate_includes_sameversion.cql",
+            "/qdm_data_criteria_retrieval_test.cql",
+            "/qicore-fluent.cql",
+            "/qicore.cql",
+            "/fhir.cql",
+            "/missing-model.cql",
+            "/syntaxError.cql");
+
+    List<String> revisions = new ArrayList<>();
+    for (String file : corpus) {
+      String cql = getData(file);
+      revisions.add(cql);
+      revisions.add(cql + EDIT);
+      revisions.add(cql + EDIT);
+      revisions.add(cql);
+    }
+
+    for (int i = 0; i < revisions.size(); i++) {
+      String cql = revisions.get(i);
+      CqlHeader cqlHeader = CqlHeader.parse(cql);
+      TranslationContext context = TranslationContext.of(cqlHeader, cqlLibraryService, "token");
+      CqlConversionPayload full =
+          cqlConversionService.processCqlDataWithErrors(requestData(cql), context);
+      CqlConversionPayload incremental =
+          service.translate("user", "measure-" + (i / 4), requestData(cql), context);
+
+      assertEquals(full.getJson(), incremental.getJson(), "revision " + i);
+      assertEquals(full.getXml(), incremental.getXml(), "revision " + i);
+    }
+    assertThat(outcomeCount("unchanged"), is((double) corpus.size()));
+  }
+
+  @Test
+  void unchangedTextReturnsPreviousResult() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    CqlTranslator cqlTranslator = translator("OpioidData", Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), eq(cqlTranslator)))
+        .thenReturn(CqlConversionPayload.builder().json("{\"library\":{}}").xml("<xml/>").build());
+    IncrementalTranslationService service = newService(cqlConversionService);
+    String cql = getData("/qicore.cql");
+
+    service.translate("user", "measure", requestData(cql), context(cql));
+    CqlConversionPayload payload =
+        service.translate("user", "measure", requestData(cql), context(cql));
+
+    assertThat(payload.getJson(), is("{\"library\":{}}"));
+    assertThat(payload.getXml(), is("<xml/>"));
+    verify(cqlConversionService, times(1)).processCqlData(any(), any(), anyMap());
+    assertThat(outcomeCount("unchanged"), is(1.0));
+  }
+
+  @Test
+  void unchangedIncludesAreReusedForEditedDefinitions() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    VersionedIdentifier helper =
+        new VersionedIdentifier().withId("HelperLibrary").withVersion("0.0.000");
+    CompiledLibrary helperLibrary = new CompiledLibrary();
+    CqlTranslator cqlTranslator = translator("definitionCallstack", Map.of(helper, helperLibrary));
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    IncrementalTranslationService service = newService(cqlConversionService);
+    String cql = getData("/qicore_define_callstack.cql");
+
+    service.translate("user", "measure", requestData(cql), context(cql));
+    service.translate("user", "measure", requestData(cql + EDIT), context(cql + EDIT));
+
+    verify(cqlConversionService).processCqlData(any(), any(), eq(Map.of()));
+    verify(cqlConversionService).processCqlData(any(), any(), eq(Map.of(helper, helperLibrary)));
+    assertThat(outcomeCount("includes-reused"), is(1.0));
+
+    // a different include set compiles everything again
+    String changedInclude =
+        cql.replace("version '0.0.000' called Helper", "version '0.0.001' called Helper");
+    service.translate("user", "measure", requestData(changedInclude), context(changedInclude));
+    verify(cqlConversionService, times(2)).processCqlData(any(), any(), eq(Map.of()));
+  }
+
+  @Test
+  void leastRecentlyUsedDocumentsAreEvicted() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    CqlTranslator cqlTranslator = translator("OpioidData", Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    IncrementalTranslationService service = newService(cqlConversionService);
+    String cql = getData("/qicore.cql");
+
+    service.translate("user", "one", requestData(cql), context(cql));
+    service.translate("user", "two", requestData(cql), context(cql));
+    service.translate("user", "three", requestData(cql), context(cql));
+    service.translate("user", "one", requestData(cql), context(cql));
+
+    assertThat(service.documentCount(), is(2));
+    verify(cqlConversionService, times(4)).processCqlData(any(), any(), anyMap());
+    verify(cqlConversionService, never()).processCqlDataWithErrors(any(), any());
+  }
+
+  @Test
+  void unchangedTextWithIncludesIsTranslatedAgainOnceTheyExpire() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    CqlTranslator cqlTranslator = translator("definitionCallstack", Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    IncrementalTranslationService service = newService(cqlConversionService, 0L, 1L << 30);
+    String cql = getData("/qicore_define_callstack.cql");
+
+    service.translate("user", "measure", requestData(cql), context(cql));
+    service.translate("user", "measure", requestData(cql), context(cql));
+
+    verify(cqlConversionService, times(2)).processCqlData(any(), any(), anyMap());
+    assertThat(outcomeCount("unchanged"), is(0.0));
+  }
+
+  @Test
+  void includesAreKeptForTheTtlOfTheCaller() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    VersionedIdentifier helper =
+        new VersionedIdentifier().withId("HelperLibrary").withVersion("0.0.000");
+    CompiledLibrary helperLibrary = new CompiledLibrary();
+    CqlTranslator cqlTranslator = translator("definitionCallstack", Map.of(helper, helperLibrary));
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    // the service's own TTL has expired everything already
+    IncrementalTranslationService service = newService(cqlConversionService, 0L, 1L << 30);
+    String cql = getData("/qicore_define_callstack.cql");
+
+    IncrementalTranslationService.Translation first =
+        service.translate(null, requestData(cql), context(cql), 600L);
+    service.translate(first.state(), requestData(cql + EDIT), context(cql + EDIT), 600L);
+
+    verify(cqlConversionService).processCqlData(any(), any(), eq(Map.of(helper, helperLibrary)));
+    assertThat(outcomeCount("includes-reused"), is(1.0));
+  }
+
+  @Test
+  void documentsAreKeptPerCaller() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    CqlTranslator cqlTranslator = translator("OpioidData", Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    IncrementalTranslationService service = newService(cqlConversionService);
+    String cql = getData("/qicore.cql");
+
+    service.translate("alice", "measure", requestData(cql), context(cql));
+    service.translate("bob", "measure", requestData(cql), context(cql));
+
+    assertThat(service.documentCount(), is(2));
+    verify(cqlConversionService, times(2)).processCqlData(any(), any(), anyMap());
+    assertThat(outcomeCount("unchanged"), is(0.0));
+  }
+
+  @Test
+  void documentsOverTheMemoryBudgetAreEvicted() {
+    CqlConversionService cqlConversionService = mock(CqlConversionService.class);
+    CqlTranslator cqlTranslator = translator("OpioidData", Map.of());
+    when(cqlConversionService.processCqlData(any(), any(), anyMap())).thenReturn(cqlTranslator);
+    when(cqlConversionService.toPayload(any(), any(), any()))
+        .thenReturn(CqlConversionPayload.builder().json("{}").build());
+    String cql = getData("/qicore.cql");
+    // room for one document and a bit
+    long documentBytes = 2L * (cql.length() + 2 + optionsKeyLength());
+    IncrementalTranslationService service =
+        newService(cqlConversionService, 60L, documentBytes + documentBytes / 2);
+
+    service.translate("user", "one", requestData(cql), context(cql));
+    service.translate("user", "two", requestData(cql), context(cql));
+
+    assertThat(service.documentCount(), is(1));
+    assertThat(service.estimatedBytes(), is(documentBytes));
+  }
+
+  private static int optionsKeyLength() {
+    return "All,false,true,true,true,true,false,true,true".length();
+  }
+}
@@ -0,0 +1,225 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.exceptions.CqlFormatException;
+import gov.cms.madie.cql_elm_translator.exceptions.InternalServerException;
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.madie.models.dto.TranslatedLibrary;
+import io.micrometer.core.instrument.MeterRegistry;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryContentType;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.cql_annotations.r1.CqlToElmInfo;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TranslatedLibraryServiceTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CqlConversionService cqlConversionService = spy(new CqlConversionService());
+  private TranslatedLibraryService service;
+
+  @BeforeEach
+  void setUp() {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    service =
+        new TranslatedLibraryService(
+            cqlConversionService, beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(service, "parallelism", 2);
+    ReflectionTestUtils.setField(service, "maxCachedLibraries", 8);
+    ReflectionTestUtils.setField(service, "includeTtlSeconds", 60L);
+    service.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    service.shutdown();
+  }
+
+  private static CompiledLibrary library(String id, String options) {
+    Library library =
+        new Library()
+            .withIdentifier(new VersionedIdentifier().withId(id).withVersion("1.0.000"))
+            .withAnnotation(new CqlToElmInfo().withTranslatorOptions(options));
+    CompiledLibrary compiledLibrary = new CompiledLibrary();
+    compiledLibrary.setLibrary(library);
+    compiledLibrary.setIdentifier(library.getIdentifier());
+    return compiledLibrary;
+  }
+
+  private static CqlTranslator translator(CompiledLibrary main, CompiledLibrary... includes) {
+    Map<VersionedIdentifier, CompiledLibrary> libraries = new LinkedHashMap<>();
+    for (CompiledLibrary include : includes) {
+      libraries.put(include.getIdentifier(), include);
+    }
+    libraries.put(main.getIdentifier(), main);
+    CqlTranslator cqlTranslator = mock(CqlTranslator.class);
+    when(cqlTranslator.getTranslatedLibrary()).thenReturn(main);
+    when(cqlTranslator.getTranslatedLibraries()).thenReturn(libraries);
+    return cqlTranslator;
+  }
+
+  private double cacheCount(String outcome) {
+    return meterRegistry.counter("translation.artifacts.cache", "outcome", outcome).count();
+  }
+
+  @Test
+  void buildsEveryLibraryOfTheTreeMainFirst() {
+    CqlTranslator cqlTranslator =
+        translator(
+            library("Measure", "EnableAnnotations"),
+            library("FHIRHelpers", "EnableAnnotations"),
+            library("Helper", "EnableAnnotations"));
+
+    List<TranslatedLibrary> translatedLibraries =
+        service.buildTranslatedLibraries(
+            cqlTranslator, Map.of("Measure-1.0.000", "measure cql", "Helper-1.0.000", "cql"));
+
+    assertThat(
+        translatedLibraries.stream().map(TranslatedLibrary::getName).toList(),
+        contains("Measure", "FHIRHelpers", "Helper"));
+    assertThat(translatedLibraries.get(0).getCql(), is("measure cql"));
+    assertThat(translatedLibraries.get(0).getElmJson().contains("\"Measure\""), is(true));
+    assertThat(translatedLibraries.get(2).getCql(), is("cql"));
+  }
+
+  @Test
+  void includedLibrariesAreSerializedOncePerOptions() throws IOException {
+    CompiledLibrary helpers = library("FHIRHelpers", "EnableAnnotations");
+    service.buildTranslatedLibraries(
+        translator(library("One", "EnableAnnotations"), helpers), Map.of());
+    service.buildTranslatedLibraries(
+        translator(
+            library("Two", "EnableAnnotations"), library("FHIRHelpers", "EnableAnnotations")),
+        Map.of());
+
+    verify(cqlConversionService, times(1))
+        .convertToJson(helpers.getLibrary(), LibraryContentType.JSON);
+    assertThat(cacheCount("miss"), is(1.0));
+    assertThat(cacheCount("hit"), is(1.0));
+
+    // the same library compiled with other options serializes to other ELM
+    service.buildTranslatedLibraries(
+        translator(library("Three", "EnableLocators"), library("FHIRHelpers", "EnableLocators")),
+        Map.of());
+    assertThat(service.cachedLibraryCount(), is(2));
+  }
+
+  @Test
+  void includedArtifactsAreSerializedAgainAfterTheIncludeTtl() throws IOException {
+    ReflectionTestUtils.setField(service, "includeTtlSeconds", 0L);
+    CompiledLibrary helpers = library("FHIRHelpers", "EnableAnnotations");
+    service.buildTranslatedLibraries(
+        translator(library("One", "EnableAnnotations"), helpers), Map.of());
+    service.buildTranslatedLibraries(
+        translator(library("Two", "EnableAnnotations"), helpers), Map.of());
+
+    verify(cqlConversionService, times(2))
+        .convertToJson(helpers.getLibrary(), LibraryContentType.JSON);
+    assertThat(cacheCount("miss"), is(2.0));
+    assertThat(service.cachedLibraryCount(), is(1));
+  }
+
+  @Test
+  void failedSerializationIsNotKept() throws IOException {
+    CompiledLibrary helpers = library("FHIRHelpers", "EnableAnnotations");
+    doThrow(new IOException("unwritable"))
+        .when(cqlConversionService)
+        .convertToJson(helpers.getLibrary(), LibraryContentType.JSON);
+
+    assertThrows(
+        InternalServerException.class,
+        () ->
+            service.buildTranslatedLibraries(
+                translator(library("One", "EnableAnnotations"), helpers), Map.of()));
+    assertThat(service.cachedLibraryCount(), is(0));
+
+    doCallRealMethod().when(cqlConversionService).convertToJson(any(), any());
+    assertThat(
+        service
+            .buildTranslatedLibraries(
+                translator(library("One", "EnableAnnotations"), helpers), Map.of())
+            .size(),
+        is(2));
+  }
+
+  @Test
+  void noArtifactThreadIsStartedBeforeItIsNeeded() {
+    ThreadPoolExecutor executor =
+        (ThreadPoolExecutor) ReflectionTestUtils.getField(service, "executor");
+
+    assertThat(executor.getPoolSize(), is(0));
+    service.buildTranslatedLibraries(translator(library("One", "EnableAnnotations")), Map.of());
+    assertThat(executor.getPoolSize(), is(1));
+  }
+
+  @Test
+  void translateLibrariesBuildsTheTreeOfTheCql() {
+    CqlLibraryService cqlLibraryService = mock(CqlLibraryService.class);
+    when(cqlLibraryService.getLibraryCql("FHIRHelpers", "1.0.000", "token"))
+        .thenReturn("helpers cql");
+    doReturn(
+            translator(
+                library("Measure", "EnableAnnotations"),
+                library("FHIRHelpers", "EnableAnnotations")))
+        .when(cqlConversionService)
+        .processCqlData(any(), any(), anyMap());
+
+    List<TranslatedLibrary> translatedLibraries =
+        service.translateLibraries(
+            RequestData.builder().cqlData("measure cql").build(),
+            TranslationContext.of(CqlHeader.parse("measure cql"), cqlLibraryService, "token"));
+
+    assertThat(
+        translatedLibraries.stream().map(TranslatedLibrary::getCql).toList(),
+        contains("measure cql", "helpers cql"));
+    verify(cqlLibraryService, times(1)).getLibraryCql("FHIRHelpers", "1.0.000", "token");
+  }
+
+  @Test
+  void translateLibrariesRejectsCqlWithErrors() {
+    CqlTranslator cqlTranslator = translator(library("Measure", "EnableAnnotations"));
+    when(cqlTranslator.getExceptions())
+        .thenReturn(
+            List.of(new CqlCompilerException("bad", CqlCompilerException.ErrorSeverity.Error)));
+    doReturn(cqlTranslator).when(cqlConversionService).processCqlData(any(), any(), anyMap());
+
+    assertThrows(
+        CqlFormatException.class,
+        () ->
+            service.translateLibraries(
+                RequestData.builder().cqlData("measure cql").build(),
+                TranslationContext.withoutLibraries(CqlHeader.parse("measure cql"))));
+  }
+}
@@ -0,0 +1,135 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.mat.cql_elm_translation.dto.TranslationJob;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationJobNotFoundException;
+import gov.cms.mat.cql_elm_translation.exceptions.TranslationOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TranslationJobServiceTest {
+
+  private static final String OWNER = "user-1";
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private TranslationJobService service;
+
+  @BeforeEach
+  void setUp() {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    service = new TranslationJobService(beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(service, "poolSize", 1);
+    ReflectionTestUtils.setField(service, "queueCapacity", 1);
+    ReflectionTestUtils.setField(service, "maxJobs", 3);
+    ReflectionTestUtils.setField(service, "resultTtlSeconds", 60L);
+    ReflectionTestUtils.setField(service, "retryAfterSeconds", 5L);
+    service.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    service.shutdown();
+  }
+
+  private String blocked() {
+    try {
+      release.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "{}";
+  }
+
+  @Test
+  void jobResultIsKeptAfterItFinishes() throws Exception {
+    TranslationJobService.Job job =
+        service.submit(OWNER, "test", () -> "{\"resourceType\":\"Library\"}");
+
+    job.completion().get(10, TimeUnit.SECONDS);
+
+    TranslationJobService.Job stored = service.get(OWNER, job.getId());
+    assertThat(stored.getStatus(), is(TranslationJob.Status.SUCCEEDED));
+    assertThat(stored.getResult(), is("{\"resourceType\":\"Library\"}"));
+    assertThat(
+        meterRegistry.counter("translation.jobs", "type", "test", "status", "succeeded").count(),
+        is(1.0));
+  }
+
+  @Test
+  void failedJobKeepsTheError() throws Exception {
+    TranslationJobService.Job job =
+        service.submit(
+            OWNER,
+            "test",
+            () -> {
+              throw new IllegalStateException("library not found");
+            });
+
+    job.completion().get(10, TimeUnit.SECONDS);
+
+    assertThat(job.getStatus(), is(TranslationJob.Status.FAILED));
+    assertThat(job.toDto().getError(), is("library not found"));
+    assertThat(job.getFailure(), is(instanceOf(IllegalStateException.class)));
+  }
+
+  @Test
+  void anotherCallersJobIsNotFound() throws Exception {
+    TranslationJobService.Job job = service.submit(OWNER, "test", () -> "{}");
+    job.completion().get(10, TimeUnit.SECONDS);
+
+    assertThrows(TranslationJobNotFoundException.class, () -> service.get("user-2", job.getId()));
+    assertThrows(
+        TranslationJobNotFoundException.class, () -> service.cancel("user-2", job.getId()));
+    assertThat(service.get(OWNER, job.getId()).getStatus(), is(TranslationJob.Status.SUCCEEDED));
+  }
+
+  @Test
+  void fullQueueIsRefused() {
+    service.submit(OWNER, "test", this::blocked);
+    service.submit(OWNER, "test", this::blocked);
+
+    assertThrows(
+        TranslationOverloadedException.class, () -> service.submit(OWNER, "test", this::blocked));
+  }
+
+  @Test
+  void cancelledJobIsRemoved() throws Exception {
+    service.submit(OWNER, "test", this::blocked);
+    TranslationJobService.Job queued = service.submit(OWNER, "test", this::blocked);
+
+    service.cancel(OWNER, queued.getId());
+
+    assertThat(
+        queued.completion().get(1, TimeUnit.SECONDS).getStatus(),
+        is(TranslationJob.Status.CANCELLED));
+    assertThrows(TranslationJobNotFoundException.class, () -> service.get(OWNER, queued.getId()));
+    // the cancelled job left the queue, so there is room again
+    service.submit(OWNER, "test", this::blocked);
+  }
+
+  @Test
+  void expiredResultsAreDropped() throws Exception {
+    ReflectionTestUtils.setField(service, "resultTtlSeconds", 0L);
+    TranslationJobService.Job job = service.submit(OWNER, "test", () -> "{}");
+    job.completion().get(10, TimeUnit.SECONDS);
+    Thread.sleep(5);
+
+    assertThrows(TranslationJobNotFoundException.class, () -> service.get(OWNER, job.getId()));
+    assertThat(service.jobCount(), is(0));
+  }
+}
@@ -0,0 +1,184 @@
+package gov.cms.mat.cql_elm_translation.service;
+
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql.dto.CqlConversionPayload;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.support.TranslationContext;
+import gov.cms.mat.cql_elm_translation.exceptions.WorkspaceNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TranslationWorkspaceServiceTest {
+
+  private static final String OWNER = "owner";
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final IncrementalTranslationService incrementalTranslationService =
+      mock(IncrementalTranslationService.class);
+  private final TranslationContext context =
+      TranslationContext.withoutLibraries(new CqlHeader(null, null, List.of(), true));
+  private TranslationWorkspaceService service;
+
+  @BeforeEach
+  void setUp() {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("meterRegistry", meterRegistry);
+    service =
+        new TranslationWorkspaceService(
+            incrementalTranslationService, beanFactory.getBeanProvider(MeterRegistry.class));
+    ReflectionTestUtils.setField(service, "maxWorkspaces", 2);
+    ReflectionTestUtils.setField(service, "idleTimeoutSeconds", 60L);
+    ReflectionTestUtils.setField(service, "includeTtlSeconds", 600L);
+    ReflectionTestUtils.setField(service, "memoryBudgetBytes", 1000L);
+    ReflectionTestUtils.setField(service, "compiledIncludeBytes", 100L);
+    service.init();
+  }
+
+  private IncrementalTranslationService.DocumentState state(String cql) {
+    return new IncrementalTranslationService.DocumentState(cql, "", "", Map.of(), 0, "{}", "");
+  }
+
+  private void translatesTo(IncrementalTranslationService.DocumentState state) {
+    when(incrementalTranslationService.translate(
+            any(IncrementalTranslationService.DocumentState.class), any(), any(), anyLong()))
+        .thenReturn(
+            new IncrementalTranslationService.Translation(
+                CqlConversionPayload.builder().json(state.json()).build(), state));
+    when(incrementalTranslationService.translate(
+            isNull(IncrementalTranslationService.DocumentState.class), any(), any(), anyLong()))
+        .thenReturn(
+            new IncrementalTranslationService.Translation(
+                CqlConversionPayload.builder().json(state.json()).build(), state));
+  }
+
+  private double evictions(String reason) {
+    return meterRegistry.counter("translation.workspaces.evicted", "reason", reason).count();
+  }
+
+  @Test
+  void revisionsAreTranslatedAgainstThePreviousState() {
+    RequestData options = RequestData.builder().annotations(true).build();
+    TranslationWorkspaceService.Workspace workspace = service.open(OWNER, "measure-1", options);
+    IncrementalTranslationService.DocumentState first = state("first");
+    translatesTo(first);
+
+    service.translate(OWNER, workspace.getId(), "first", context);
+    service.translate(OWNER, workspace.getId(), "second", context);
+
+    verify(incrementalTranslationService)
+        .translate(
+            isNull(IncrementalTranslationService.DocumentState.class),
+            argThat(requestData -> "first".equals(requestData.getCqlData())),
+            eq(context),
+            eq(600L));
+    verify(incrementalTranslationService)
+        .translate(
+            eq(first),
+            argThat(
+                requestData ->
+                    "second".equals(requestData.getCqlData()) && requestData.isAnnotations()),
+            eq(context),
+            eq(600L));
+    assertThat(workspace.getEstimatedBytes(), is(service.estimateBytes(first)));
+  }
+
+  @Test
+  void closedWorkspaceIsNotFound() {
+    TranslationWorkspaceService.Workspace workspace =
+        service.open(OWNER, null, RequestData.builder().build());
+
+    service.close(OWNER, workspace.getId());
+
+    assertThrows(WorkspaceNotFoundException.class, () -> service.get(OWNER, workspace.getId()));
+    assertThrows(WorkspaceNotFoundException.class, () -> service.close(OWNER, workspace.getId()));
+  }
+
+  @Test
+  void leastRecentlyUsedWorkspaceIsEvictedWhenTooManyAreOpen() {
+    String one = service.open(OWNER, "one", RequestData.builder().build()).getId();
+    String two = service.open(OWNER, "two", RequestData.builder().build()).getId();
+    service.get(OWNER, one);
+
+    service.open(OWNER, "three", RequestData.builder().build());
+
+    assertThat(service.get(OWNER, one).getMeasureId(), is("one"));
+    assertThrows(WorkspaceNotFoundException.class, () -> service.get(OWNER, two));
+    assertThat(evictions("lru"), is(1.0));
+  }
+
+  @Test
+  void idleWorkspaceIsEvicted() {
+    TranslationWorkspaceService.Workspace workspace =
+        service.open(OWNER, "idle", RequestData.builder().build());
+    ReflectionTestUtils.setField(
+        workspace, "lastAccessMillis", System.currentTimeMillis() - 61_000);
+
+    assertThrows(WorkspaceNotFoundException.class, () -> service.get(OWNER, workspace.getId()));
+    assertThat(evictions("idle"), is(1.0));
+  }
+
+  @Test
+  void workspacesAreEvictedWhenOverTheMemoryBudget() {
+    String first = service.open(OWNER, "first", RequestData.builder().build()).getId();
+    String second = service.open(OWNER, "second", RequestData.builder().build()).getId();
+    // 2 bytes a character, 300 characters each, so two of these exceed the 1000 byte budget
+    translatesTo(state("x".repeat(298)));
+
+    service.translate(OWNER, first, "first", context);
+    service.translate(OWNER, second, "second", context);
+
+    assertThrows(WorkspaceNotFoundException.class, () -> service.get(OWNER, first));
+    assertThat(service.get(OWNER, second).getMeasureId(), is("second"));
+    assertThat(evictions("memory"), is(1.0));
+    assertThat(service.openCount(), is(1));
+  }
+
+  @Test
+  void estimateCountsCompiledIncludes() {
+    IncrementalTranslationService.DocumentState state =
+        new IncrementalTranslationService.DocumentState(
+            "ab",
+            "",
+            "",
+            Map.of(new VersionedIdentifier().withId("Helper"), new CompiledLibrary()),
+            0,
+            null,
+            null);
+
+    assertThat(service.estimateBytes(null), is(0L));
+    assertThat(service.estimateBytes(state), is(104L));
+  }
+
+  @Test
+  void anotherCallersWorkspaceIsNotFound() {
+    String workspaceId = service.open(OWNER, "measure", RequestData.builder().build()).getId();
+
+    assertThrows(WorkspaceNotFoundException.class, () -> service.get("other", workspaceId));
+    assertThrows(
+        WorkspaceNotFoundException.class,
+        () -> service.translate("other", workspaceId, "cql", context));
+    assertThrows(WorkspaceNotFoundException.class, () -> service.close("other", workspaceId));
+    assertThat(service.get(OWNER, workspaceId).getMeasureId(), is("measure"));
+  }
+}
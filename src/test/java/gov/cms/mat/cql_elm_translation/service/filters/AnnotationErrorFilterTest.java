@@ -1,11 +1,15 @@
 package gov.cms.mat.cql_elm_translation.service.filters;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import gov.cms.mat.fhir.rest.dto.MatCqlConversionException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class AnnotationErrorFilterTest implements ResourceFileUtil {
@@ -41,6 +45,37 @@ class AnnotationErrorFilterTest implements ResourceFileUtil {
     verifySourceAndCleanedTheSame();
   }
 
+  @Test
+  void filter_AttachesErrorExceptionsAheadOfLibrary() throws JsonProcessingException {
+    sourceJson = getData("/fhir4_std_lib_no_annotations.json");
+    MatCqlConversionException error = new MatCqlConversionException();
+    error.setErrorSeverity("Error");
+    error.setMessage("Model Type and version are required");
+
+    AnnotationErrorFilter annotationErrorFilter = new AnnotationErrorFilter(CQL, false, sourceJson);
+    JsonNode rootNode = new ObjectMapper().readTree(annotationErrorFilter.filter(List.of(error)));
+
+    assertEquals("errorExceptions", rootNode.fieldNames().next());
+    assertEquals(
+        "Model Type and version are required",
+        rootNode.get("errorExceptions").get(0).get("message").asText());
+    assertTrue(rootNode.has("library"));
+  }
+
+  @Test
+  void filter_LeavesSeverityOfErrorExceptionsAsBuilt() throws JsonProcessingException {
+    MatCqlConversionException error = new MatCqlConversionException();
+    error.setErrorSeverity("error");
+    error.setMessage("Could not resolve identifier");
+
+    AnnotationErrorFilter annotationErrorFilter = new AnnotationErrorFilter(CQL, false, sourceJson);
+    String cleanedJson = annotationErrorFilter.filter(List.of(error));
+    JsonNode rootNode = new ObjectMapper().readTree(cleanedJson);
+
+    assertEquals("error", rootNode.get("errorExceptions").get(0).get("errorSeverity").asText());
+    assertTrue(cleanedJson.contains("\"errorSeverity\" : \"Error\""));
+  }
+
   private void verifySourceAndCleanedTheSame() {
     AnnotationErrorFilter annotationErrorFilter = new AnnotationErrorFilter(CQL, false, sourceJson);
     String cleanedJson = annotationErrorFilter.filter();
@@ -0,0 +1,66 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql.elements.UsingProperties;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ContextLibrarySourceProviderTest {
+
+  private static final VersionedIdentifier FHIR_HELPERS =
+      new VersionedIdentifier().withId("FHIRHelpers").withVersion("4.0.001");
+
+  private final CqlHeader cqlHeader =
+      new CqlHeader(null, mock(UsingProperties.class), List.of(), true);
+
+  @Test
+  void fetchesIncludesWithTheContextsToken() throws IOException {
+    CqlLibraryService cqlLibraryService = mock(CqlLibraryService.class);
+    when(cqlLibraryService.getLibraryCql("FHIRHelpers", "4.0.001", "token"))
+        .thenReturn("library FHIRHelpers version '4.0.001'");
+
+    InputStream source =
+        TranslationContext.of(cqlHeader, cqlLibraryService, "token")
+            .librarySourceProvider()
+            .getLibrarySource(FHIR_HELPERS);
+
+    assertThat(
+        new String(source.readAllBytes(), StandardCharsets.UTF_8),
+        is("library FHIRHelpers version '4.0.001'"));
+  }
+
+  @Test
+  void withoutLibrariesNothingResolves() {
+    assertThat(
+        TranslationContext.withoutLibraries(cqlHeader)
+            .librarySourceProvider()
+            .getLibrarySource(FHIR_HELPERS),
+        is(nullValue()));
+  }
+
+  @Test
+  void missingUsingIsReported() {
+    TranslationContext context =
+        TranslationContext.of(
+            new CqlHeader(null, null, List.of(), false), mock(CqlLibraryService.class), "token");
+
+    IllegalStateException exception =
+        assertThrows(
+            IllegalStateException.class,
+            () -> context.librarySourceProvider().getLibrarySource(FHIR_HELPERS));
+    assertThat(exception.getMessage(), is(ContextLibrarySourceProvider.MODEL_VERSION_REQUIRED));
+  }
+}
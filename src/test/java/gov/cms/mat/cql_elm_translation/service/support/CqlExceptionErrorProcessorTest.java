@@ -1,7 +1,8 @@
 package gov.cms.mat.cql_elm_translation.service.support;
 
-import gov.cms.mat.cql_elm_translation.ResourceFileUtil;
+import gov.cms.mat.fhir.rest.dto.MatCqlConversionException;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlSyntaxException;
 
 import org.junit.jupiter.api.Test;
 
@@ -9,28 +10,43 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
-
-class CqlExceptionErrorProcessorTest implements ResourceFileUtil {
-  private CqlExceptionErrorProcessor cqlExceptionErrorProcessor;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+class CqlExceptionErrorProcessorTest {
   @Test
-  void process_EmptyErrors() {
-    String json = getData("/library-elm.json");
-    cqlExceptionErrorProcessor = new CqlExceptionErrorProcessor(Collections.emptyList(), json);
-
-    assertEquals(json, cqlExceptionErrorProcessor.process()); // since no errors no changes to json
+  void buildErrorExceptions_WithError() {
+    List<MatCqlConversionException> errorExceptions =
+        new CqlExceptionErrorProcessor(Collections.singletonList(createError()))
+            .buildErrorExceptions();
+
+    assertEquals(1, errorExceptions.size());
+    assertEquals("message", errorExceptions.get(0).getMessage());
+    assertEquals("Error", errorExceptions.get(0).getErrorSeverity());
   }
 
   @Test
-  void process_WithError() {
-    String json = getData("/library-elm.json");
-
-    List<CqlCompilerException> errors = Collections.singletonList(createError());
-
-    cqlExceptionErrorProcessor = new CqlExceptionErrorProcessor(errors, json);
+  void buildErrorExceptions_TypesSyntaxErrorsAsParsing() {
+    List<CqlCompilerException> errors =
+        List.of(
+            createError(),
+            new CqlSyntaxException("bad token", CqlCompilerException.ErrorSeverity.Error));
+
+    List<MatCqlConversionException> errorExceptions =
+        new CqlExceptionErrorProcessor(errors).buildErrorExceptions();
+
+    assertEquals(2, errorExceptions.size());
+    assertNull(errorExceptions.get(0).getType());
+    assertEquals("parsing", errorExceptions.get(1).getType());
+    assertEquals("bad token", errorExceptions.get(1).getMessage());
+    assertEquals("Error", errorExceptions.get(1).getErrorSeverity());
+  }
 
-    assertNotEquals(json, cqlExceptionErrorProcessor.process());
+  @Test
+  void buildErrorExceptions_EmptyErrors() {
+    assertTrue(new CqlExceptionErrorProcessor(null).buildErrorExceptions().isEmpty());
+    assertTrue(
+        new CqlExceptionErrorProcessor(Collections.emptyList()).buildErrorExceptions().isEmpty());
   }
 
   private CqlCompilerException createError() {
@@ -0,0 +1,111 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.cql.model.ListType;
+import org.hl7.cql.model.SimpleType;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.ExpressionRef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.namespace.QName;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+class ElmCanonicalizerTest {
+
+  private static final SimpleType INTEGER = new SimpleType("System.Integer");
+
+  /** A new string each time, the way the compiler produces them from the parse tree. */
+  private static String copy(String value) {
+    return new String(value.toCharArray());
+  }
+
+  private static ExpressionDef expression(String name, String reference) {
+    ExpressionRef ref = new ExpressionRef().withName(copy(reference));
+    ref.setResultTypeName(new QName(copy("urn:hl7-org:elm-types:r1"), copy("Integer")));
+    ExpressionDef def =
+        new ExpressionDef().withName(copy(name)).withContext(copy("Patient")).withExpression(ref);
+    def.setResultType(new ListType(INTEGER));
+    return def;
+  }
+
+  private static CompiledLibrary library(String id) {
+    VersionedIdentifier identifier = new VersionedIdentifier().withId(id).withVersion("1.0.000");
+    Library elm = new Library().withIdentifier(identifier);
+    elm.setStatements(new Library.Statements());
+    for (int i = 0; i < 20; i++) {
+      elm.getStatements().getDef().add(expression("Initial Population " + i, "Qualifying"));
+    }
+    CompiledLibrary library = new CompiledLibrary();
+    library.setIdentifier(identifier);
+    library.setLibrary(elm);
+    return library;
+  }
+
+  private static ExpressionDef def(CompiledLibrary library, int index) {
+    return library.getLibrary().getStatements().getDef().get(index);
+  }
+
+  @Test
+  void repeatedValuesAreSharedAcrossLibraries() {
+    CompiledLibrary first = library("First");
+    CompiledLibrary second = library("Second");
+
+    ElmCanonicalizer.canonicalize(Map.of(first.getIdentifier(), first));
+    ElmCanonicalizer.canonicalize(Map.of(second.getIdentifier(), second));
+
+    ExpressionDef a = def(first, 0);
+    ExpressionDef b = def(second, 7);
+    assertThat(b.getName(), sameInstance(def(first, 7).getName()));
+    assertThat(b.getContext(), sameInstance(a.getContext()));
+    assertThat(b.getResultType(), sameInstance(a.getResultType()));
+    assertThat(
+        ((ExpressionRef) b.getExpression()).getResultTypeName(),
+        sameInstance(((ExpressionRef) a.getExpression()).getResultTypeName()));
+    // elements themselves stay separate
+    assertThat(b.getExpression(), not(sameInstance(a.getExpression())));
+  }
+
+  @Test
+  void reportsSmallerRetainedSizeOnce() {
+    CompiledLibrary library = library("Reported");
+
+    ElmCanonicalizer.Report report = ElmCanonicalizer.canonicalizeReporting(library);
+
+    assertThat(report.library(), is("Reported-1.0.000"));
+    assertThat(report.bytesAfter(), lessThan(report.bytesBefore()));
+    assertThat(ElmCanonicalizer.canonicalizeReporting(library), nullValue());
+    assertThat(ElmCanonicalizer.canonicalize(library), is(false));
+  }
+
+  @Test
+  void reportCountsValuesSharedWithOtherLibraries() {
+    ElmCanonicalizer.Report first = ElmCanonicalizer.canonicalizeReporting(library("SizeOne"));
+    // every value of this one is already in the pool
+    ElmCanonicalizer.Report second = ElmCanonicalizer.canonicalizeReporting(library("SizeTwo"));
+
+    assertThat(second.bytesBefore(), is(first.bytesBefore()));
+    assertThat(second.bytesAfter(), is(first.bytesAfter()));
+  }
+
+  @Test
+  void qualifiedNamesWithOtherPrefixesAreNotShared() {
+    CompiledLibrary first = library("PrefixOne");
+    CompiledLibrary second = library("PrefixTwo");
+    ExpressionRef ref = (ExpressionRef) def(second, 0).getExpression();
+    ref.setResultTypeName(new QName("urn:hl7-org:elm-types:r1", "Integer", "t"));
+
+    ElmCanonicalizer.canonicalize(first);
+    ElmCanonicalizer.canonicalize(second);
+
+    assertThat(ref.getResultTypeName().getPrefix(), is("t"));
+  }
+}
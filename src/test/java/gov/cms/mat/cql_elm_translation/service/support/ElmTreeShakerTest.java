@@ -0,0 +1,79 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.Library;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+class ElmTreeShakerTest {
+
+  private static final String CQL =
+      """
+      library Shaken version '1.0.000'
+
+      define function "Double"(value Integer):
+        value * 2
+
+      define function "Double"(value Decimal):
+        value * 2.0
+
+      define function "Unused Function"(value Integer):
+        value
+
+      define "Base":
+        1
+
+      define "Numerator":
+        "Double"("Base")
+
+      define "Denominator":
+        "Numerator" + 1
+
+      define "Unused":
+        "Base" + 3
+      """;
+
+  private static CqlTranslator translate() {
+    CqlTranslator cqlTranslator =
+        CqlTranslator.fromText(CQL, new LibraryManager(new ModelManager()));
+    assertThat(cqlTranslator.getErrors().isEmpty(), is(true));
+    return cqlTranslator;
+  }
+
+  private static List<String> statementNames(Library library) {
+    return library.getStatements().getDef().stream().map(ExpressionDef::getName).toList();
+  }
+
+  @Test
+  void keepsWhatTheRootsReach() {
+    CqlTranslator cqlTranslator = translate();
+    Library library = cqlTranslator.getTranslatedLibrary().getLibrary();
+
+    int removed = ElmTreeShaker.prune(library, Set.of("Denominator"));
+
+    assertThat(removed, is(2));
+    assertThat(
+        statementNames(library),
+        containsInAnyOrder("Double", "Double", "Base", "Numerator", "Denominator"));
+    assertThat(cqlTranslator.toJson(), not(containsString("Unused")));
+  }
+
+  @Test
+  void unknownRootsKeepNothing() {
+    Library library = translate().getTranslatedLibrary().getLibrary();
+
+    assertThat(ElmTreeShaker.prune(library, Set.of("Missing")), is(7));
+    assertThat(statementNames(library).isEmpty(), is(true));
+  }
+}
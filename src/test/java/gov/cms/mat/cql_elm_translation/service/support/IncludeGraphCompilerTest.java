@@ -0,0 +1,246 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import gov.cms.madie.cql_elm_translator.service.CqlLibraryService;
+import gov.cms.mat.cql.elements.UsingProperties;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IncludeGraphCompilerTest {
+
+  private static final String MAIN =
+      """
+      library Main version '1.0.000'
+
+      include Left version '1.0.000' called L
+      include Right version '1.0.000' called R
+
+      define "Total":
+        L."Left Value" + R."Right Value"
+      """;
+
+  private static final Map<String, String> LIBRARIES =
+      Map.of(
+          "Common-1.0.000",
+          """
+          library Common version '1.0.000'
+
+          define function "Twice"(value Integer):
+            value * 2
+          """,
+          "Left-1.0.000",
+          """
+          library Left version '1.0.000'
+
+          include Common version '1.0.000' called C
+
+          define "Left Value":
+            C."Twice"(1)
+          """,
+          "Right-1.0.000",
+          """
+          library Right version '1.0.000'
+
+          include Common version '1.0.000' called C
+
+          define "Right Value":
+            C."Twice"(2)
+          """);
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final CqlLibraryService cqlLibraryService = mock(CqlLibraryService.class);
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private TranslationContext context(Map<String, String> libraries) {
+    when(cqlLibraryService.getLibraryCql(any(), any(), any()))
+        .thenAnswer(
+            invocation ->
+                libraries.get(invocation.getArgument(0) + "-" + invocation.getArgument(1)));
+    CqlHeader cqlHeader =
+        new CqlHeader(null, mock(UsingProperties.class), CqlHeader.parseIncludes(MAIN), true);
+    return TranslationContext.of(cqlHeader, cqlLibraryService, "token").fetchingOnce();
+  }
+
+  private static CqlTranslator translate(
+      String cql,
+      TranslationContext context,
+      Map<VersionedIdentifier, CompiledLibrary> compiledIncludes) {
+    LibraryManager libraryManager = new LibraryManager(new ModelManager());
+    context.applyTo(libraryManager);
+    libraryManager.getCompiledLibraries().putAll(compiledIncludes);
+    return CqlTranslator.fromText(cql, libraryManager);
+  }
+
+  private static List<String> ids(Map<VersionedIdentifier, CompiledLibrary> libraries) {
+    return libraries.keySet().stream().map(VersionedIdentifier::getId).toList();
+  }
+
+  @Test
+  void seededTranslationMatchesSequentialTranslation() throws IOException {
+    TranslationContext context = context(LIBRARIES);
+    Map<VersionedIdentifier, CompiledLibrary> compiled =
+        IncludeGraphCompiler.compile(
+            context, Map.of(), IncludeGraphCompilerTest::translate, executor);
+
+    assertThat(ids(compiled), containsInAnyOrder("Common", "Left", "Right"));
+    // each library fetched once, by the graph, not again by the compilations
+    verify(cqlLibraryService, times(3)).getLibraryCql(any(), any(), any());
+
+    CqlTranslator sequential = translate(MAIN, context(LIBRARIES), Map.of());
+    CqlTranslator seeded = translate(MAIN, context, compiled);
+    assertThat(seeded.getExceptions(), is(empty()));
+    assertEquals(
+        CqlTranslator.convertToJson(sequential.getTranslatedLibrary().getLibrary()),
+        CqlTranslator.convertToJson(seeded.getTranslatedLibrary().getLibrary()));
+    assertEquals(
+        sequential.getTranslatedLibraries().keySet(), seeded.getTranslatedLibraries().keySet());
+    for (var entry : sequential.getTranslatedLibraries().entrySet()) {
+      assertEquals(
+          CqlTranslator.convertToJson(entry.getValue().getLibrary()),
+          CqlTranslator.convertToJson(
+              seeded.getTranslatedLibraries().get(entry.getKey()).getLibrary()),
+          entry.getKey().getId());
+    }
+  }
+
+  @Test
+  void independentLibrariesCompileAtTheSameTime() {
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    Map<VersionedIdentifier, CompiledLibrary> compiled =
+        IncludeGraphCompiler.compile(
+            context(LIBRARIES),
+            Map.of(),
+            (cql, context, seeds) -> {
+              if (cql.contains("include Left") || cql.contains("include Right")) {
+                try {
+                  // only passes when both siblings are compiling
+                  barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                  throw new IllegalStateException(e);
+                }
+              }
+              return translate(cql, context, seeds);
+            },
+            executor);
+
+    assertThat(ids(compiled), containsInAnyOrder("Common", "Left", "Right"));
+  }
+
+  @Test
+  void librariesOfALevelAreFetchedAtTheSameTime() {
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    TranslationContext context = context(LIBRARIES);
+    when(cqlLibraryService.getLibraryCql(any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              String name = invocation.getArgument(0);
+              if (!name.equals("Common")) {
+                // only passes when both siblings are being fetched
+                barrier.await(10, TimeUnit.SECONDS);
+              }
+              return LIBRARIES.get(name + "-" + invocation.getArgument(1));
+            });
+
+    Map<VersionedIdentifier, CompiledLibrary> compiled =
+        IncludeGraphCompiler.compile(
+            context, Map.of(), IncludeGraphCompilerTest::translate, executor);
+
+    assertThat(ids(compiled), containsInAnyOrder("Common", "Left", "Right"));
+  }
+
+  @Test
+  void cancelledTranslationSkipsTheLibrariesNotStarted() {
+    AtomicInteger compilations = new AtomicInteger();
+    try {
+      assertThrows(
+          CancellationException.class,
+          () ->
+              IncludeGraphCompiler.compile(
+                  context(LIBRARIES),
+                  Map.of(),
+                  (cql, context, seeds) -> {
+                    compilations.incrementAndGet();
+                    // the executor cancels the translation while Common compiles
+                    Thread.currentThread().interrupt();
+                    return translate(cql, context, seeds);
+                  },
+                  runnable -> {
+                    throw new RejectedExecutionException();
+                  }));
+    } finally {
+      Thread.interrupted();
+    }
+
+    assertThat(compilations.get(), is(1));
+  }
+
+  @Test
+  void librariesWithErrorsAreLeftToTheTranslation() {
+    Map<String, String> libraries = new HashMap<>(LIBRARIES);
+    libraries.put(
+        "Right-1.0.000", LIBRARIES.get("Right-1.0.000").replace("\"Twice\"", "\"Thrice\""));
+    VersionedIdentifier seeded = new VersionedIdentifier().withId("Seeded").withVersion("1.0.000");
+
+    Map<VersionedIdentifier, CompiledLibrary> compiled =
+        IncludeGraphCompiler.compile(
+            context(libraries),
+            Map.of(seeded, new CompiledLibrary()),
+            IncludeGraphCompilerTest::translate,
+            executor);
+
+    assertThat(ids(compiled), containsInAnyOrder("Seeded", "Common", "Left"));
+  }
+
+  @Test
+  void commentedOutIncludesAreNotFetched() {
+    Map<String, String> libraries = new HashMap<>(LIBRARIES);
+    libraries.put(
+        "Left-1.0.000",
+        LIBRARIES
+            .get("Left-1.0.000")
+            .replace(
+                "include Common", "/*\ninclude Retired version '1.0.000'\n*/\ninclude Common"));
+
+    Map<VersionedIdentifier, CompiledLibrary> compiled =
+        IncludeGraphCompiler.compile(
+            context(libraries), Map.of(), IncludeGraphCompilerTest::translate, executor);
+
+    assertThat(ids(compiled), containsInAnyOrder("Common", "Left", "Right"));
+    verify(cqlLibraryService, never()).getLibraryCql(eq("Retired"), any(), any());
+  }
+}
@@ -0,0 +1,142 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import gov.cms.madie.cql_elm_translator.utils.cql.data.RequestData;
+import gov.cms.mat.cql_elm_translation.data.CqlHeader;
+import gov.cms.mat.cql_elm_translation.service.CqlConversionService;
+import gov.cms.madie.cql_elm_translator.utils.cql.cql_translator.TranslationResource;
+import lombok.extern.slf4j.Slf4j;
+import org.cqframework.cql.cql2elm.LibraryBuilder;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.cql.model.ModelIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Translates a small include-free library over and over with the models built for every
+ * translation, as before the shared registry, and with the shared registry. Runs with {@code mvn
+ * verify}, checks that the shared models are reused and translate the same, and that the model
+ * manager a translation compiles on resolves them, and logs the median and 90th percentile latency
+ * of both for comparison. The timings are not asserted, they depend on the machine.
+ */
+@Slf4j
+class TranslationModelsIT {
+
+  private static final int WARM_UP = 10;
+  private static final int ROUNDS = 30;
+
+  private static final String CQL =
+      """
+      library SmallLatency version '1.0.000'
+
+      using FHIR version '4.0.1'
+
+      parameter "Measurement Period" Interval<DateTime>
+
+      context Patient
+
+      define "Adult":
+        AgeInYearsAt(start of "Measurement Period") >= 18
+
+      define "Dose":
+        5 'mg' + 10 'mg'
+      """;
+
+  private final CqlConversionService cqlConversionService = new CqlConversionService();
+
+  @AfterEach
+  void clear() {
+    TranslationModels.clear();
+  }
+
+  private static RequestData requestData() {
+    return RequestData.builder()
+        .cqlData(CQL)
+        .showWarnings(false)
+        .signatures(LibraryBuilder.SignatureLevel.All)
+        .annotations(true)
+        .locators(true)
+        .disableListDemotion(true)
+        .disableListPromotion(true)
+        .disableMethodInvocation(false)
+        .validateUnits(true)
+        .resultTypes(true)
+        .build();
+  }
+
+  private String translate() {
+    return cqlConversionService
+        .processCqlDataWithErrors(
+            requestData(), TranslationContext.withoutLibraries(CqlHeader.parse(CQL)))
+        .getJson();
+  }
+
+  /** Returns the ELM of the last round. */
+  private String measure(boolean shared) {
+    long[] nanos = new long[ROUNDS];
+    String json = null;
+    for (int i = -WARM_UP; i < ROUNDS; i++) {
+      if (!shared) {
+        TranslationModels.clear();
+      }
+      long start = System.nanoTime();
+      json = translate();
+      if (i >= 0) {
+        nanos[i] = System.nanoTime() - start;
+      }
+    }
+    Arrays.sort(nanos);
+    log.info(
+        "Small CQL translation, {} p50 {} ms p90 {} ms",
+        shared ? "shared models" : "models per translation",
+        millis(nanos, 0.5),
+        millis(nanos, 0.9));
+    return json;
+  }
+
+  private static double millis(long[] sorted, double percentile) {
+    return sorted[(int) Math.ceil(percentile * sorted.length) - 1] / 1_000_000.0;
+  }
+
+  @Test
+  void sharedModelsAreReusedAndTranslateTheSame() {
+    String perTranslation = measure(false);
+    Map<ModelIdentifier, Model> models = TranslationModels.models();
+    String shared = measure(true);
+
+    assertThat(models.isEmpty(), is(false));
+    Map<ModelIdentifier, Model> after = TranslationModels.models();
+    assertEquals(models.keySet(), after.keySet());
+    models.forEach((identifier, model) -> assertThat(after.get(identifier), sameInstance(model)));
+    assertEquals(perTranslation, shared);
+  }
+
+  @Test
+  void translationsCompileAgainstTheSharedModels() {
+    translate();
+    Map<ModelIdentifier, Model> models = TranslationModels.models();
+    TranslationResource translationResource = TranslationResource.getInstance(true);
+
+    TranslationContext.withoutLibraries(CqlHeader.parse(CQL))
+        .compile(translationResource, requestData(), Map.of());
+
+    // the manager the compilation ran on resolved the registry's models, it built none itself
+    ModelManager modelManager = translationResource.getLibraryManager().getModelManager();
+    assertThat(models.isEmpty(), is(false));
+    models.forEach(
+        (identifier, model) ->
+            assertThat(modelManager.resolveModel(identifier), sameInstance(model)));
+    modelManager
+        .getGlobalCache()
+        .values()
+        .forEach(model -> assertThat(models.containsValue(model), is(true)));
+  }
+}
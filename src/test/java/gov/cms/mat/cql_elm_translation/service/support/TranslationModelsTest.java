@@ -0,0 +1,59 @@
+package gov.cms.mat.cql_elm_translation.service.support;
+
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class TranslationModelsTest {
+
+  private static final String CQL =
+      "library Small version '1.0.000'\n\ndefine \"Dose\":\n  5 'mg' + 10 'mg'\n";
+
+  @BeforeEach
+  @AfterEach
+  void clear() {
+    TranslationModels.clear();
+  }
+
+  /** What a translation does: new managers, seeded from the registry. */
+  private static LibraryManager translate() {
+    LibraryManager libraryManager = new LibraryManager(new ModelManager());
+    TranslationModels.attach(libraryManager);
+    CqlTranslator cqlTranslator = CqlTranslator.fromText(CQL, libraryManager);
+    assertThat(cqlTranslator.getErrors().isEmpty(), is(true));
+    TranslationModels.retain(libraryManager);
+    return libraryManager;
+  }
+
+  @Test
+  void modelsBuiltByOneTranslationAreUsedByTheNext() {
+    Model first = translate().getModelManager().resolveModel("System");
+    Model second = translate().getModelManager().resolveModel("System");
+
+    assertThat(second, sameInstance(first));
+    assertThat(TranslationModels.modelCount(), is(1));
+  }
+
+  @Test
+  void ucumServiceIsShared() {
+    assertThat(translate().getUcumService(), sameInstance(translate().getUcumService()));
+  }
+
+  @Test
+  void managersStayPerTranslation() {
+    LibraryManager first = translate();
+    LibraryManager second = translate();
+
+    assertThat(second, not(sameInstance(first)));
+    assertThat(second.getModelManager(), not(sameInstance(first.getModelManager())));
+  }
+}